@@ -0,0 +1,44 @@
+#!/usr/bin/env bash
+# Compares end-to-end wall time of plain and compressed uploads and responses.
+# Usage: benchmark/compression.sh [trade file] [runs] [url] [rate]
+# rate (e.g. 100M, 10M) is passed to curl --limit-rate to simulate a slower network, by default the transfer isn't limited.
+# zstd uploads are measured only if the zstd command is installed.
+set -euo pipefail
+
+FILE_PATH="${1:-benchmark/trade.csv}"
+RUNS="${2:-3}"
+URL="${3:-http://localhost:8080/api/v1/enrich}"
+RATE="${4:-}"
+
+TMP_DIR=$(mktemp -d)
+trap 'rm -rf "$TMP_DIR"' EXIT
+
+gzip -c "$FILE_PATH" > "$TMP_DIR/trades.csv.gz"
+CODINGS=(identity gzip)
+if command -v zstd > /dev/null; then
+  zstd -q -c "$FILE_PATH" > "$TMP_DIR/trades.csv.zst"
+  CODINGS+=(zstd)
+fi
+
+upload() {
+  case "$1" in
+    identity) echo "$FILE_PATH" ;;
+    gzip) echo "$TMP_DIR/trades.csv.gz" ;;
+    zstd) echo "$TMP_DIR/trades.csv.zst" ;;
+  esac
+}
+
+LIMIT=()
+if [[ -n "$RATE" ]]; then
+  LIMIT=(--limit-rate "$RATE")
+fi
+
+for coding in "${CODINGS[@]}"; do
+  file=$(upload "$coding")
+  for ((i = 1; i <= RUNS; i++)); do
+    result=$(curl -s "${LIMIT[@]}" -X POST -H "Content-Type: text/csv" -H "Content-Encoding: $coding" -H "Accept-Encoding: $coding" \
+      --data-binary "@$file" "$URL" -o /dev/null -w '%{time_total} %{size_upload} %{size_download}')
+    read -r time_total uploaded downloaded <<< "$result"
+    echo "coding=$coding run=$i time=${time_total}s uploaded=${uploaded}B downloaded=${downloaded}B"
+  done
+done
@@ -0,0 +1,31 @@
+#!/usr/bin/env bash
+# Finds the input size up to which enriching on the request thread is faster than handing chunks to the worker pool.
+# For every size the trade file is cut to that many bytes (whole rows only) and sent the given number of times
+# with the inline path disabled (inlineThreshold=0) and forced (inlineThreshold=max).
+# Usage: benchmark/inline-crossover.sh [trade file] [requests per size] [url] [size in bytes...]
+set -euo pipefail
+
+FILE_PATH="${1:-benchmark/trade.csv}"
+REQUESTS="${2:-200}"
+URL="${3:-http://localhost:8080/api/v1/enrich}"
+if (($# > 3)); then
+  SIZES=("${@:4}")
+else
+  SIZES=(1024 4096 16384 65536 262144 1048576)
+fi
+
+SAMPLE=$(mktemp)
+trap 'rm -f "$SAMPLE"' EXIT
+
+average_ms() {
+  local threshold=$1
+  for ((i = 1; i <= REQUESTS; i++)); do
+    curl -s -X POST -F "file=@$SAMPLE" "$URL?inlineThreshold=$threshold" -o /dev/null -w '%{time_total}\n'
+  done | awk '{ total += $1 } END { printf "%.3f", total * 1000 / NR }'
+}
+
+printf "%10s %14s %16s\n" "bytes" "pool avg [ms]" "inline avg [ms]"
+for size in "${SIZES[@]}"; do
+  { head -c "$size" "$FILE_PATH"; echo; } | sed '$d' > "$SAMPLE"
+  printf "%10s %14s %16s\n" "$(wc -c < "$SAMPLE")" "$(average_ms 0)" "$(average_ms 9223372036854775807)"
+done
@@ -0,0 +1,15 @@
+#!/usr/bin/env bash
+# Compares wall time of the unordered and the order-preserving concurrent enricher.
+# Usage: benchmark/ordered-vs-unordered.sh [trade file] [runs] [url]
+set -euo pipefail
+
+FILE_PATH="${1:-benchmark/trade.csv}"
+RUNS="${2:-3}"
+URL="${3:-http://localhost:8080/api/v1/enrich}"
+
+for ordered in false true; do
+  for ((i = 1; i <= RUNS; i++)); do
+    time_total=$(curl -s -X POST -F "file=@$FILE_PATH" "$URL?ordered=$ordered" -o /dev/null -w '%{time_total}')
+    echo "ordered=$ordered run=$i time=${time_total}s"
+  done
+done
@@ -0,0 +1,28 @@
+#!/usr/bin/env bash
+# Sends many raw-body uploads at once, every one throttled like a slow client, and reports how long the whole batch took.
+# Compare a server started with and without --spring.threads.virtual.enabled=true (needs Java 21 for virtual threads).
+# Usage: benchmark/slow-uploads.sh [trade file] [concurrent uploads] [upload rate per client] [url]
+set -euo pipefail
+
+FILE_PATH="${1:-benchmark/trade.csv}"
+UPLOADS="${2:-100}"
+RATE="${3:-256k}"
+URL="${4:-http://localhost:8080/api/v1/enrich}"
+
+RESULTS=$(mktemp)
+trap 'rm -f "$RESULTS"' EXIT
+
+start=$(date +%s%N)
+for ((i = 1; i <= UPLOADS; i++)); do
+  curl -s -X POST -H "Content-Type: text/csv" --limit-rate "$RATE" --data-binary "@$FILE_PATH" "$URL" -o /dev/null \
+    -w '%{http_code} %{time_total}\n' >> "$RESULTS" &
+done
+wait
+end=$(date +%s%N)
+
+awk -v uploads="$UPLOADS" -v rate="$RATE" -v wall_ns="$((end - start))" '
+  $1 == 200 { ok++ }
+  { total += $2; if ($2 > max) max = $2 }
+  END {
+    printf "uploads=%d rate=%s ok=%d wall=%.2fs avg=%.2fs max=%.2fs\n", uploads, rate, ok, wall_ns / 1e9, total / NR, max
+  }' "$RESULTS"
@@ -0,0 +1,50 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.SneakyThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Input shared by all benchmarks - the first {@value ROWS} rows of {@code benchmark/trade.csv}
+ * (the path can be changed with {@code -Dtrade.file=...}). Benchmarks processing all rows use
+ * {@code @OperationsPerInvocation(ROWS)}, so both the time and the {@code gc.alloc.rate.norm} of the GC profiler are per row.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class BenchmarkTrades {
+
+    public static final int ROWS = 100_000;
+
+    /**
+     * @return header and {@value ROWS} rows, the file is repeated if it's shorter
+     */
+    @SneakyThrows
+    public static byte[] csv() {
+        var lines = Files.readAllLines(Path.of(System.getProperty("trade.file", "benchmark/trade.csv")), StandardCharsets.UTF_8);
+        var rows = lines.subList(1, lines.size());
+        var csv = new ByteArrayOutputStream();
+        csv.writeBytes((lines.get(0) + "\n").getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < ROWS; i++) {
+            csv.writeBytes((rows.get(i % rows.size()) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return csv.toByteArray();
+    }
+
+    /**
+     * @return product ids of the rows in {@link #csv()}
+     */
+    public static long[] productIds() {
+        return new String(csv(), StandardCharsets.UTF_8).lines()
+                .skip(CsvTradeReader.HEADER)
+                .mapToLong(row -> Long.parseLong(row.split(",")[1]))
+                .toArray();
+    }
+
+    public static ProductCatalog productCatalog() {
+        return new ProductCatalog("classpath:product.csv", "");
+    }
+}
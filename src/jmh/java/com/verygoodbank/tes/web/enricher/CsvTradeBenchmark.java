@@ -0,0 +1,77 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.SneakyThrows;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CSV parsing and writing of the serial engine
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CsvTradeBenchmark {
+
+    byte[] csv;
+    List<EnrichedTrade> enrichedTrades;
+
+    @Setup
+    @SneakyThrows
+    public void setUp() {
+        csv = BenchmarkTrades.csv();
+        try (var reader = reader()) {
+            enrichedTrades = reader.read()
+                    .map(trade -> EnrichedTrade.builder()
+                            .date(trade.getDate())
+                            .productName("Product " + trade.getProductId())
+                            .currency(trade.getCurrency())
+                            .price(trade.getPrice())
+                            .build())
+                    .toList();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkTrades.ROWS)
+    @SneakyThrows
+    public void read(Blackhole blackhole) {
+        try (var reader = reader()) {
+            reader.read().forEach(blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkTrades.ROWS)
+    @SneakyThrows
+    public void write() {
+        try (var writer = new CsvTradeWriter(new BufferedWriter(new OutputStreamWriter(OutputStream.nullOutputStream())))) {
+            enrichedTrades.forEach(writer::write);
+        }
+    }
+
+    private CsvTradeReader reader() {
+        return new CsvTradeReader(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(csv))), new RejectionReport(), ValidationRules.STRICT);
+    }
+}
@@ -0,0 +1,82 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full enrichment of {@value BenchmarkTrades#ROWS} rows by both engines, from an in-memory input to a discarding output
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EnricherBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Serial {
+
+        byte[] csv;
+        Enricher enricher;
+
+        @Setup
+        public void setUp() {
+            csv = BenchmarkTrades.csv();
+            enricher = new EnricherService(BenchmarkTrades.productCatalog());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Concurrent {
+
+        @Param({"1", "2", "4"})
+        int threads;
+
+        @Param({"8192", "65536"})
+        int chunkSize;
+
+        @Param({"false", "true"})
+        boolean ordered;
+
+        byte[] csv;
+        Enricher enricher;
+        EnrichmentOptions options;
+
+        @Setup
+        public void setUp() {
+            csv = BenchmarkTrades.csv();
+            enricher = new MultiThreadEnricherService(threads, BenchmarkTrades.productCatalog());
+            options = EnrichmentOptions.builder()
+                    .chunkSize(chunkSize)
+                    .preserveOrder(ordered)
+                    .build();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkTrades.ROWS)
+    public RejectionReport serial(Serial state) {
+        return state.enricher.enrich(OutputStream.nullOutputStream(), new ByteArrayInputStream(state.csv), EnrichmentOptions.DEFAULT);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkTrades.ROWS)
+    public RejectionReport concurrent(Concurrent state) {
+        return state.enricher.enrich(OutputStream.nullOutputStream(), new ByteArrayInputStream(state.csv), state.options);
+    }
+}
@@ -0,0 +1,42 @@
+package com.verygoodbank.tes.web.enricher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductNameResolverBenchmark {
+
+    long[] productIds;
+    ProductNameResolver resolver;
+
+    @Setup
+    public void setUp() {
+        productIds = BenchmarkTrades.productIds();
+        resolver = new ProductNameResolver(BenchmarkTrades.productCatalog().current().getIndex());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkTrades.ROWS)
+    public void resolve(Blackhole blackhole) {
+        for (var productId : productIds) {
+            blackhole.consume(resolver.resolve(productId));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import com.verygoodbank.tes.web.enricher.BenchmarkTrades;
+import com.verygoodbank.tes.web.enricher.EnrichmentMetrics;
+import com.verygoodbank.tes.web.enricher.RejectionReport;
+import com.verygoodbank.tes.web.enricher.ValidationRules;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and enrichment of newline-aligned chunks ({@link RowEnricher}) on the calling thread,
+ * without the dispatcher, the worker pool and the output
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChunkProcessorBenchmark {
+
+    @Param({"8192", "65536"})
+    int chunkSize;
+
+    @Param({"scalar", "swar"})
+    String rowScanner;
+
+    ByteBuffer[] inputs;
+    ChunkPool chunkPool;
+    ChunkProcessor chunkProcessor;
+    long enrichedBytes;
+
+    @Setup
+    public void setUp() {
+        inputs = split(BenchmarkTrades.csv(), chunkSize);
+        var waitStrategy = new BusySpinWaitStrategy();
+        chunkPool = new ChunkPool(ChunkPool.MIN_CAPACITY, chunkSize, ChunkProcessor.outputBufferSize(chunkSize), false, waitStrategy);
+        ChunkSink sink = (sequence, buffer) -> enrichedBytes += buffer.remaining();
+        var resolver = new BytesProductNameResolver(BenchmarkTrades.productCatalog().current().getIndex());
+        var report = new RejectionReport();
+        chunkProcessor = new ChunkProcessor(Runnable::run, Runnable::run, chunkPool, sink, new RowEnricher(resolver, report, RowScanner.of(rowScanner), ValidationRules.STRICT), report, waitStrategy,
+                EnrichmentMetrics.disabled("concurrent"));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkTrades.ROWS)
+    public long process() {
+        for (var input : inputs) {
+            var chunk = chunkPool.acquire();
+            chunk.getBuffer().put(input.duplicate()).flip();
+            chunkProcessor.submit(chunk);
+        }
+        return enrichedBytes;
+    }
+
+    /**
+     * Splits rows (without the header) into chunks of at most {@code chunkSize} bytes, each ending with a new line
+     */
+    private static ByteBuffer[] split(byte[] csv, int chunkSize) {
+        var from = 0;
+        while (csv[from++] != ChunkDispatcher.NEW_LINE) ;
+        var chunks = new ArrayList<ByteBuffer>();
+        while (from < csv.length) {
+            var to = Math.min(from + chunkSize, csv.length);
+            while (csv[to - 1] != ChunkDispatcher.NEW_LINE) {
+                to--;
+            }
+            chunks.add(ByteBuffer.wrap(csv, from, to - from).slice());
+            from = to;
+        }
+        return chunks.toArray(ByteBuffer[]::new);
+    }
+}
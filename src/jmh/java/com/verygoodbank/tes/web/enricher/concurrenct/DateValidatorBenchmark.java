@@ -0,0 +1,54 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import com.verygoodbank.tes.web.enricher.BenchmarkTrades;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DateValidatorBenchmark {
+
+    ByteBuffer[] dates;
+
+    @Setup
+    public void setUp() {
+        dates = new String(BenchmarkTrades.csv(), StandardCharsets.UTF_8).lines()
+                .skip(1)
+                .map(row -> ByteBuffer.wrap(row.substring(0, row.indexOf(',')).getBytes(StandardCharsets.UTF_8)))
+                .toArray(ByteBuffer[]::new);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkTrades.ROWS)
+    public void validate(Blackhole blackhole) {
+        for (var date : dates) {
+            blackhole.consume(DateValidator.validate(date));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkTrades.ROWS)
+    public void validateSwar(Blackhole blackhole) {
+        for (var date : dates) {
+            blackhole.consume(DateValidator.validateSwar(date));
+        }
+    }
+}
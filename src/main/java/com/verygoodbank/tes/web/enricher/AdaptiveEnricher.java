@@ -0,0 +1,172 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import lombok.AccessLevel;
+import lombok.SneakyThrows;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Enriches every input with the engine picked for it, unless the request names one ({@link EnrichmentOptions#getEngine()}).
+ * <p>
+ * The concurrent engine is the faster one for simple and quoted inputs of any size - small ones it enriches inline,
+ * on the calling thread. The serial one is used when the concurrent can't take the input or would only queue it:
+ * <ul>
+ *     <li>the beginning of the input has a row longer than the chunk size - the dispatcher can't cut such input</li>
+ *     <li>the shared worker pool is busy - the serial engine runs on the request thread and doesn't wait for workers</li>
+ * </ul>
+ * The beginning is read upfront and enriched together with the rest. An input which ends within it has a known size,
+ * even if the upload didn't announce one.
+ * <p>
+ * Checking only the beginning is best-effort: a longer row further on still goes to the concurrent engine, which fails
+ * the enrichment with an {@link IllegalArgumentException} instead of cutting the row. The client gets a 400 and can
+ * request the serial engine. Callers holding the whole input can check it with
+ * {@link MultiThreadEnricherService#fitsChunks} upfront, like {@link ResumableJobs} does for its ranges.
+ */
+@Service
+@Primary
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@Slf4j
+@Lazy
+public class AdaptiveEnricher implements Enricher {
+
+    static final int DEFAULT_SNIFF_BYTES = 65536;
+    static final int DEFAULT_BUSY_CHUNKS_PER_THREAD = 4;
+
+    public enum Reason {
+        /**
+         * The request named the engine
+         */
+        REQUESTED(Engine.SERIAL, Engine.CONCURRENT),
+        /**
+         * A row doesn't fit into a chunk of the concurrent engine
+         */
+        LONG_ROWS(Engine.SERIAL),
+        /**
+         * Small input enriched inline by the concurrent engine
+         */
+        SMALL_INPUT(Engine.CONCURRENT),
+        /**
+         * Too many chunks wait for the workers of the concurrent engine
+         */
+        BUSY(Engine.SERIAL),
+        DEFAULT(Engine.CONCURRENT);
+
+        private final Engine[] engines;
+
+        Reason(Engine... engines) {
+            this.engines = engines;
+        }
+    }
+
+    EnricherService serial;
+    MultiThreadEnricherService concurrent;
+    int sniffBytes;
+    int busyChunksPerThread;
+    Map<Reason, Map<Engine, LongAdder>> selections = new EnumMap<>(Reason.class);
+
+    /**
+     * @param sniffBytes          beginning of an input checked before the engine is picked
+     * @param busyChunksPerThread queued chunks per worker of the concurrent engine which make it busy, 0 never sends inputs
+     *                            to the serial engine because of the load
+     */
+    @Autowired
+    public AdaptiveEnricher(EnricherService serial, MultiThreadEnricherService concurrent, MeterRegistry meterRegistry,
+                            @Value("${engine.sniff-bytes:65536}") int sniffBytes,
+                            @Value("${engine.busy-chunks-per-thread:4}") int busyChunksPerThread) {
+        this.serial = serial;
+        this.concurrent = concurrent;
+        this.sniffBytes = sniffBytes;
+        this.busyChunksPerThread = busyChunksPerThread;
+        for (var reason : Reason.values()) {
+            var engines = new EnumMap<Engine, LongAdder>(Engine.class);
+            for (var engine : reason.engines) {
+                var selected = new LongAdder();
+                engines.put(engine, selected);
+                FunctionCounter.builder("enricher.engine.selections", selected, LongAdder::sum)
+                        .description("Inputs enriched by the engine, by the reason it was picked")
+                        .tags("engine", engine.tag(), "reason", reason.name())
+                        .register(meterRegistry);
+            }
+            selections.put(reason, engines);
+        }
+    }
+
+    public AdaptiveEnricher(EnricherService serial, MultiThreadEnricherService concurrent) {
+        this(serial, concurrent, new CompositeMeterRegistry(), DEFAULT_SNIFF_BYTES, DEFAULT_BUSY_CHUNKS_PER_THREAD);
+    }
+
+    @SneakyThrows
+    @Override
+    public RejectionReport enrich(OutputStream outputStream, InputStream inputStream, EnrichmentOptions options) {
+        if (options.getEngine() != Engine.AUTO) {
+            return engine(selected(options.getEngine(), Reason.REQUESTED)).enrich(outputStream, inputStream, options);
+        }
+        if (inputStream == null) {
+            throw new IllegalArgumentException("Input stream cannot be null");
+        }
+        var head = inputStream.readNBytes(sniffBytes);
+        var sizedOptions = head.length < sniffBytes && options.getInputSize() == EnrichmentOptions.UNKNOWN_SIZE
+                ? options.toBuilder().inputSize(head.length).build()
+                : options;
+        var engine = select(ByteBuffer.wrap(head), sizedOptions);
+        return engine(engine).enrich(outputStream, new SequenceInputStream(new ByteArrayInputStream(head), inputStream), sizedOptions);
+    }
+
+    @SneakyThrows
+    @Override
+    public RejectionReport enrich(Path input, Path output, EnrichmentOptions options) {
+        if (options.getEngine() != Engine.AUTO) {
+            return engine(selected(options.getEngine(), Reason.REQUESTED)).enrich(input, output, options);
+        }
+        byte[] head;
+        try (var inputStream = Files.newInputStream(input)) {
+            head = inputStream.readNBytes(sniffBytes);
+        }
+        var sizedOptions = options.toBuilder().inputSize(Files.size(input)).build();
+        var engine = select(ByteBuffer.wrap(head), sizedOptions);
+        return engine(engine).enrich(input, output, sizedOptions);
+    }
+
+    private Engine select(ByteBuffer head, EnrichmentOptions options) {
+        if (!MultiThreadEnricherService.fitsChunks(head, options)) {
+            return selected(Engine.SERIAL, Reason.LONG_ROWS);
+        }
+        if (MultiThreadEnricherService.isInline(options)) {
+            return selected(Engine.CONCURRENT, Reason.SMALL_INPUT);
+        }
+        if (busyChunksPerThread > 0 && concurrent.isBusy(busyChunksPerThread)) {
+            return selected(Engine.SERIAL, Reason.BUSY);
+        }
+        return selected(Engine.CONCURRENT, Reason.DEFAULT);
+    }
+
+    private Engine selected(Engine engine, Reason reason) {
+        selections.get(reason).get(engine).increment();
+        log.debug("Enriching with the {} engine, reason: {}", engine.tag(), reason);
+        return engine;
+    }
+
+    private Enricher engine(Engine engine) {
+        return engine == Engine.SERIAL ? serial : concurrent;
+    }
+}
@@ -0,0 +1,11 @@
+package com.verygoodbank.tes.web.enricher;
+
+/**
+ * An admin request came without the admin token or with a wrong one
+ */
+public class AdminAccessException extends RuntimeException {
+
+    public AdminAccessException() {
+        super("Admin endpoints require the admin token");
+    }
+}
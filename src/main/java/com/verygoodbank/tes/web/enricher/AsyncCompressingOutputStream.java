@@ -0,0 +1,173 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Hands written bytes over in blocks to a single thread which writes them into the compressing stream.
+ * Not thread safe - the engines write the output from one thread at a time.
+ * <p>
+ * If the compression fails (e.g. the client went away) the thread keeps recycling blocks, so the writer never waits
+ * for a free block forever, and the failure is thrown from the next hand-over.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+class AsyncCompressingOutputStream extends OutputStream {
+
+    private static final Block END = new Block(0);
+
+    OutputStream compressed;
+    BlockingQueue<Block> full;
+    BlockingQueue<Block> free;
+    CompletableFuture<Void> compression;
+    @NonFinal
+    Block current;
+    @NonFinal
+    volatile IOException failure;
+    @NonFinal
+    boolean closed;
+
+    AsyncCompressingOutputStream(OutputStream compressed, Executor executor, int blockSize, int blocks) {
+        this.compressed = compressed;
+        this.full = new ArrayBlockingQueue<>(blocks + 1);
+        this.free = new ArrayBlockingQueue<>(blocks);
+        for (int i = 1; i < blocks; i++) {
+            free.add(new Block(blockSize));
+        }
+        this.current = new Block(blockSize);
+        this.compression = CompletableFuture.runAsync(this::compressBlocks, executor);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (current.isFull()) {
+            handOver();
+        }
+        current.bytes[current.length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (current.isFull()) {
+                handOver();
+            }
+            var copied = Math.min(len, current.bytes.length - current.length);
+            System.arraycopy(b, off, current.bytes, current.length, copied);
+            current.length += copied;
+            off += copied;
+            len -= copied;
+        }
+    }
+
+    /**
+     * Hands the current block over, but doesn't flush the codec - that would make the compression ratio worse
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (current.length > 0) {
+            handOver();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (current.length > 0) {
+                full.put(current);
+            }
+            full.put(END);
+            compression.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while finishing the compressed output");
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed", e.getCause());
+        }
+        throwIfFailed();
+    }
+
+    private void handOver() throws IOException {
+        throwIfFailed();
+        try {
+            full.put(current);
+            current = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while handing the output over to the compression");
+        }
+    }
+
+    private void compressBlocks() {
+        try {
+            Block block;
+            while ((block = full.take()) != END) {
+                if (failure == null) {
+                    write(block);
+                }
+                block.length = 0;
+                free.put(block);
+            }
+            if (failure == null) {
+                compressed.close();
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = new InterruptedIOException("Compression interrupted");
+        }
+    }
+
+    private void write(Block block) {
+        try {
+            compressed.write(block.bytes, 0, block.length);
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = new IOException("Compression failed", e);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    private static final class Block {
+        final byte[] bytes;
+        int length;
+
+        Block(int size) {
+            this.bytes = new byte[size];
+        }
+
+        boolean isFull() {
+            return length == bytes.length;
+        }
+    }
+}
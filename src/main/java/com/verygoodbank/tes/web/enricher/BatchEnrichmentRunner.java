@@ -0,0 +1,56 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enriches one file on the local disk into another one and exits, the web server isn't started in the batch profile:
+ * {@code java -jar enricher.jar --spring.profiles.include=batch --batch.input=trade.csv --batch.output=enriched.csv}
+ */
+@Component
+@Profile("batch")
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@Slf4j
+class BatchEnrichmentRunner implements ApplicationRunner {
+
+    Enricher enricher;
+    Path input;
+    Path output;
+    EnrichmentOptions options;
+
+    public BatchEnrichmentRunner(Enricher enricher,
+                                 @Value("${batch.input}") String input,
+                                 @Value("${batch.output}") String output,
+                                 @Value("${chunk-size:0}") int chunkSize,
+                                 @Value("${validation.currency:true}") boolean validateCurrency,
+                                 @Value("${validation.price:true}") boolean validatePrice,
+                                 @Value("${validation.currencies:}") String currencies,
+                                 @Value("${engine:auto}") String engine) {
+        this.enricher = enricher;
+        this.input = Path.of(input);
+        this.output = Path.of(output);
+        this.options = EnrichmentOptions.builder()
+                .chunkSize(chunkSize)
+                .validation(ValidationRules.of(validateCurrency, validatePrice, currencies))
+                .engine(Engine.of(engine))
+                .build();
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        log.info("Enriching {} into {}", input, output);
+        var start = System.nanoTime();
+        var report = enricher.enrich(input, output, options);
+        log.info("Enriched {} in {} ms, rejected rows: {}", input, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                report.rejectedRows());
+    }
+}
@@ -0,0 +1,162 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Byte-level rules of the trade columns, the single definition of a valid row for both engines. Columns are given
+ * as {@code [from, to)} indexes of a buffer, nothing is allocated.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class ColumnValidator {
+
+    public static final long INVALID_PRODUCT_ID = -1;
+    public static final int DATE_LENGTH = 8;
+    public static final int CURRENCY_LENGTH = 3;
+    /**
+     * Any id of up to 18 digits fits into a long
+     */
+    public static final int MAX_PRODUCT_ID_LENGTH = 18;
+
+    /**
+     * @return true if the column is a date in the {@code yyyyMMdd} format, years 0001 - 9999
+     */
+    public static boolean isValidDate(ByteBuffer buffer, int from, int to) {
+        if (to - from != DATE_LENGTH) {
+            return false;
+        }
+        int year = parseInt(buffer, from, 4);
+        int month = parseInt(buffer, from + 4, 2);
+        int day = parseInt(buffer, from + 4 + 2, 2);
+        return isValidDate(year, month, day);
+    }
+
+    public static boolean isValidDate(int year, int month, int day) {
+        if (year < 1) {
+            return false;
+        }
+        if (month < 1 || month > 12) {
+            return false;
+        }
+        if (day < 1 || day > 31) {
+            return false;
+        }
+
+        if (month == 2) {
+            if (isLeapYear(year)) {
+                return day <= 29;
+            } else {
+                return day <= 28;
+            }
+        }
+
+        if (month == 4 || month == 6 || month == 9 || month == 11) {
+            return day <= 30;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the id if the column has 1 - {@value #MAX_PRODUCT_ID_LENGTH} digits, {@link #INVALID_PRODUCT_ID} otherwise
+     */
+    public static long productId(ByteBuffer buffer, int from, int to) {
+        if (to <= from || to - from > MAX_PRODUCT_ID_LENGTH) {
+            return INVALID_PRODUCT_ID;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            var digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID_PRODUCT_ID;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return true if the column has the format of an ISO 4217 code - three upper case letters
+     */
+    public static boolean isCurrencyCode(ByteBuffer buffer, int from, int to) {
+        if (to - from != CURRENCY_LENGTH) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            var letter = buffer.get(i);
+            if (letter < 'A' || letter > 'Z') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return index of a currency code in {@code [0, 26^3)}, the column has to be a {@link #isCurrencyCode currency code}
+     */
+    public static int currencyIndex(ByteBuffer buffer, int from) {
+        return ((buffer.get(from) - 'A') * 26 + buffer.get(from + 1) - 'A') * 26 + buffer.get(from + 2) - 'A';
+    }
+
+    /**
+     * @return true if the column is a plain decimal number - an optional minus, digits and optionally
+     * a dot followed by digits. Exponents, a plus sign and a dot without digits on both sides aren't accepted
+     */
+    public static boolean isDecimal(ByteBuffer buffer, int from, int to) {
+        var index = from;
+        if (index < to && buffer.get(index) == '-') {
+            index++;
+        }
+        var integerDigits = digits(buffer, index, to);
+        if (integerDigits == 0) {
+            return false;
+        }
+        index += integerDigits;
+        if (index == to) {
+            return true;
+        }
+        if (buffer.get(index) != '.') {
+            return false;
+        }
+        index++;
+        var fractionDigits = digits(buffer, index, to);
+        return fractionDigits > 0 && index + fractionDigits == to;
+    }
+
+    private static int digits(ByteBuffer buffer, int from, int to) {
+        var index = from;
+        while (index < to && isDigit(buffer.get(index))) {
+            index++;
+        }
+        return index - from;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static int parseInt(ByteBuffer buffer, int from, int length) {
+        int value = 0;
+        for (int i = from; i < from + length; i++) {
+            var b = buffer.get(i);
+            if (!isDigit(b)) {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private static boolean isLeapYear(int year) {
+        if (year % 4 == 0) {
+            if (year % 100 == 0) {
+                return year % 400 == 0;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,144 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.experimental.FieldDefaults;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content codings supported for uploaded trades and for the enriched output
+ */
+@RequiredArgsConstructor
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@Getter
+public enum Compression {
+    IDENTITY("identity", "") {
+        @Override
+        public InputStream decompress(InputStream inputStream) {
+            return inputStream;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream outputStream) {
+            return outputStream;
+        }
+    },
+    GZIP("gzip", ".gz") {
+        @SneakyThrows
+        @Override
+        public InputStream decompress(InputStream inputStream) {
+            return new GZIPInputStream(inputStream, BUFFER_SIZE);
+        }
+
+        @SneakyThrows
+        @Override
+        public OutputStream compress(OutputStream outputStream) {
+            return new GZIPOutputStream(outputStream, BUFFER_SIZE);
+        }
+    },
+    ZSTD("zstd", ".zst") {
+        @SneakyThrows
+        @Override
+        public InputStream decompress(InputStream inputStream) {
+            return new ZstdInputStream(inputStream);
+        }
+
+        @SneakyThrows
+        @Override
+        public OutputStream compress(OutputStream outputStream) {
+            return new ZstdOutputStream(outputStream);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 65536;
+
+    String contentEncoding;
+    String fileExtension;
+
+    public abstract InputStream decompress(InputStream inputStream);
+
+    /**
+     * Closing the returned stream finishes the compressed stream and closes {@code outputStream}
+     */
+    public abstract OutputStream compress(OutputStream outputStream);
+
+    /**
+     * @param contentEncoding value of the {@code Content-Encoding} header, can be null
+     * @throws IllegalArgumentException if the coding isn't supported
+     */
+    public static Compression ofContentEncoding(String contentEncoding) {
+        if (contentEncoding == null || contentEncoding.isBlank()) {
+            return IDENTITY;
+        }
+        var coding = contentEncoding.trim().toLowerCase(Locale.ROOT);
+        return Arrays.stream(values())
+                .filter(it -> it.contentEncoding.equals(coding))
+                .findAny()
+                .orElseThrow(() -> new IllegalArgumentException("Unsupported Content-Encoding: " + contentEncoding));
+    }
+
+    /**
+     * Uploaded files are recognised by the extension - {@code trades.csv.gz}, {@code trades.csv.zst}
+     */
+    public static Compression ofFileName(String fileName) {
+        if (fileName == null) {
+            return IDENTITY;
+        }
+        var name = fileName.toLowerCase(Locale.ROOT);
+        return Arrays.stream(values())
+                .filter(it -> it != IDENTITY && name.endsWith(it.fileExtension))
+                .findAny()
+                .orElse(IDENTITY);
+    }
+
+    /**
+     * Picks the coding of the response from the {@code Accept-Encoding} header. zstd is preferred over gzip,
+     * it compresses CSV about as well at a fraction of the CPU time. Codings with {@code q=0} are refused
+     */
+    public static Compression negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return IDENTITY;
+        }
+        var accepted = Arrays.stream(acceptEncoding.split(","))
+                .map(String::trim)
+                .filter(coding -> !isRefused(coding))
+                .map(coding -> coding.split(";")[0].trim().toLowerCase(Locale.ROOT))
+                .toList();
+        if (accepted.contains(ZSTD.contentEncoding)) {
+            return ZSTD;
+        }
+        if (accepted.contains(GZIP.contentEncoding)) {
+            return GZIP;
+        }
+        return IDENTITY;
+    }
+
+    private static boolean isRefused(String coding) {
+        var parameters = coding.split(";");
+        for (int i = 1; i < parameters.length; i++) {
+            var parameter = parameters[i].replace(" ", "");
+            if (parameter.startsWith("q=")) {
+                return parseQuality(parameter.substring(2)) == 0;
+            }
+        }
+        return false;
+    }
+
+    private static double parseQuality(String quality) {
+        try {
+            return Double.parseDouble(quality);
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.verygoodbank.tes.web.enricher.concurrenct.SystemOverloadedException;
+import lombok.AccessLevel;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import lombok.experimental.FieldDefaults;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compresses the enriched output on a separate thread. Engines only copy the output into a free block
+ * and go on with the next chunk, the compression thread of the request compresses full blocks and writes them to the client.
+ * <p>
+ * Number of blocks of one response is bounded, so a slow client (or a slow codec) pushes back on the engine
+ * the same way an uncompressed response does.
+ * <p>
+ * Every compressed response holds one compression thread until it's closed, at most {@code compression.threads} of them.
+ * A response over the limit fails as an overload, like a chunk the worker pool doesn't take.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@Component
+@Lazy
+@Slf4j
+public class CompressionStage implements DisposableBean {
+
+    static final int DEFAULT_BLOCK_SIZE = 65536;
+    static final int DEFAULT_BLOCKS = 4;
+    static final int DEFAULT_THREADS = 200;
+    private static final int MIN_BLOCKS = 2;
+
+    int blockSize;
+    int blocks;
+    ExecutorService compressionExecutor;
+
+    @Autowired
+    public CompressionStage(@Value("${compression.block-size:" + DEFAULT_BLOCK_SIZE + "}") int blockSize,
+                            @Value("${compression.blocks:" + DEFAULT_BLOCKS + "}") int blocks,
+                            @Value("${compression.threads:" + DEFAULT_THREADS + "}") int threads) {
+        if (blockSize <= 0 || blocks < MIN_BLOCKS) {
+            throw new IllegalArgumentException("Block size must be positive and there must be at least " + MIN_BLOCKS + " blocks");
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of compression threads must be positive, got: " + threads);
+        }
+        this.blockSize = blockSize;
+        this.blocks = blocks;
+        // no queue - a response waiting for a compression thread would block its engine on full blocks
+        this.compressionExecutor = new ThreadPoolExecutor(0, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new BasicThreadFactory.Builder()
+                        .namingPattern("compression-%d")
+                        .daemon(true)
+                        .build());
+    }
+
+    public CompressionStage() {
+        this(DEFAULT_BLOCK_SIZE, DEFAULT_BLOCKS, DEFAULT_THREADS);
+    }
+
+    /**
+     * Closing the returned stream waits until the compressed output is finished and closes {@code outputStream}
+     *
+     * @throws SystemOverloadedException if all compression threads are taken
+     */
+    public OutputStream compress(OutputStream outputStream, Compression compression) {
+        if (compression == Compression.IDENTITY) {
+            return outputStream;
+        }
+        if (compressionExecutor.isShutdown()) {
+            throw new IllegalStateException("Compression stage is closed");
+        }
+        try {
+            return new AsyncCompressingOutputStream(compression.compress(outputStream), compressionExecutor, blockSize, blocks);
+        } catch (RejectedExecutionException e) {
+            throw new SystemOverloadedException("All compression threads are taken, cannot compress more responses");
+        }
+    }
+
+    /**
+     * Interrupts compressions still running, the web server has finished its responses by the time beans are destroyed
+     */
+    @SneakyThrows
+    @Override
+    public void destroy() {
+        compressionExecutor.shutdownNow();
+        if (!compressionExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("Compression threads didn't stop in 10 seconds");
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.verygoodbank.tes.web.enricher.concurrenct.PeerCoordinator;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Coordinator mode, only on instances with {@code coordinator.peers}: the body is streamed in ranges to the peers,
+ * see {@link PeerCoordinator}. The peers are plain instances
+ */
+@RestController
+@RequestMapping("api/v1")
+@ConditionalOnProperty(name = "coordinator.peers")
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@RequiredArgsConstructor
+class CoordinatorController {
+
+    private static final String TEXT_CSV_VALUE = "text/csv";
+
+    PeerCoordinator coordinator;
+
+    @PostMapping(value = "/enrich/coordinated", consumes = {TEXT_CSV_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<StreamingResponseBody> processBody(HttpServletRequest request,
+                                                             @RequestParam(value = "chunkSize", defaultValue = "${chunk-size:0}") int chunkSize,
+                                                             @RequestParam(value = "validateCurrency", defaultValue = "${validation.currency:true}") boolean validateCurrency,
+                                                             @RequestParam(value = "validatePrice", defaultValue = "${validation.price:true}") boolean validatePrice,
+                                                             @RequestParam(value = "currencies", defaultValue = "${validation.currencies:}") String currencies,
+                                                             @RequestParam(value = "engine", defaultValue = "${engine:auto}") String engine,
+                                                             @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+                                                             HttpServletResponse response) {
+        var inputCompression = Compression.ofContentEncoding(contentEncoding);
+        var options = EnrichmentOptions.builder()
+                .chunkSize(chunkSize)
+                .validation(ValidationRules.of(validateCurrency, validatePrice, currencies))
+                .engine(Engine.of(engine))
+                .build();
+        var report = new AtomicReference<RejectionReport>();
+        response.setTrailerFields(() -> report.get() == null ? Map.of() : report.get().toTrailers());
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.TRAILER, TradeEnrichmentController.REJECTION_TRAILERS)
+                .body((OutputStream outputStream) ->
+                        report.set(coordinator.enrich(StreamUtils.nonClosing(outputStream), inputCompression.decompress(request.getInputStream()), options)));
+    }
+}
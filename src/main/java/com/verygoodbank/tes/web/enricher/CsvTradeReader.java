@@ -1,34 +1,42 @@
 package com.verygoodbank.tes.web.enricher;
 
 import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.RFC4180ParserBuilder;
 import lombok.AccessLevel;
 import lombok.SneakyThrows;
 import lombok.experimental.FieldDefaults;
-import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.stream.Streams;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.Reader;
-import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.Objects;
-import java.util.function.Function;
 import java.util.stream.Stream;
 
 import static com.verygoodbank.tes.web.enricher.EnricherService.DATE_FORMAT;
+import static com.verygoodbank.tes.web.enricher.RejectionReport.Reason;
 
 @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
-@Slf4j
 class CsvTradeReader implements Closeable {
 
     static final int HEADER = 1;
     static final String[] COLUMN_NAMES = {"date", "product_id", "currency", "price"};
 
     CSVReader csvReader;
+    RejectionReport report;
+    ValidationRules rules;
 
-    public CsvTradeReader(Reader bufferedReader) {
-        this.csvReader = new CSVReader(bufferedReader);
+    public CsvTradeReader(Reader bufferedReader, RejectionReport report, ValidationRules rules) {
+        // RFC 4180 quoting without escape characters, the same rules as the concurrent engine parses
+        this.csvReader = new CSVReaderBuilder(bufferedReader)
+                .withCSVParser(new RFC4180ParserBuilder().build())
+                .build();
+        this.report = report;
+        this.rules = rules;
     }
 
     @SneakyThrows
@@ -36,37 +44,66 @@ class CsvTradeReader implements Closeable {
         csvReader.skip(HEADER);
 
         return Streams.of(csvReader.iterator())
-                .filter(it -> it.length == COLUMN_NAMES.length)
+                .filter(this::hasAllColumns)
                 .map(this::toTrade)
                 .filter(Objects::nonNull);
     }
 
 
-    private Trade toTrade(String[] row) {
-        var date = fetchData(row, 0, stringDate -> LocalDate.parse(stringDate, DATE_FORMAT));
-        var productId = fetchData(row, 1, Long::parseLong);
-        var currency = fetchData(row, 2, Objects::requireNonNull);
-        var price = fetchData(row, 3, BigDecimal::new);
+    private boolean hasAllColumns(String[] row) {
+        if (row.length == COLUMN_NAMES.length) {
+            return true;
+        }
+        if (!isEmptyLine(row)) {
+            reject(Reason.INVALID_COLUMN_COUNT, row);
+        }
+        return false;
+    }
+
+    private static boolean isEmptyLine(String[] row) {
+        return row.length == 1 && row[0].isEmpty();
+    }
 
-        if (date == null || productId == null || currency == null || price == null) {
-            return null;
+    /**
+     * Columns are checked by the same rules as the concurrent engine uses, in the same order
+     */
+    private Trade toTrade(String[] row) {
+        var date = bytes(row[0]);
+        if (!ColumnValidator.isValidDate(date, 0, date.limit())) {
+            return reject(Reason.INVALID_DATE, row);
+        }
+        var productIdColumn = bytes(row[1]);
+        var productId = ColumnValidator.productId(productIdColumn, 0, productIdColumn.limit());
+        if (productId == ColumnValidator.INVALID_PRODUCT_ID) {
+            return reject(Reason.INVALID_PRODUCT_ID, row);
+        }
+        var currency = bytes(row[2]);
+        if (!rules.isValidCurrency(currency, 0, currency.limit())) {
+            return reject(Reason.INVALID_CURRENCY, row);
+        }
+        var price = bytes(row[3]);
+        if (!rules.isValidPrice(price, 0, price.limit())) {
+            return reject(Reason.INVALID_PRICE, row);
         }
 
         return Trade.builder()
-                .date(date)
+                .date(LocalDate.parse(row[0], DATE_FORMAT))
                 .productId(productId)
-                .currency(currency)
-                .price(price)
+                .currency(row[2])
+                .price(row[3])
                 .build();
     }
 
-    private <R> R fetchData(String[] row, int column, Function<String, R> fetcher) {
-        try {
-            return fetcher.apply(row[column]);
-        } catch (Exception e) {
-            log.error("Invalid {} format. Value: {}. Row discarded", COLUMN_NAMES[column], row[column]);
-            return null;
+    private static ByteBuffer bytes(String column) {
+        return ByteBuffer.wrap(column.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private Trade reject(Reason reason, String[] row) {
+        report.reject(reason);
+        if (report.wantsSample()) {
+            report.sample(reason, String.join(",", row));
         }
+        return null;
     }
 
     @Override
@@ -2,8 +2,10 @@ package com.verygoodbank.tes.web.enricher;
 
 import com.opencsv.CSVWriter;
 import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.SneakyThrows;
 import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -18,6 +20,9 @@ class CsvTradeWriter implements Closeable {
     static final String[] HEADER = {"date", "product_name", "currency", "price"};
 
     CSVWriter csvWriter;
+    @NonFinal
+    @Getter
+    long rowsWritten;
 
     public CsvTradeWriter(Writer bufferedWriter) {
         this.csvWriter = new CSVWriter(bufferedWriter);
@@ -26,7 +31,8 @@ class CsvTradeWriter implements Closeable {
 
     @SneakyThrows
     public void write(EnrichedTrade toTrade) {
-        csvWriter.writeNext(new String[]{toTrade.getDate().format(DATE_FORMAT), toTrade.getProductName(), toTrade.getCurrency(), toTrade.getPrice().toString()}, APPLY_QUOTES);
+        csvWriter.writeNext(new String[]{toTrade.getDate().format(DATE_FORMAT), toTrade.getProductName(), toTrade.getCurrency(), toTrade.getPrice()}, APPLY_QUOTES);
+        rowsWritten++;
     }
 
     @Override
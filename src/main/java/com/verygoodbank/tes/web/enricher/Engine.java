@@ -0,0 +1,33 @@
+package com.verygoodbank.tes.web.enricher;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Engine enriching an input, see {@link AdaptiveEnricher}
+ */
+public enum Engine {
+    /**
+     * Chosen per input by {@link AdaptiveEnricher}
+     */
+    AUTO,
+    SERIAL,
+    CONCURRENT;
+
+    /**
+     * @throws IllegalArgumentException if there is no such engine
+     */
+    public static Engine of(String name) {
+        return Arrays.stream(values())
+                .filter(it -> it.tag().equals(name.trim().toLowerCase(Locale.ROOT)))
+                .findAny()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown engine: " + name + ", expected auto, serial or concurrent"));
+    }
+
+    /**
+     * Name used in the metric tags
+     */
+    public String tag() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,8 +1,31 @@
 package com.verygoodbank.tes.web.enricher;
 
+import lombok.SneakyThrows;
+
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public interface Enricher {
-    void enrich(OutputStream outputStream, InputStream inputStream);
+    default void enrich(OutputStream outputStream, InputStream inputStream) {
+        enrich(outputStream, inputStream, EnrichmentOptions.DEFAULT);
+    }
+
+    /**
+     * @return bad rows found during the enrichment, complete once this method returns
+     */
+    RejectionReport enrich(OutputStream outputStream, InputStream inputStream, EnrichmentOptions options);
+
+    /**
+     * Enriches a file on the local disk into another file, the target is created or overwritten.
+     * By default the input is streamed the same way as an upload
+     */
+    @SneakyThrows
+    default RejectionReport enrich(Path input, Path output, EnrichmentOptions options) {
+        try (var inputStream = Files.newInputStream(input);
+             var outputStream = Files.newOutputStream(output)) {
+            return enrich(outputStream, inputStream, options);
+        }
+    }
 }
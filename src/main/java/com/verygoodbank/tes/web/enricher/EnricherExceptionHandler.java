@@ -2,6 +2,7 @@ package com.verygoodbank.tes.web.enricher;
 
 import com.verygoodbank.tes.web.enricher.concurrenct.SystemOverloadedException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -24,6 +25,24 @@ class EnricherExceptionHandler extends ResponseEntityExceptionHandler {
         return ResponseEntity.badRequest().body(exc.getMessage());
     }
 
+    @ExceptionHandler(value = UnknownJobException.class)
+    public ResponseEntity<String> handleUnknownJob(UnknownJobException exc) {
+        log.debug(exc.getMessage());
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(exc.getMessage());
+    }
+
+    @ExceptionHandler(value = JobStateException.class)
+    public ResponseEntity<String> handleJobState(JobStateException exc) {
+        log.debug(exc.getMessage());
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(exc.getMessage());
+    }
+
+    @ExceptionHandler(value = AdminAccessException.class)
+    public ResponseEntity<String> handleAdminAccess(AdminAccessException exc) {
+        log.warn(exc.getMessage());
+        return ResponseEntity.status(HttpStatus.UNAUTHORIZED).header(HttpHeaders.WWW_AUTHENTICATE, "Bearer").body(exc.getMessage());
+    }
+
     @ExceptionHandler(value = SystemOverloadedException.class)
     public ResponseEntity<String> handleIllegalException(SystemOverloadedException exc) {
         log.warn(exc.getMessage());
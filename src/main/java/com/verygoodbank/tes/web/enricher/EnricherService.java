@@ -1,12 +1,12 @@
 package com.verygoodbank.tes.web.enricher;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.AccessLevel;
-import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
-import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
 import java.io.BufferedReader;
@@ -19,31 +19,62 @@ import java.io.OutputStreamWriter;
 import java.time.format.DateTimeFormatter;
 
 @Service
-@Profile("serial")
 @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
-@RequiredArgsConstructor
 @Slf4j
 @Lazy
 public class EnricherService implements Enricher {
 
     private static final int BUFFER_SIZE = 8192;
+    private static final String ENGINE = Engine.SERIAL.tag();
     static final String DEFAULT_PRODUCT_NAME = "Missing Product Name";
     public static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
 
-    ProductNameResolver productNameResolver;
+    ProductCatalog productCatalog;
+    EnrichmentMetrics metrics;
+
+    @Autowired
+    public EnricherService(ProductCatalog productCatalog, MeterRegistry meterRegistry) {
+        this(productCatalog, new EnrichmentMetrics(meterRegistry, ENGINE));
+    }
+
+    public EnricherService(ProductCatalog productCatalog) {
+        this(productCatalog, EnrichmentMetrics.disabled(ENGINE));
+    }
+
+    public EnricherService(ProductCatalog productCatalog, EnrichmentMetrics metrics) {
+        this.productCatalog = productCatalog;
+        this.metrics = metrics;
+    }
 
     @SneakyThrows
     @Override
-    public void enrich(OutputStream outputStream, InputStream inputStream) {
+    public RejectionReport enrich(OutputStream outputStream, InputStream inputStream, EnrichmentOptions options) {
         throwIfNull(outputStream, "Output");
         throwIfNull(inputStream, "Input");
 
-        try (var reader = new CsvTradeReader(new BufferedReader(new InputStreamReader(inputStream), BUFFER_SIZE));
-             var writer = new CsvTradeWriter(new BufferedWriter(new OutputStreamWriter(outputStream), BUFFER_SIZE))) {
+        var report = new RejectionReport();
+        var start = metrics.enrichmentStarted();
+        try (var reader = new CsvTradeReader(new BufferedReader(new InputStreamReader(metrics.countRead(inputStream)), BUFFER_SIZE), report, options.getValidation());
+             var writer = new CsvTradeWriter(new BufferedWriter(new OutputStreamWriter(metrics.countWritten(outputStream)), BUFFER_SIZE))) {
+
+            var productNameResolver = new ProductNameResolver(productCatalog.current().getIndex());
+            try {
+                reader.read()
+                        .map(trade -> enrich(trade, productNameResolver, report))
+                        .forEach(writer::write);
+            } finally {
+                metrics.rowsEnriched(writer.getRowsWritten());
+            }
+        } finally {
+            metrics.enrichmentFinished(start, report);
+        }
+        logIfNotEmpty(report);
+        return report;
+    }
 
-            reader.read()
-                    .map(this::enrich)
-                    .forEach(writer::write);
+    private static void logIfNotEmpty(RejectionReport report) {
+        if (!report.isEmpty()) {
+            log.warn("Enrichment finished with bad rows - {}", report);
         }
     }
 
@@ -53,9 +84,9 @@ public class EnricherService implements Enricher {
         }
     }
 
-    private EnrichedTrade enrich(Trade trade) {
+    private static EnrichedTrade enrich(Trade trade, ProductNameResolver productNameResolver, RejectionReport report) {
         var productName = productNameResolver.resolve(trade.getProductId())
-                .orElseGet(() -> logMissingProductAndReturnDefault(trade.getProductId()));
+                .orElseGet(() -> reportMissingProductAndReturnDefault(trade.getProductId(), report));
 
         return EnrichedTrade.builder()
                 .date(trade.getDate())
@@ -65,8 +96,8 @@ public class EnricherService implements Enricher {
                 .build();
     }
 
-    private static String logMissingProductAndReturnDefault(long productId) {
-        log.warn("Missing product name mapping for product id: {}", productId);
+    private static String reportMissingProductAndReturnDefault(long productId, RejectionReport report) {
+        report.missingProduct(productId);
         return DEFAULT_PRODUCT_NAME;
     }
 }
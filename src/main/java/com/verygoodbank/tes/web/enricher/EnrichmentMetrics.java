@@ -0,0 +1,231 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.verygoodbank.tes.web.enricher.RejectionReport.Reason;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of one engine, every meter is tagged with the engine name.
+ * <p>
+ * Hot paths never touch a meter. They add to striped {@link LongAdder}s (one cell per contending thread, so workers
+ * don't fight over one cache line) at most once per chunk or per request, and Micrometer reads the sums when the metrics are scraped.
+ * Bytes are counted by the streams of the request and added once it's closed.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class EnrichmentMetrics {
+
+    LongAdder rows = new LongAdder();
+    LongAdder bytesIn = new LongAdder();
+    LongAdder bytesOut = new LongAdder();
+    LongAdder chunks = new LongAdder();
+    LongAdder chunkNanos = new LongAdder();
+    LongAdder dispatcherWaitNanos = new LongAdder();
+    LongAdder senderWaitNanos = new LongAdder();
+    LongAdder overloads = new LongAdder();
+    Map<Reason, LongAdder> rejections = new EnumMap<>(Reason.class);
+    AtomicInteger activeEnrichments = new AtomicInteger();
+    Timer enrichments;
+    MeterRegistry registry;
+    Tags tags;
+
+    public EnrichmentMetrics(MeterRegistry registry, String engine) {
+        this.registry = registry;
+        this.tags = Tags.of("engine", engine);
+        this.enrichments = Timer.builder("enricher.enrichments")
+                .description("Duration of whole enrichments")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("enricher.enrichments.active", activeEnrichments, AtomicInteger::get)
+                .description("Enrichments in progress")
+                .tags(tags)
+                .register(registry);
+        counter("enricher.rows", rows, "Enriched rows");
+        counter("enricher.bytes.in", bytesIn, "Bytes of trades read");
+        counter("enricher.bytes.out", bytesOut, "Bytes of enriched trades written");
+        counter("enricher.overloads", overloads, "Enrichments refused because the worker pool was full");
+        nanosCounter("enricher.dispatcher.wait", dispatcherWaitNanos, "Time the dispatcher waited for a free chunk");
+        nanosCounter("enricher.sender.wait", senderWaitNanos, "Time spent waiting for the output lock");
+        FunctionTimer.builder("enricher.chunks", this, metrics -> metrics.chunks.sum(), metrics -> metrics.chunkNanos.sum(), TimeUnit.NANOSECONDS)
+                .description("Enrichment time of single chunks")
+                .tags(tags)
+                .register(registry);
+        for (var reason : Reason.values()) {
+            var rejected = new LongAdder();
+            rejections.put(reason, rejected);
+            FunctionCounter.builder("enricher.rejections", rejected, LongAdder::sum)
+                    .description("Bad rows, rows with a missing product are enriched with the default name")
+                    .tags(tags.and("reason", reason.name()))
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Metrics which aren't exported anywhere, for engines created outside of the Spring context
+     */
+    public static EnrichmentMetrics disabled(String engine) {
+        return new EnrichmentMetrics(new CompositeMeterRegistry(), engine);
+    }
+
+    public void workerPool(ForkJoinPool pool) {
+        Gauge.builder("enricher.workers", pool, ForkJoinPool::getParallelism)
+                .description("Size of the worker pool")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("enricher.workers.active", pool, ForkJoinPool::getActiveThreadCount)
+                .description("Workers enriching a chunk")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("enricher.workers.queued", pool, it -> it.getQueuedSubmissionCount() + it.getQueuedTaskCount())
+                .description("Chunks waiting for a worker")
+                .tags(tags)
+                .register(registry);
+    }
+
+    public long enrichmentStarted() {
+        activeEnrichments.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    public void enrichmentFinished(long startNanos, RejectionReport report) {
+        enrichments.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        activeEnrichments.decrementAndGet();
+        if (!report.isEmpty()) {
+            for (var reason : Reason.values()) {
+                rejections.get(reason).add(report.count(reason));
+            }
+        }
+    }
+
+    /**
+     * The enrichment is started again in another way, nothing of the first attempt is recorded
+     */
+    public void enrichmentAbandoned() {
+        activeEnrichments.decrementAndGet();
+    }
+
+    public void chunkEnriched(int enrichedRows, long nanos) {
+        rows.add(enrichedRows);
+        chunks.increment();
+        chunkNanos.add(nanos);
+    }
+
+    public void rowsEnriched(long enrichedRows) {
+        rows.add(enrichedRows);
+    }
+
+    public void bytesRead(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void bytesWritten(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    public void dispatcherWaited(long nanos) {
+        dispatcherWaitNanos.add(nanos);
+    }
+
+    public void senderWaited(long nanos) {
+        senderWaitNanos.add(nanos);
+    }
+
+    public void overloaded() {
+        overloads.increment();
+    }
+
+    /**
+     * @return stream counting read bytes locally, they are added to the metrics when it's closed
+     */
+    public InputStream countRead(InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            long read;
+
+            @Override
+            public int read() throws IOException {
+                var b = super.read();
+                if (b != -1) {
+                    read++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                var bytes = super.read(b, off, len);
+                if (bytes > 0) {
+                    read += bytes;
+                }
+                return bytes;
+            }
+
+            @Override
+            public void close() throws IOException {
+                bytesRead(read);
+                read = 0;
+                super.close();
+            }
+        };
+    }
+
+    /**
+     * @return stream counting written bytes locally, they are added to the metrics when it's closed
+     */
+    public OutputStream countWritten(OutputStream outputStream) {
+        return new FilterOutputStream(outputStream) {
+            long written;
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                written++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                written += len;
+            }
+
+            @Override
+            public void close() throws IOException {
+                bytesWritten(written);
+                written = 0;
+                super.close();
+            }
+        };
+    }
+
+    private void counter(String name, LongAdder adder, String description) {
+        FunctionCounter.builder(name, adder, LongAdder::sum)
+                .description(description)
+                .tags(tags)
+                .register(registry);
+    }
+
+    private void nanosCounter(String name, LongAdder nanos, String description) {
+        FunctionCounter.builder(name, nanos, it -> it.sum() / (double) TimeUnit.SECONDS.toNanos(1))
+                .description(description)
+                .baseUnit("seconds")
+                .tags(tags)
+                .register(registry);
+    }
+}
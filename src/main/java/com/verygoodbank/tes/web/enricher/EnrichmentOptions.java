@@ -0,0 +1,60 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.experimental.FieldDefaults;
+
+@Builder(toBuilder = true)
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@Getter
+public class EnrichmentOptions {
+
+    public static final EnrichmentOptions DEFAULT = EnrichmentOptions.builder().build();
+    public static final long UNKNOWN_SIZE = -1;
+
+    /**
+     * When set, enriched rows are written in the same order as they were read from the input.
+     * The serial engine always preserves the order, so it only affects the concurrent one.
+     */
+    boolean preserveOrder;
+
+    /**
+     * Number of pooled input chunks of the concurrent engine, 0 means the engine default
+     */
+    int chunkPoolSize;
+
+    /**
+     * Size of one input chunk of the concurrent engine in bytes, 0 means the engine default. Every row has to fit into a chunk
+     */
+    int chunkSize;
+
+    /**
+     * When set, the concurrent engine reads input into direct (off-heap) buffers
+     */
+    boolean directBuffers;
+
+    /**
+     * Size of the input in bytes if it's known upfront (multipart size, Content-Length), {@link #UNKNOWN_SIZE} otherwise
+     */
+    @Builder.Default
+    long inputSize = UNKNOWN_SIZE;
+
+    /**
+     * Inputs of known size up to this many bytes are enriched by the concurrent engine on the calling thread,
+     * without handing chunks over to the worker pool. 0 disables the inline path
+     */
+    long inlineThreshold;
+
+    /**
+     * Checks of the currency and price columns, the same for both engines
+     */
+    @Builder.Default
+    ValidationRules validation = ValidationRules.STRICT;
+
+    /**
+     * Engine enriching the input, {@link Engine#AUTO} lets {@link AdaptiveEnricher} choose one for this input
+     */
+    @Builder.Default
+    Engine engine = Engine.AUTO;
+}
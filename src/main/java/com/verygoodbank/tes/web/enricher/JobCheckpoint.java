@@ -0,0 +1,63 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+
+import java.util.Properties;
+
+/**
+ * Last committed state of a resumable job - everything before {@link #inputOffset} of the input is enriched and stored
+ * before {@link #outputOffset} of the output. Offsets always fall on row boundaries.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@RequiredArgsConstructor
+@Getter
+public class JobCheckpoint {
+
+    String id;
+    /**
+     * Offset of the input the next upload has to start at
+     */
+    long inputOffset;
+    /**
+     * Size of the committed output, enriched rows after it are dropped when the upload resumes
+     */
+    long outputOffset;
+    long rejectedRows;
+    /**
+     * A committed part of the input has a quote, rows of the rest are cut as quoted ones
+     */
+    @JsonIgnore
+    boolean quoted;
+    boolean complete;
+
+    static JobCheckpoint started(String id) {
+        return new JobCheckpoint(id, 0, 0, 0, false, false);
+    }
+
+    JobCheckpoint next(long inputOffset, long outputOffset, long rejectedRows, boolean quoted, boolean complete) {
+        return new JobCheckpoint(id, inputOffset, outputOffset, this.rejectedRows + rejectedRows, quoted, complete);
+    }
+
+    static JobCheckpoint of(String id, Properties properties) {
+        return new JobCheckpoint(id,
+                Long.parseLong(properties.getProperty("input-offset")),
+                Long.parseLong(properties.getProperty("output-offset")),
+                Long.parseLong(properties.getProperty("rejected-rows")),
+                Boolean.parseBoolean(properties.getProperty("quoted")),
+                Boolean.parseBoolean(properties.getProperty("complete")));
+    }
+
+    Properties toProperties() {
+        var properties = new Properties();
+        properties.setProperty("input-offset", String.valueOf(inputOffset));
+        properties.setProperty("output-offset", String.valueOf(outputOffset));
+        properties.setProperty("rejected-rows", String.valueOf(rejectedRows));
+        properties.setProperty("quoted", String.valueOf(quoted));
+        properties.setProperty("complete", String.valueOf(complete));
+        return properties;
+    }
+}
@@ -0,0 +1,92 @@
+package com.verygoodbank.tes.web.enricher;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.experimental.FieldDefaults;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.net.URI;
+
+/**
+ * Resumable enrichment, see {@link ResumableJobs}: create a job, upload the trades (again from the input offset
+ * of the last checkpoint if an upload fails) and download the output, a failed download continues with a {@code Range}
+ */
+@RestController
+@RequestMapping("api/v1/jobs")
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@RequiredArgsConstructor
+class JobController {
+
+    private static final String TEXT_CSV_VALUE = "text/csv";
+
+    ResumableJobs jobs;
+
+    @PostMapping
+    public ResponseEntity<JobCheckpoint> create() {
+        var checkpoint = jobs.create();
+        return ResponseEntity.created(URI.create("/api/v1/jobs/" + checkpoint.getId())).body(checkpoint);
+    }
+
+    @GetMapping("/{id}")
+    public JobCheckpoint checkpoint(@PathVariable("id") String id) {
+        return jobs.checkpoint(id);
+    }
+
+    /**
+     * Trades of the job from {@code offset} on, sent directly as the request body. Compressed bodies aren't supported,
+     * offsets are offsets of the plain input
+     */
+    @SneakyThrows
+    @PutMapping(value = "/{id}/trades", consumes = {TEXT_CSV_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public JobCheckpoint upload(@PathVariable("id") String id,
+                                HttpServletRequest request,
+                                @RequestParam(value = "offset", defaultValue = "0") long offset,
+                                @RequestParam(value = "last", defaultValue = "true") boolean last,
+                                @RequestParam(value = "chunkSize", defaultValue = "${chunk-size:0}") int chunkSize,
+                                @RequestParam(value = "validateCurrency", defaultValue = "${validation.currency:true}") boolean validateCurrency,
+                                @RequestParam(value = "validatePrice", defaultValue = "${validation.price:true}") boolean validatePrice,
+                                @RequestParam(value = "currencies", defaultValue = "${validation.currencies:}") String currencies,
+                                @RequestParam(value = "engine", defaultValue = "${engine:auto}") String engine,
+                                @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding) {
+        if (Compression.ofContentEncoding(contentEncoding) != Compression.IDENTITY) {
+            throw new IllegalArgumentException("Compressed trades aren't supported by resumable jobs");
+        }
+        var options = EnrichmentOptions.builder()
+                .chunkSize(chunkSize)
+                .validation(ValidationRules.of(validateCurrency, validatePrice, currencies))
+                .engine(Engine.of(engine))
+                .build();
+        return jobs.upload(id, offset, request.getInputStream(), last, options);
+    }
+
+    /**
+     * Served with {@code Range} support, a part of the output is requested with e.g. {@code Range: bytes=1048576-}
+     */
+    @GetMapping("/{id}/output")
+    public ResponseEntity<Resource> output(@PathVariable("id") String id) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(new FileSystemResource(jobs.output(id)));
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> delete(@PathVariable("id") String id) {
+        jobs.delete(id);
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -0,0 +1,11 @@
+package com.verygoodbank.tes.web.enricher;
+
+/**
+ * The job can't do what was asked in its current state - it's complete, still receiving trades or not complete yet
+ */
+public class JobStateException extends RuntimeException {
+
+    public JobStateException(String message) {
+        super(message);
+    }
+}
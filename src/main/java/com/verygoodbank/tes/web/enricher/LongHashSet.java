@@ -0,0 +1,88 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+
+import java.util.Arrays;
+
+/**
+ * Minimal open addressing set of primitive longs, not thread-safe
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE)
+final class LongHashSet {
+
+    private static final long EMPTY = 0;
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+    long[] keys = new long[64];
+    boolean containsEmpty;
+    int size;
+
+    /**
+     * @return true if the value wasn't in the set yet
+     */
+    boolean add(long value) {
+        if (value == EMPTY) {
+            var added = !containsEmpty;
+            containsEmpty = true;
+            size += added ? 1 : 0;
+            return added;
+        }
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+        var mask = keys.length - 1;
+        var slot = hash(value, mask);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = value;
+        size++;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return values in ascending order
+     */
+    long[] toSortedArray() {
+        var values = new long[size];
+        var i = 0;
+        if (containsEmpty) {
+            values[i++] = EMPTY;
+        }
+        for (var key : keys) {
+            if (key != EMPTY) {
+                values[i++] = key;
+            }
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private void grow() {
+        var previous = keys;
+        keys = new long[previous.length * 2];
+        var mask = keys.length - 1;
+        for (var key : previous) {
+            if (key != EMPTY) {
+                var slot = hash(key, mask);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+
+    private static int hash(long value, int mask) {
+        return (int) ((value * GOLDEN_RATIO) >>> 32) & mask;
+    }
+}
@@ -0,0 +1,218 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Enriches many trade files of one request into a zip archive - an enriched file per input file, named the same
+ * without the compression extension, followed by {@value #SUMMARY_ENTRY} with the rejected rows of every file.
+ * <p>
+ * Small files (up to the inline threshold) are read into memory and every one of them is enriched inline by one of
+ * the shared workers, so a batch of small files keeps all cores busy the same way one large file does. At most
+ * {@value #FILES_PER_THREAD} files per worker are in flight and they are written in the input order as they complete.
+ * A larger file waits for the small ones before it and is then streamed through the regular pipeline, which already
+ * spreads it over the workers.
+ * <p>
+ * Entries of a {@code .zip} are read one by one as they arrive, an upload of an archive isn't stored anywhere.
+ * Any failure ends the whole response, the same as with a single file.
+ */
+@Component
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@Slf4j
+class MultiFileEnricher {
+
+    static final String SUMMARY_ENTRY = "rejections.csv";
+    static final String SUMMARY_HEADER = "file,rejected_rows,rejections,missing_product_ids\n";
+    private static final String ARCHIVE_EXTENSION = ".zip";
+    private static final int FILES_PER_THREAD = 2;
+    /**
+     * Files are held in memory while they wait for a worker, a request asking for a larger inline threshold streams them
+     */
+    private static final int MAX_IN_MEMORY_FILE = 16 * 1024 * 1024;
+
+    Enricher enricher;
+    MultiThreadEnricherService workers;
+    int compressionLevel;
+
+    /**
+     * @param compressionLevel deflate level of the archive entries, {@link java.util.zip.Deflater#BEST_SPEED} by default -
+     *                         the archive is written by one thread and a higher level would slow down the whole batch
+     */
+    MultiFileEnricher(Enricher enricher, MultiThreadEnricherService workers, @Value("${multi-file.compression-level:1}") int compressionLevel) {
+        this.enricher = enricher;
+        this.workers = workers;
+        this.compressionLevel = compressionLevel;
+    }
+
+    static boolean isArchive(String fileName) {
+        return fileName != null && fileName.toLowerCase(Locale.ROOT).endsWith(ARCHIVE_EXTENSION);
+    }
+
+    /**
+     * @param files trade files by name, in the order of the archive. A {@code .zip} file stands for the files it contains
+     */
+    @SneakyThrows
+    void enrich(Map<String, ? extends InputStreamSource> files, OutputStream outputStream, EnrichmentOptions options) {
+        var batch = new Batch(outputStream, options);
+        for (var file : files.entrySet()) {
+            try (var inputStream = file.getValue().getInputStream()) {
+                if (isArchive(file.getKey())) {
+                    batch.addArchive(inputStream);
+                } else {
+                    batch.add(file.getKey(), inputStream);
+                }
+            }
+        }
+        batch.finish();
+    }
+
+    /**
+     * @param archive zip with trade files, directories are skipped
+     */
+    void enrichArchive(InputStream archive, OutputStream outputStream, EnrichmentOptions options) {
+        var batch = new Batch(outputStream, options);
+        batch.addArchive(archive);
+        batch.finish();
+    }
+
+    /**
+     * Output archive of one request, used by the request thread only. A failed batch isn't finished, so the client
+     * doesn't get an archive which looks complete
+     */
+    private final class Batch {
+
+        private final ZipOutputStream archive;
+        private final EnrichmentOptions options;
+        private final int inMemoryLimit;
+        private final int filesInFlight = workers.getThreads() * FILES_PER_THREAD;
+        private final Queue<CompletableFuture<EnrichedFile>> inFlight = new ArrayDeque<>();
+        private final Set<String> names = new HashSet<>();
+        private final StringBuilder summary = new StringBuilder(SUMMARY_HEADER);
+
+        Batch(OutputStream outputStream, EnrichmentOptions options) {
+            // the response is closed by the caller
+            this.archive = new ZipOutputStream(StreamUtils.nonClosing(outputStream), StandardCharsets.UTF_8);
+            this.archive.setLevel(compressionLevel);
+            this.options = options;
+            this.inMemoryLimit = (int) Math.min(options.getInlineThreshold(), MAX_IN_MEMORY_FILE);
+        }
+
+        @SneakyThrows
+        void addArchive(InputStream inputStream) {
+            var entries = new ZipInputStream(inputStream, StandardCharsets.UTF_8);
+            ZipEntry entry;
+            while ((entry = entries.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    // closing the stream of an entry would close the whole archive
+                    add(entry.getName(), StreamUtils.nonClosing(entries));
+                }
+            }
+        }
+
+        @SneakyThrows
+        void add(String fileName, InputStream inputStream) {
+            var compression = Compression.ofFileName(fileName);
+            var name = fileName.substring(0, fileName.length() - compression.getFileExtension().length());
+            if (!names.add(name)) {
+                throw new IllegalArgumentException("Duplicate trade file: " + name);
+            }
+            var trades = compression.decompress(inputStream);
+            var head = trades.readNBytes(inMemoryLimit + 1);
+            if (inMemoryLimit > 0 && head.length <= inMemoryLimit) {
+                if (inFlight.size() == filesInFlight) {
+                    write(inFlight.remove());
+                }
+                var fileOptions = options.toBuilder().inputSize(head.length).build();
+                inFlight.add(workers.submit(() -> enrich(name, head, fileOptions)));
+            } else {
+                while (!inFlight.isEmpty()) {
+                    write(inFlight.remove());
+                }
+                archive.putNextEntry(new ZipEntry(name));
+                // enrichers close their output, the archive goes on with the next file
+                var report = enricher.enrich(StreamUtils.nonClosing(archive), new SequenceInputStream(new ByteArrayInputStream(head), trades),
+                        options.toBuilder().inputSize(EnrichmentOptions.UNKNOWN_SIZE).build());
+                archive.closeEntry();
+                summarize(name, report);
+            }
+        }
+
+        /**
+         * Runs on a worker, the size of the options is known and within the inline threshold, so the enricher doesn't
+         * hand anything over to other workers
+         */
+        private EnrichedFile enrich(String name, byte[] trades, EnrichmentOptions fileOptions) {
+            var output = new ByteArrayOutputStream(trades.length + trades.length / 2);
+            var report = enricher.enrich(output, new ByteArrayInputStream(trades), fileOptions);
+            return new EnrichedFile(name, output, report);
+        }
+
+        @SneakyThrows
+        private void write(CompletableFuture<EnrichedFile> pending) {
+            EnrichedFile file;
+            try {
+                file = pending.join();
+            } catch (CompletionException e) {
+                throw e.getCause();
+            }
+            archive.putNextEntry(new ZipEntry(file.name));
+            file.enriched.writeTo(archive);
+            archive.closeEntry();
+            summarize(file.name, file.report);
+        }
+
+        private void summarize(String name, RejectionReport report) {
+            var trailers = report.toTrailers();
+            summary.append('"').append(name.replace("\"", "\"\"")).append("\",")
+                    .append(trailers.get("Rejected-Rows")).append(',')
+                    .append(trailers.get("Rejections")).append(',')
+                    .append(trailers.get("Missing-Product-Ids").replace(',', ' ')).append('\n');
+        }
+
+        @SneakyThrows
+        void finish() {
+            while (!inFlight.isEmpty()) {
+                write(inFlight.remove());
+            }
+            archive.putNextEntry(new ZipEntry(SUMMARY_ENTRY));
+            archive.write(summary.toString().getBytes(StandardCharsets.UTF_8));
+            archive.closeEntry();
+            archive.close();
+            log.debug("Enriched {} trade files", names.size());
+        }
+    }
+
+    @RequiredArgsConstructor
+    @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+    private static final class EnrichedFile {
+        String name;
+        ByteArrayOutputStream enriched;
+        RejectionReport report;
+    }
+}
@@ -0,0 +1,98 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Holds the current product mappings and swaps them on reload.
+ * <p>
+ * New index is always built in the background on a single low priority thread (so reloads and deltas are applied
+ * in the order they were requested) and then swapped in with a single reference write. Readers never wait -
+ * every enrichment pins the {@link Revision} once at the beginning, so it sees one consistent catalog
+ * from the first to the last row, even if the swap happens in the meantime.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@Service
+@Slf4j
+@Lazy
+public class ProductCatalog {
+
+    String resourceFile;
+    String snapshotFile;
+    AtomicReference<Revision> current;
+    ExecutorService reloadExecutor = Executors.newSingleThreadExecutor(new BasicThreadFactory.Builder()
+            .namingPattern("catalog-reload-%d")
+            .priority(Thread.MIN_PRIORITY)
+            .daemon(true)
+            .build());
+
+    @Autowired
+    public ProductCatalog(@Value("${product-file-path}") String resourceFile,
+                          @Value("${product-snapshot-path:}") String snapshotFile) {
+        this.resourceFile = resourceFile;
+        this.snapshotFile = snapshotFile;
+        this.current = new AtomicReference<>(new Revision(1, ProductMappingsLoader.loadProductIndex(resourceFile, snapshotFile)));
+    }
+
+    public ProductCatalog(Map<Long, String> productNames) {
+        this.resourceFile = null;
+        this.snapshotFile = null;
+        this.current = new AtomicReference<>(new Revision(1, ProductIndex.fromMap(productNames)));
+    }
+
+    public Revision current() {
+        return current.get();
+    }
+
+    /**
+     * Builds the catalog again from the product file and swaps it once it's ready
+     */
+    public CompletableFuture<Revision> reload() {
+        if (resourceFile == null) {
+            throw new IllegalArgumentException("Catalog wasn't loaded from a file, there is nothing to reload");
+        }
+        return swapInBackground(() -> ProductMappingsLoader.reloadProductIndex(resourceFile, snapshotFile));
+    }
+
+    /**
+     * Applies only the changed mappings on top of the current catalog. The delta is read on the calling thread,
+     * the new index is built in the background
+     */
+    public CompletableFuture<Revision> applyDelta(InputStream delta) {
+        var changes = ProductMappingsLoader.loadProductNameChanges(delta);
+        return swapInBackground(() -> ProductMappingsLoader.storeProductIndex(current().getIndex().withChanges(changes), snapshotFile));
+    }
+
+    private CompletableFuture<Revision> swapInBackground(Supplier<ProductIndex> indexBuilder) {
+        return CompletableFuture.supplyAsync(() -> {
+            var index = indexBuilder.get();
+            var revision = current.updateAndGet(previous -> new Revision(previous.getNumber() + 1, index));
+            log.info("Swapped product catalog to revision {} with {} mappings", revision.getNumber(), index.size());
+            return revision;
+        }, reloadExecutor);
+    }
+
+    @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+    @RequiredArgsConstructor
+    @Getter
+    public static final class Revision {
+        long number;
+        ProductIndex index;
+    }
+}
@@ -0,0 +1,88 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.experimental.FieldDefaults;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Product mappings at runtime, only on instances with {@code admin.token}. The endpoints share the port with the public
+ * ones, so every request has to send the token as {@code Authorization: Bearer <admin.token>}
+ */
+@RestController
+@RequestMapping("api/v1/admin/product-mappings")
+@ConditionalOnProperty(name = "admin.token")
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+class ProductCatalogController {
+
+    private static final String BEARER = "Bearer ";
+
+    ProductCatalog productCatalog;
+    byte[] authorization;
+
+    public ProductCatalogController(ProductCatalog productCatalog, @Value("${admin.token}") String token) {
+        if (token.isBlank()) {
+            throw new IllegalArgumentException("Admin token cannot be blank");
+        }
+        this.productCatalog = productCatalog;
+        this.authorization = (BEARER + token).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @GetMapping
+    public CatalogStatus status(@RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization) {
+        authorize(authorization);
+        return CatalogStatus.of(productCatalog.current());
+    }
+
+    @PostMapping(value = "/reload")
+    public CompletableFuture<CatalogStatus> reload(@RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization) {
+        authorize(authorization);
+        return productCatalog.reload().thenApply(CatalogStatus::of);
+    }
+
+    @SneakyThrows
+    @PostMapping(value = "/delta")
+    public CompletableFuture<CatalogStatus> applyDelta(@RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+                                                       @RequestParam("file") MultipartFile file) {
+        authorize(authorization);
+        try (var delta = file.getInputStream()) {
+            return productCatalog.applyDelta(delta).thenApply(CatalogStatus::of);
+        }
+    }
+
+    /**
+     * Compares in constant time, a wrong token doesn't tell how much of it was right
+     */
+    private void authorize(String authorization) {
+        if (authorization == null || !MessageDigest.isEqual(this.authorization, authorization.getBytes(StandardCharsets.UTF_8))) {
+            throw new AdminAccessException();
+        }
+    }
+
+    @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+    @RequiredArgsConstructor
+    @Getter
+    static final class CatalogStatus {
+        long revision;
+        int mappings;
+
+        static CatalogStatus of(ProductCatalog.Revision revision) {
+            return new CatalogStatus(revision.getNumber(), revision.getIndex().size());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads the {@link ProductCatalog} whenever the product file changes on disk. Writing a large file generates
+ * a burst of events, so the reload starts only after the file has been quiet for {@link #QUIET_PERIOD_MILLIS}.
+ */
+@Component
+@ConditionalOnProperty(name = "product-file-watch", havingValue = "true")
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@Slf4j
+class ProductFileWatcher {
+
+    private static final long QUIET_PERIOD_MILLIS = 500;
+
+    ProductCatalog productCatalog;
+    Path productFile;
+
+    public ProductFileWatcher(@Value("${product-file-path}") String resourceFile, ProductCatalog productCatalog) throws IOException {
+        if (resourceFile.startsWith("classpath:")) {
+            throw new IllegalArgumentException("Cannot watch classpath resource " + resourceFile + ", set product-file-path to a file");
+        }
+        this.productCatalog = productCatalog;
+        this.productFile = Path.of(resourceFile).toAbsolutePath();
+
+        var watchService = FileSystems.getDefault().newWatchService();
+        productFile.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        var watcher = new Thread(() -> watch(watchService), "product-file-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> closeWatchService(watchService)));
+        log.info("Watching {} for changes", productFile);
+    }
+
+    private void watch(WatchService watchService) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                var changed = awaitChange(watchService, Long.MAX_VALUE);
+                while (changed && awaitChange(watchService, QUIET_PERIOD_MILLIS)) ;
+                if (changed) {
+                    log.info("Product file {} changed, reloading", productFile);
+                    productCatalog.reload().exceptionally(e -> {
+                        log.error("Cannot reload product catalog", e);
+                        return null;
+                    });
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.info("Stopped watching {}", productFile);
+        }
+    }
+
+    /**
+     * @return true if the product file was changed within the timeout
+     */
+    private boolean awaitChange(WatchService watchService, long timeoutMillis) throws InterruptedException {
+        var key = watchService.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (key == null) {
+            return false;
+        }
+        var changed = key.pollEvents().stream()
+                .anyMatch(event -> productFile.getFileName().equals(event.context()));
+        key.reset();
+        return changed;
+    }
+
+    private static void closeWatchService(WatchService watchService) {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("Cannot close product file watch service", e);
+        }
+    }
+}
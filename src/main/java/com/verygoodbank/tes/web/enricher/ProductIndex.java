@@ -0,0 +1,322 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Product id -> product name index kept entirely off-heap.
+ * <p>
+ * All names are packed one after another into a single direct buffer (the arena). The index maps primitive
+ * {@code long} ids to an entry, which is the name offset in the arena and its length packed into one {@code long}.
+ * Dense ids (like 1..100000) are stored in a direct-array layout where the slot is {@code id - minId},
+ * any other distribution is stored in an open addressing table with linear probing.
+ * <p>
+ * Lookups don't allocate - {@link #find(long)} returns a primitive entry and {@link #copyName(long, ByteBuffer)}
+ * bulk copies the name from the arena. The index is immutable once built, so it can be shared between threads.
+ * <p>
+ * The index can be saved as a binary snapshot ({@link #writeTo(Path)}) and opened again with {@link #map(Path)}.
+ * The snapshot is a header followed by the raw sections, so opening it only maps the file - lookups read straight
+ * from the mapped pages and the catalog doesn't have to fit into the heap.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public final class ProductIndex {
+
+    public static final long MISSING = -1;
+
+    static final int DIRECT_LAYOUT = 0;
+    static final int HASH_LAYOUT = 1;
+
+    private static final int LENGTH_BITS = 16;
+    private static final int MAX_NAME_LENGTH = (1 << LENGTH_BITS) - 1;
+    private static final int SLOT_BYTES = Long.BYTES;
+    private static final int MAX_SLOTS = Integer.MAX_VALUE / (2 * SLOT_BYTES);
+    private static final long MAX_DENSE_RANGE_FACTOR = 4;
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+    private static final int SNAPSHOT_MAGIC = 0x50494458;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER_BYTES = 40;
+
+    int layout;
+    int size;
+    long minId;
+    int slots;
+    int mask;
+    ByteBuffer keys;
+    ByteBuffer entries;
+    ByteBuffer names;
+
+    ProductIndex(int layout, int size, long minId, int slots, ByteBuffer keys, ByteBuffer entries, ByteBuffer names) {
+        this.layout = layout;
+        this.size = size;
+        this.minId = minId;
+        this.slots = slots;
+        this.mask = slots - 1;
+        this.keys = keys;
+        this.entries = entries;
+        this.names = names;
+    }
+
+    public static ProductIndex fromMap(Map<Long, String> mappings) {
+        var ids = new long[mappings.size()];
+        var productNames = new String[mappings.size()];
+        var i = 0;
+        for (var mapping : mappings.entrySet()) {
+            ids[i] = mapping.getKey();
+            productNames[i++] = mapping.getValue();
+        }
+        return build(ids, productNames);
+    }
+
+    static ProductIndex build(long[] ids, String[] productNames) {
+        var encodedNames = new byte[productNames.length][];
+        var namesLength = 0L;
+        var minId = Long.MAX_VALUE;
+        var maxId = Long.MIN_VALUE;
+        for (int i = 0; i < ids.length; i++) {
+            encodedNames[i] = productNames[i].getBytes(StandardCharsets.UTF_8);
+            if (encodedNames[i].length > MAX_NAME_LENGTH) {
+                throw new IllegalArgumentException("Product name of id " + ids[i] + " is longer than " + MAX_NAME_LENGTH + " bytes");
+            }
+            namesLength += encodedNames[i].length;
+            minId = Math.min(minId, ids[i]);
+            maxId = Math.max(maxId, ids[i]);
+        }
+        if (namesLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Product names don't fit into a single arena: " + namesLength + " bytes");
+        }
+
+        var names = ByteBuffer.allocateDirect((int) namesLength);
+        var index = isDense(ids.length, minId, maxId)
+                ? emptyDirectIndex(ids.length, minId, (int) (maxId - minId + 1))
+                : emptyHashIndex(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            var entry = entry(names.position(), encodedNames[i].length);
+            names.put(encodedNames[i]);
+            index.put(ids[i], entry);
+        }
+        return index.withNames(names.flip());
+    }
+
+    private static boolean isDense(int size, long minId, long maxId) {
+        if (size == 0) {
+            return false;
+        }
+        var range = maxId - minId + 1;
+        return range > 0 && range <= MAX_SLOTS && range <= size * MAX_DENSE_RANGE_FACTOR;
+    }
+
+    private static ProductIndex emptyDirectIndex(int size, long minId, int slots) {
+        return new ProductIndex(DIRECT_LAYOUT, size, minId, slots, null, missingEntries(slots), null);
+    }
+
+    private static ProductIndex emptyHashIndex(int size) {
+        var slots = Long.highestOneBit(Math.max(2L, size) * 2 - 1) << 1;
+        if (slots > MAX_SLOTS) {
+            throw new IllegalArgumentException("Too many products to index: " + size);
+        }
+        return new ProductIndex(HASH_LAYOUT, size, 0, (int) slots, ByteBuffer.allocateDirect((int) slots * SLOT_BYTES), missingEntries((int) slots), null);
+    }
+
+    private static ByteBuffer missingEntries(int slots) {
+        var entries = ByteBuffer.allocateDirect(slots * SLOT_BYTES);
+        for (int i = 0; i < slots; i++) {
+            entries.putLong(i * SLOT_BYTES, MISSING);
+        }
+        return entries;
+    }
+
+    private ProductIndex withNames(ByteBuffer names) {
+        return new ProductIndex(layout, size, minId, slots, keys, entries, names);
+    }
+
+    private void put(long productId, long entry) {
+        if (layout == DIRECT_LAYOUT) {
+            entries.putLong((int) (productId - minId) * SLOT_BYTES, entry);
+            return;
+        }
+        var slot = hash(productId);
+        while (entries.getLong(slot * SLOT_BYTES) != MISSING && keys.getLong(slot * SLOT_BYTES) != productId) {
+            slot = (slot + 1) & mask;
+        }
+        keys.putLong(slot * SLOT_BYTES, productId);
+        entries.putLong(slot * SLOT_BYTES, entry);
+    }
+
+    /**
+     * Creates a new index with the changes applied, this index is left untouched
+     *
+     * @param changes product id -> new product name, blank name removes the mapping
+     */
+    public ProductIndex withChanges(Map<Long, String> changes) {
+        var ids = new long[size + changes.size()];
+        var productNames = new String[ids.length];
+        var count = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            var entry = entries.getLong(slot * SLOT_BYTES);
+            var productId = layout == DIRECT_LAYOUT ? minId + slot : keys.getLong(slot * SLOT_BYTES);
+            if (entry != MISSING && !changes.containsKey(productId)) {
+                ids[count] = productId;
+                productNames[count++] = name(entry);
+            }
+        }
+        for (var change : changes.entrySet()) {
+            if (change.getValue() != null && !change.getValue().isBlank()) {
+                ids[count] = change.getKey();
+                productNames[count++] = change.getValue();
+            }
+        }
+        return build(Arrays.copyOf(ids, count), Arrays.copyOf(productNames, count));
+    }
+
+    /**
+     * Saves the index as a snapshot. The file is written next to the target and atomically moved into place,
+     * so a reader never maps a half-written snapshot.
+     */
+    public void writeTo(Path snapshot) throws IOException {
+        var header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES)
+                .putInt(SNAPSHOT_MAGIC)
+                .putInt(SNAPSHOT_VERSION)
+                .putInt(layout)
+                .putInt(size)
+                .putLong(minId)
+                .putInt(slots)
+                .putInt(0)
+                .putLong(names.limit())
+                .flip();
+
+        var temporary = Files.createTempFile(snapshot.toAbsolutePath().getParent(), snapshot.getFileName().toString(), ".tmp");
+        try (var channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            if (layout == HASH_LAYOUT) {
+                writeFully(channel, keys.duplicate().clear());
+            }
+            writeFully(channel, entries.duplicate().clear());
+            writeFully(channel, names.duplicate().rewind());
+            channel.force(true);
+        }
+        Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Opens the snapshot saved by {@link #writeTo(Path)}. Every section is mapped separately, so only
+     * a single section is limited to 2GB, not the whole catalog
+     */
+    public static ProductIndex map(Path snapshot) throws IOException {
+        try (var channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            var header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) != -1) ;
+            header.flip();
+            if (header.remaining() < SNAPSHOT_HEADER_BYTES || header.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a product snapshot: " + snapshot);
+            }
+            var version = header.getInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported product snapshot version " + version + ": " + snapshot);
+            }
+            var layout = header.getInt();
+            var size = header.getInt();
+            var minId = header.getLong();
+            var slots = header.getInt();
+            header.getInt();
+            var namesLength = header.getLong();
+
+            var sectionBytes = (long) slots * SLOT_BYTES;
+            var position = (long) SNAPSHOT_HEADER_BYTES;
+            var expectedSize = position + (layout == HASH_LAYOUT ? 2 * sectionBytes : sectionBytes) + namesLength;
+            if (channel.size() != expectedSize) {
+                throw new IOException("Corrupted product snapshot, expected " + expectedSize + " bytes but was " + channel.size() + ": " + snapshot);
+            }
+
+            ByteBuffer keys = null;
+            if (layout == HASH_LAYOUT) {
+                keys = channel.map(FileChannel.MapMode.READ_ONLY, position, sectionBytes);
+                position += sectionBytes;
+            }
+            var entries = channel.map(FileChannel.MapMode.READ_ONLY, position, sectionBytes);
+            position += sectionBytes;
+            var names = channel.map(FileChannel.MapMode.READ_ONLY, position, namesLength);
+            return new ProductIndex(layout, size, minId, slots, keys, entries, names);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return entry describing the product name or {@link #MISSING} if there is no mapping for the given id
+     */
+    public long find(long productId) {
+        if (layout == DIRECT_LAYOUT) {
+            var slot = productId - minId;
+            if (slot < 0 || slot >= slots) {
+                return MISSING;
+            }
+            return entries.getLong((int) slot * SLOT_BYTES);
+        }
+
+        var slot = hash(productId);
+        long entry;
+        while ((entry = entries.getLong(slot * SLOT_BYTES)) != MISSING) {
+            if (keys.getLong(slot * SLOT_BYTES) == productId) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    /**
+     * Copies the name described by the entry to the target buffer at its current position and advances it
+     */
+    public void copyName(long entry, ByteBuffer target) {
+        var position = target.position();
+        var length = nameLength(entry);
+        target.put(position, names, nameOffset(entry), length);
+        target.position(position + length);
+    }
+
+    public String name(long entry) {
+        var bytes = new byte[nameLength(entry)];
+        names.get(nameOffset(entry), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    int layout() {
+        return layout;
+    }
+
+    private int hash(long productId) {
+        return (int) ((productId * GOLDEN_RATIO) >>> 32) & mask;
+    }
+
+    private static long entry(int offset, int length) {
+        return ((long) offset << LENGTH_BITS) | length;
+    }
+
+    private static int nameOffset(long entry) {
+        return (int) (entry >>> LENGTH_BITS);
+    }
+
+    private static int nameLength(long entry) {
+        return (int) (entry & MAX_NAME_LENGTH);
+    }
+}
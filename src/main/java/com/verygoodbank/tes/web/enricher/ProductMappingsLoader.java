@@ -6,11 +6,19 @@ import lombok.NoArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static com.verygoodbank.tes.web.enricher.CsvTradeReader.HEADER;
 
@@ -18,21 +26,137 @@ import static com.verygoodbank.tes.web.enricher.CsvTradeReader.HEADER;
 @Slf4j
 public final class ProductMappingsLoader {
 
+    static final String SNAPSHOT_EXTENSION = ".snapshot";
+
+    /**
+     * Loads product mappings as an off-heap index.
+     * <ul>
+     *     <li>if the resource file itself is a snapshot (ends with {@value SNAPSHOT_EXTENSION}) it is only mapped</li>
+     *     <li>if the snapshot file is given, the CSV is compiled into it when the snapshot is missing or older than the CSV,
+     *     then the snapshot is mapped - next starts only map the file</li>
+     *     <li>otherwise the CSV is parsed into an off-heap index on every start</li>
+     * </ul>
+     *
+     * @param resourceFile CSV with mappings or a snapshot, can be prefixed with {@code classpath:}
+     * @param snapshotFile path of the compiled snapshot, blank to keep the index only in memory
+     */
+    public static ProductIndex loadProductIndex(String resourceFile, String snapshotFile) {
+        return loadProductIndex(resourceFile, snapshotFile, false);
+    }
+
+    /**
+     * Same as {@link #loadProductIndex(String, String)}, but the snapshot is always compiled again from the CSV
+     */
+    public static ProductIndex reloadProductIndex(String resourceFile, String snapshotFile) {
+        return loadProductIndex(resourceFile, snapshotFile, true);
+    }
+
     @SneakyThrows
-    public static List<String[]> loadProductNameMappings(String resourceFile) {
-        log.info("Loading product name mappings from: {}", resourceFile);
-        Reader reader;
-        if (resourceFile.startsWith("classpath:")) {
-            var resourceLoader = new DefaultResourceLoader();
-            reader = new InputStreamReader(resourceLoader.getResource(resourceFile).getInputStream());
-        } else {
-            reader = new FileReader(resourceFile);
+    private static ProductIndex loadProductIndex(String resourceFile, String snapshotFile, boolean forceCompile) {
+        if (resourceFile.endsWith(SNAPSHOT_EXTENSION)) {
+            return mapSnapshot(Path.of(resourceFile));
+        }
+
+        var resource = resource(resourceFile);
+        if (!hasSnapshot(snapshotFile)) {
+            log.info("Loading product name mappings from: {}", resourceFile);
+            var index = compile(resource);
+            log.info("Loaded {} mappings", index.size());
+            return index;
+        }
+
+        var snapshot = Path.of(snapshotFile);
+        if (forceCompile || !isUpToDate(snapshot, resource)) {
+            compileSnapshot(resource, snapshot);
         }
-        try (var csvReader = new CSVReader(reader)) {
+        return mapSnapshot(snapshot);
+    }
+
+    /**
+     * Saves the index into the snapshot (if configured) and maps it again, so the heap doesn't keep the index built in memory
+     */
+    @SneakyThrows
+    public static ProductIndex storeProductIndex(ProductIndex index, String snapshotFile) {
+        if (!hasSnapshot(snapshotFile)) {
+            return index;
+        }
+        var snapshot = Path.of(snapshotFile);
+        index.writeTo(snapshot);
+        return mapSnapshot(snapshot);
+    }
+
+    /**
+     * Reads delta of product mappings, the same format as the product file. Blank product name removes the mapping
+     *
+     * @return changed product id -> new product name
+     */
+    @SneakyThrows
+    public static Map<Long, String> loadProductNameChanges(InputStream delta) {
+        var changes = new LinkedHashMap<Long, String>();
+        try (var csvReader = new CSVReader(new InputStreamReader(delta, StandardCharsets.UTF_8))) {
             csvReader.skip(HEADER);
-            var mappingsList = csvReader.readAll();
-            log.info("Loaded {} mappings", mappingsList.size());
-            return mappingsList;
+            for (var row : csvReader) {
+                changes.put(Long.parseLong(row[0].trim()), row.length > 1 ? row[1] : "");
+            }
+        }
+        log.info("Loaded {} product name changes", changes.size());
+        return changes;
+    }
+
+    private static boolean hasSnapshot(String snapshotFile) {
+        return snapshotFile != null && !snapshotFile.isBlank();
+    }
+
+    public static void compileSnapshot(String resourceFile, String snapshotFile) {
+        compileSnapshot(resource(resourceFile), Path.of(snapshotFile));
+    }
+
+    @SneakyThrows
+    private static void compileSnapshot(Resource resource, Path snapshot) {
+        log.info("Compiling product name mappings from: {} into snapshot: {}", resource.getDescription(), snapshot);
+        var index = compile(resource);
+        index.writeTo(snapshot);
+        log.info("Compiled {} mappings", index.size());
+    }
+
+    private static ProductIndex mapSnapshot(Path snapshot) throws IOException {
+        var index = ProductIndex.map(snapshot);
+        log.info("Mapped {} product name mappings from snapshot: {}", index.size(), snapshot);
+        return index;
+    }
+
+    private static boolean isUpToDate(Path snapshot, Resource resource) {
+        try {
+            return Files.exists(snapshot) && Files.getLastModifiedTime(snapshot).toMillis() >= resource.lastModified();
+        } catch (IOException e) {
+            log.warn("Cannot compare modification time of {} and {}, recompiling snapshot", snapshot, resource.getDescription());
+            return false;
+        }
+    }
+
+    /**
+     * Streams the CSV straight into primitive ids and names, without materializing all rows first
+     */
+    private static ProductIndex compile(Resource resource) throws IOException {
+        var ids = new long[1024];
+        var names = new ArrayList<String>(1024);
+        try (var csvReader = new CSVReader(new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+            csvReader.skip(HEADER);
+            for (var row : csvReader) {
+                if (names.size() == ids.length) {
+                    ids = Arrays.copyOf(ids, ids.length * 2);
+                }
+                ids[names.size()] = Long.parseLong(row[0]);
+                names.add(row[1]);
+            }
+        }
+        return ProductIndex.build(Arrays.copyOf(ids, names.size()), names.toArray(String[]::new));
+    }
+
+    private static Resource resource(String resourceFile) {
+        if (resourceFile.startsWith("classpath:")) {
+            return new DefaultResourceLoader().getResource(resourceFile);
         }
+        return new FileSystemResource(resourceFile);
     }
 }
@@ -1,40 +1,25 @@
 package com.verygoodbank.tes.web.enricher;
 
 import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.annotation.Lazy;
-import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Optional;
 
+/**
+ * Resolves names from one pinned revision of the {@link ProductCatalog}, created per enrichment
+ */
 @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
-@Service
-@Lazy
+@RequiredArgsConstructor
 class ProductNameResolver {
 
-    Map<Long, String> productNames;
-
-    @Autowired
-    public ProductNameResolver(@Value("${product-file-path}") String resourceFile) {
-        this.productNames = initializeProductNameMappings(resourceFile);
-    }
-
-    ProductNameResolver(Map<Long, String> productNames) {
-        this.productNames = productNames;
-    }
+    ProductIndex productNames;
 
     Optional<String> resolve(long productId) {
-        return Optional.ofNullable(productNames.get(productId));
-    }
-
-    private Map<Long, String> initializeProductNameMappings(String resourceFile) {
-        var mappingsList = ProductMappingsLoader.loadProductNameMappings(resourceFile);
-        var mappings = new HashMap<Long, String>(mappingsList.size());
-        mappingsList.forEach(row -> mappings.put(Long.parseLong(row[0]), row[1]));
-        return mappings;
+        var entry = productNames.find(productId);
+        if (entry == ProductIndex.MISSING) {
+            return Optional.empty();
+        }
+        return Optional.of(productNames.name(entry));
     }
 }
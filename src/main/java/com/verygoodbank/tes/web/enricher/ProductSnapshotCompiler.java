@@ -0,0 +1,21 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Compiles product mappings CSV into the binary snapshot offline, so the service only has to map it on startup.
+ * <p>
+ * Usage: {@code ProductSnapshotCompiler <product csv> <snapshot>}
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class ProductSnapshotCompiler {
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: ProductSnapshotCompiler <product csv> <snapshot>");
+            System.exit(1);
+        }
+        ProductMappingsLoader.compileSnapshot(args[0], args[1]);
+    }
+}
@@ -0,0 +1,129 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Non-blocking enrichment endpoint served by Reactor Netty on its own port, next to the servlet ones:
+ * {@code curl -H "Content-Type: text/csv" --data-binary @trade.csv http://localhost:8081/api/v1/enrich}
+ * <p>
+ * The raw body is consumed as a flow of buffers and the enriched rows are written only as fast as the client reads them,
+ * a slow reader pauses the whole pipeline without holding a thread (see
+ * {@link MultiThreadEnricherService#enrich(Flux, RejectionReport, EnrichmentOptions, io.netty.buffer.ByteBufAllocator)}).
+ * Always enriched by the concurrent engine, takes the same parameters as the servlet endpoint except the engine, the inline threshold and direct buffers.
+ * Compressed bodies aren't supported.
+ */
+@Component
+@ConditionalOnProperty(name = "reactive.port")
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@Slf4j
+class ReactiveEnrichmentServer implements DisposableBean {
+
+    private static final String ENRICH_PATH = "/api/v1/enrich";
+
+    MultiThreadEnricherService enricher;
+    boolean ordered;
+    int chunkPoolSize;
+    int chunkSize;
+    boolean validateCurrency;
+    boolean validatePrice;
+    String currencies;
+    DisposableServer server;
+
+    public ReactiveEnrichmentServer(MultiThreadEnricherService enricher,
+                                    @Value("${reactive.port}") int port,
+                                    @Value("${preserve-order:false}") boolean ordered,
+                                    @Value("${chunk-pool-size:0}") int chunkPoolSize,
+                                    @Value("${chunk-size:0}") int chunkSize,
+                                    @Value("${validation.currency:true}") boolean validateCurrency,
+                                    @Value("${validation.price:true}") boolean validatePrice,
+                                    @Value("${validation.currencies:}") String currencies) {
+        this.enricher = enricher;
+        this.ordered = ordered;
+        this.chunkPoolSize = chunkPoolSize;
+        this.chunkSize = chunkSize;
+        this.validateCurrency = validateCurrency;
+        this.validatePrice = validatePrice;
+        this.currencies = currencies;
+
+        this.server = HttpServer.create()
+                .port(port)
+                .route(routes -> routes.post(ENRICH_PATH, this::enrich))
+                .bindNow();
+        log.info("Reactive enrichment endpoint listening on port {}", server.port());
+    }
+
+    /**
+     * Unbinds the port when the context closes, e.g. on a refresh or at the end of a test
+     */
+    @Override
+    public void destroy() {
+        server.disposeNow();
+        log.info("Reactive enrichment endpoint closed");
+    }
+
+    /**
+     * @return the bound port, an ephemeral one for {@code reactive.port=0}
+     */
+    int port() {
+        return server.port();
+    }
+
+    private Publisher<Void> enrich(HttpServerRequest request, HttpServerResponse response) {
+        var report = new RejectionReport();
+        Flux<ByteBuf> enriched;
+        try {
+            if (Compression.ofContentEncoding(request.requestHeaders().get(HttpHeaderNames.CONTENT_ENCODING)) != Compression.IDENTITY) {
+                throw new IllegalArgumentException("Compressed trades aren't supported by the reactive endpoint");
+            }
+            var options = options(new QueryStringDecoder(request.uri()).parameters());
+            // received buffers are released by Netty once they are handed over, the enricher queues them and releases them itself
+            enriched = enricher.enrich(request.receive().retain(), report, options, response.alloc());
+        } catch (IllegalArgumentException e) {
+            log.debug(e.getMessage());
+            return response.status(HttpResponseStatus.BAD_REQUEST).sendString(Mono.just(e.getMessage()));
+        }
+        return response.header(HttpHeaderNames.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE)
+                .header(HttpHeaderNames.TRAILER, TradeEnrichmentController.REJECTION_TRAILERS)
+                .trailerHeaders(trailers -> report.toTrailers().forEach(trailers::set))
+                .send(enriched);
+    }
+
+    private EnrichmentOptions options(Map<String, List<String>> parameters) {
+        return EnrichmentOptions.builder()
+                .preserveOrder(Boolean.parseBoolean(parameter(parameters, "ordered", ordered)))
+                .chunkPoolSize(Integer.parseInt(parameter(parameters, "chunkPoolSize", chunkPoolSize)))
+                .chunkSize(Integer.parseInt(parameter(parameters, "chunkSize", chunkSize)))
+                .validation(ValidationRules.of(Boolean.parseBoolean(parameter(parameters, "validateCurrency", validateCurrency)),
+                        Boolean.parseBoolean(parameter(parameters, "validatePrice", validatePrice)),
+                        parameter(parameters, "currencies", currencies)))
+                .engine(Engine.CONCURRENT)
+                .build();
+    }
+
+    private static String parameter(Map<String, List<String>> parameters, String name, Object defaultValue) {
+        var values = parameters.get(name);
+        return values == null || values.isEmpty() ? String.valueOf(defaultValue) : values.get(0);
+    }
+}
@@ -0,0 +1,174 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Diagnostics of one enrichment - number of bad rows per reason, distinct ids of products without a mapping
+ * and a few sampled bad rows.
+ * <p>
+ * Engines don't log bad rows one by one, they collect them here and log the summary once the enrichment is finished.
+ * The serial engine reports every bad row, the concurrent one counts locally and merges once per chunk,
+ * so the report is never touched in the hot loop.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public final class RejectionReport {
+
+    public static final int MAX_SAMPLES = 10;
+    public static final int MAX_MISSING_PRODUCT_IDS = 10_000;
+    private static final int TRAILER_PRODUCT_IDS = 100;
+
+    public enum Reason {
+        INVALID_COLUMN_COUNT,
+        INVALID_DATE,
+        INVALID_PRODUCT_ID,
+        INVALID_CURRENCY,
+        INVALID_PRICE,
+        /**
+         * Row isn't discarded, it's enriched with the default product name
+         */
+        MISSING_PRODUCT
+    }
+
+    long[] counts = new long[Reason.values().length];
+    LongHashSet missingProductIds = new LongHashSet();
+    List<String> samples = new ArrayList<>(MAX_SAMPLES);
+    AtomicInteger sampleSlots = new AtomicInteger();
+
+    public synchronized void reject(Reason reason) {
+        counts[reason.ordinal()]++;
+    }
+
+    public synchronized void missingProduct(long productId) {
+        counts[Reason.MISSING_PRODUCT.ordinal()]++;
+        addMissingProductId(productId);
+    }
+
+    /**
+     * Merges counts collected locally by one worker
+     *
+     * @param reasonCounts      number of rows per {@link Reason#ordinal()}, including missing products
+     * @param productIds        ids of missing products, can contain duplicates
+     * @param productIdsLength  number of valid ids in {@code productIds}
+     */
+    public synchronized void merge(long[] reasonCounts, long[] productIds, int productIdsLength) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += reasonCounts[i];
+        }
+        for (int i = 0; i < productIdsLength; i++) {
+            addMissingProductId(productIds[i]);
+        }
+    }
+
+    /**
+     * Merges the summary of another enrichment as returned by {@link #toTrailers()}, e.g. the trailers of a peer instance.
+     * Only the first missing product ids are part of it
+     *
+     * @param trailers trailer values by name, the lookup has to ignore the case of the name
+     */
+    public synchronized void merge(Map<String, String> trailers) {
+        var rejections = trailers.get("Rejections");
+        if (rejections != null && !rejections.isBlank()) {
+            for (var count : rejections.split(";")) {
+                var separator = count.indexOf('=');
+                counts[Reason.valueOf(count.substring(0, separator).trim()).ordinal()] += Long.parseLong(count.substring(separator + 1).trim());
+            }
+        }
+        var productIds = trailers.get("Missing-Product-Ids");
+        if (productIds != null && !productIds.isBlank()) {
+            for (var productId : productIds.split(",")) {
+                addMissingProductId(Long.parseLong(productId.trim()));
+            }
+        }
+    }
+
+    private void addMissingProductId(long productId) {
+        if (missingProductIds.size() < MAX_MISSING_PRODUCT_IDS) {
+            missingProductIds.add(productId);
+        }
+    }
+
+    /**
+     * Cheap check before a sampled row is turned into a string
+     */
+    public boolean wantsSample() {
+        return sampleSlots.get() < MAX_SAMPLES;
+    }
+
+    public void sample(Reason reason, String row) {
+        if (sampleSlots.getAndIncrement() < MAX_SAMPLES) {
+            synchronized (this) {
+                samples.add(reason + ": " + row);
+            }
+        }
+    }
+
+    public synchronized long count(Reason reason) {
+        return counts[reason.ordinal()];
+    }
+
+    /**
+     * @return number of discarded rows, rows with a missing product are enriched, so they aren't included
+     */
+    public synchronized long rejectedRows() {
+        var rejected = 0L;
+        for (var reason : Reason.values()) {
+            if (reason != Reason.MISSING_PRODUCT) {
+                rejected += counts[reason.ordinal()];
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * @return ascending ids of products without a mapping, at most {@value MAX_MISSING_PRODUCT_IDS}
+     */
+    public synchronized long[] missingProductIds() {
+        return missingProductIds.toSortedArray();
+    }
+
+    public synchronized List<String> samples() {
+        return List.copyOf(samples);
+    }
+
+    public synchronized boolean isEmpty() {
+        return Arrays.stream(counts).allMatch(count -> count == 0);
+    }
+
+    /**
+     * Summary suitable for HTTP trailers. Sampled rows are left out, they are user data which doesn't have to be a valid header value
+     */
+    public Map<String, String> toTrailers() {
+        var trailers = new LinkedHashMap<String, String>();
+        trailers.put("Rejected-Rows", String.valueOf(rejectedRows()));
+        trailers.put("Rejections", countsByReason());
+        trailers.put("Missing-Product-Ids", Arrays.stream(missingProductIds())
+                .limit(TRAILER_PRODUCT_IDS)
+                .mapToObj(String::valueOf)
+                .collect(Collectors.joining(",")));
+        return trailers;
+    }
+
+    private synchronized String countsByReason() {
+        return Arrays.stream(Reason.values())
+                .filter(reason -> counts[reason.ordinal()] > 0)
+                .map(reason -> reason + "=" + counts[reason.ordinal()])
+                .collect(Collectors.joining(";"));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "rejected rows: " + rejectedRows()
+                + ", counts: [" + countsByReason() + "]"
+                + ", distinct missing products: " + missingProductIds.size()
+                + ", samples: " + samples;
+    }
+}
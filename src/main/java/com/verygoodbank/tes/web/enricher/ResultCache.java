@@ -0,0 +1,397 @@
+package com.verygoodbank.tes.web.enricher;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Enriched outputs of uploads sent again (replays, retries, re-runs), stored on the local disk.
+ * <p>
+ * An output is found by the SHA-256 of the upload as it was sent, the catalog revision it was enriched with, the
+ * validation rules, the engine and the row order - the same upload enriched with other mappings or rules is another entry. The digest of a miss is
+ * computed while the upload streams into the enricher and its output is copied into the cache as it's written; it's stored
+ * only if the whole upload was read and the catalog didn't change in the meantime. A hit is sent from the file, without
+ * the enricher.
+ * <p>
+ * Entries older than {@code cache.max-age} are dropped, the least recently used ones go once the cache is over
+ * {@code cache.max-bytes}. A new catalog revision drops every entry, outputs left in the directory are deleted on startup
+ * as well - revision numbers start again after a restart. Disabled unless {@code cache.enabled} is set.
+ */
+@Component
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@Slf4j
+class ResultCache {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String CONTENT_DIGEST_PREFIX = "sha-256=:";
+    private static final int DIGEST_BUFFER_SIZE = 65536;
+
+    @Getter
+    boolean enabled;
+    ProductCatalog productCatalog;
+    Path directory;
+    long maxBytes;
+    Duration maxAge;
+    Clock clock;
+    Map<String, Entry> entries = new ConcurrentHashMap<>();
+    AtomicLong bytes = new AtomicLong();
+    AtomicLong revision = new AtomicLong();
+    Counter hits;
+    Counter misses;
+
+    @Autowired
+    ResultCache(@Value("${cache.enabled:false}") boolean enabled, ProductCatalog productCatalog, @Value("${cache.directory:}") String directory,
+                @Value("${cache.max-bytes:1073741824}") long maxBytes, @Value("${cache.max-age:1h}") Duration maxAge, MeterRegistry meterRegistry) {
+        this(enabled, productCatalog, directory, maxBytes, maxAge, meterRegistry, Clock.systemUTC());
+    }
+
+    @SneakyThrows
+    ResultCache(boolean enabled, ProductCatalog productCatalog, String directory, long maxBytes, Duration maxAge, MeterRegistry meterRegistry,
+                Clock clock) {
+        this.enabled = enabled;
+        this.productCatalog = productCatalog;
+        this.directory = directory.isBlank() ? Path.of(System.getProperty("java.io.tmpdir"), "enricher-cache") : Path.of(directory);
+        this.maxBytes = maxBytes;
+        this.maxAge = maxAge;
+        this.clock = clock;
+        this.hits = Counter.builder("enricher.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("enricher.cache.requests").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("enricher.cache.size", bytes, AtomicLong::get).baseUnit("bytes").register(meterRegistry);
+        if (enabled) {
+            Files.createDirectories(this.directory);
+            try (var files = Files.newDirectoryStream(this.directory, "*.{csv,tmp}")) {
+                for (var file : files) {
+                    Files.delete(file);
+                }
+            }
+            log.info("Caching enriched outputs in {}, at most {} bytes for {}", this.directory, maxBytes, maxAge);
+        }
+    }
+
+    /**
+     * @return hex SHA-256 of the whole source
+     */
+    @SneakyThrows
+    static String digest(InputStreamSource source) {
+        var digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        try (var input = source.getInputStream()) {
+            var buffer = new byte[DIGEST_BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @param contentDigest value of the {@code Content-Digest} header (RFC 9530), can be null
+     * @return hex SHA-256 announced by the client, null if there is none
+     */
+    static String ofContentDigest(String contentDigest) {
+        if (contentDigest == null) {
+            return null;
+        }
+        for (var digest : contentDigest.split(",")) {
+            var value = digest.trim();
+            if (value.toLowerCase(Locale.ROOT).startsWith(CONTENT_DIGEST_PREFIX) && value.endsWith(":")) {
+                try {
+                    return HexFormat.of().formatHex(Base64.getDecoder().decode(value.substring(CONTENT_DIGEST_PREFIX.length(), value.length() - 1)));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Content-Digest isn't valid base64: " + contentDigest);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param uploadDigest hex SHA-256 of the upload, null if it isn't known upfront
+     */
+    Optional<CachedOutput> get(String uploadDigest, EnrichmentOptions options) {
+        if (!enabled || uploadDigest == null) {
+            return Optional.empty();
+        }
+        invalidateOnNewRevision();
+        var key = key(uploadDigest, productCatalog.current().getNumber(), options);
+        var entry = entries.get(key);
+        if (entry != null && isExpired(entry)) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        entry.lastAccess = clock.millis();
+        hits.increment();
+        return Optional.of(entry.output);
+    }
+
+    /**
+     * Starts recording an enrichment, the upload and the output have to go through the recording
+     *
+     * @param expectedDigest digest announced by the client, the output isn't stored if the upload doesn't match it
+     */
+    @SneakyThrows
+    Recording record(String expectedDigest, EnrichmentOptions options) {
+        if (!enabled) {
+            return new Recording(null, null, 0, null, null);
+        }
+        var file = directory.resolve(UUID.randomUUID() + ".tmp");
+        return new Recording(file, expectedDigest, productCatalog.current().getNumber(), options, MessageDigest.getInstance(DIGEST_ALGORITHM));
+    }
+
+    /**
+     * Rows of an output enriched without {@code preserveOrder} can be in any order, so it isn't an output of an ordered request
+     */
+    private static String key(String uploadDigest, long revision, EnrichmentOptions options) {
+        var validation = options.getValidation();
+        var key = uploadDigest + "|" + revision + "|" + validation.isValidateCurrency() + "|" + validation.isValidatePrice()
+                + "|" + new TreeSet<>(validation.getCurrencies()) + "|" + options.getEngine() + "|" + options.isPreserveOrder();
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private boolean isExpired(Entry entry) {
+        return clock.millis() - entry.created > maxAge.toMillis();
+    }
+
+    private void invalidateOnNewRevision() {
+        var current = productCatalog.current().getNumber();
+        var previous = revision.getAndSet(current);
+        if (previous != current && previous != 0 && !entries.isEmpty()) {
+            log.info("Catalog revision {} replaced {}, dropping {} cached outputs", current, previous, entries.size());
+            entries.keySet().forEach(this::remove);
+        }
+    }
+
+    private synchronized void store(String key, Path file, long size, Map<String, String> trailers) throws IOException {
+        invalidateOnNewRevision();
+        var target = directory.resolve(key + ".csv");
+        Files.move(file, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        var previous = entries.put(key, new Entry(new CachedOutput(target, size, trailers), clock.millis()));
+        if (previous != null) {
+            bytes.addAndGet(-previous.output.size);
+        }
+        bytes.addAndGet(size);
+        evict();
+    }
+
+    /**
+     * Drops expired entries, then the least recently used ones until the cache fits
+     */
+    private void evict() {
+        entries.entrySet().stream()
+                .filter(entry -> isExpired(entry.getValue()))
+                .map(Map.Entry::getKey)
+                .toList()
+                .forEach(this::remove);
+        var leastRecentlyUsed = entries.entrySet().stream()
+                .sorted(Comparator.comparingLong(entry -> entry.getValue().lastAccess))
+                .map(Map.Entry::getKey)
+                .iterator();
+        while (bytes.get() > maxBytes && leastRecentlyUsed.hasNext()) {
+            remove(leastRecentlyUsed.next());
+        }
+    }
+
+    /**
+     * A file being sent can be deleted, the open file stays readable until it's closed
+     */
+    @SneakyThrows
+    private void remove(String key) {
+        var entry = entries.remove(key);
+        if (entry != null) {
+            bytes.addAndGet(-entry.output.size);
+            Files.deleteIfExists(entry.output.file);
+        }
+    }
+
+    @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+    @RequiredArgsConstructor
+    @Getter
+    static final class CachedOutput {
+        Path file;
+        long size;
+        /**
+         * Rejection summary of the enrichment which produced the output
+         */
+        Map<String, String> trailers;
+    }
+
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    private static final class Entry {
+        final CachedOutput output;
+        final long created;
+        volatile long lastAccess;
+
+        Entry(CachedOutput output, long created) {
+            this.output = output;
+            this.created = created;
+            this.lastAccess = created;
+        }
+    }
+
+    /**
+     * Output of one enrichment on its way into the cache. A disabled cache records nothing, the streams pass through
+     */
+    @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+    @RequiredArgsConstructor
+    final class Recording implements AutoCloseable {
+        Path file;
+        String expectedDigest;
+        long revision;
+        EnrichmentOptions options;
+        MessageDigest digest;
+        @NonFinal
+        InputStream upload;
+        @NonFinal
+        InputStream input;
+        @NonFinal
+        OutputStream copy;
+        @NonFinal
+        long size;
+        @NonFinal
+        boolean stored;
+
+        /**
+         * @param upload the upload as it was sent, before it's decompressed
+         */
+        InputStream input(InputStream upload) {
+            if (file == null) {
+                return upload;
+            }
+            this.upload = upload;
+            input = new DigestInputStream(upload, digest) {
+                /**
+                 * Closed with the recording, the rest of the upload is still read by {@link #commit}
+                 */
+                @Override
+                public void close() {
+                }
+            };
+            return input;
+        }
+
+        /**
+         * @param output the response before it's compressed, enriched bytes are copied into the cache up to its size
+         */
+        @SneakyThrows
+        OutputStream output(OutputStream output) {
+            if (file == null) {
+                return output;
+            }
+            copy = Files.newOutputStream(file);
+            return new FilterOutputStream(output) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    copy(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int length) throws IOException {
+                    out.write(buffer, offset, length);
+                    copy(buffer, offset, length);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        closeCopy();
+                    }
+                }
+            };
+        }
+
+        private void copy(byte[] buffer, int offset, int length) throws IOException {
+            if (copy == null) {
+                return;
+            }
+            size += length;
+            if (size > maxBytes) {
+                // larger than the whole cache, the enrichment goes on without it
+                closeCopy();
+                copy = null;
+                return;
+            }
+            copy.write(buffer, offset, length);
+        }
+
+        private void closeCopy() throws IOException {
+            if (copy != null) {
+                copy.close();
+            }
+        }
+
+        /**
+         * Stores the recorded output, only after the enricher returned - the output of a failed enrichment is incomplete
+         */
+        @SneakyThrows
+        void commit(RejectionReport report) {
+            if (file == null || copy == null) {
+                return;
+            }
+            closeCopy();
+            // a decompressor stops at the end of the compressed data, the digest covers whatever follows as well
+            input.transferTo(OutputStream.nullOutputStream());
+            var uploadDigest = HexFormat.of().formatHex(digest.digest());
+            if (expectedDigest != null && !expectedDigest.equals(uploadDigest)) {
+                log.warn("Upload doesn't match its Content-Digest, the output isn't cached");
+                return;
+            }
+            if (productCatalog.current().getNumber() != revision) {
+                return;
+            }
+            store(key(uploadDigest, revision, options), file, size, report.toTrailers());
+            stored = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (upload != null) {
+                upload.close();
+            }
+            if (file != null && !stored) {
+                closeCopy();
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
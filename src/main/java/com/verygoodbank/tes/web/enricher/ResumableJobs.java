@@ -0,0 +1,230 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService;
+import com.verygoodbank.tes.web.enricher.concurrenct.RowRanges;
+import lombok.AccessLevel;
+import lombok.SneakyThrows;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Enrichment of a very large input uploaded in one or more parts, which survives a dropped connection or a restart.
+ * <p>
+ * The upload is cut into {@link RowRanges} of {@code jobs.checkpoint-bytes}, every range is enriched in the input order
+ * and appended to the output file of the job, synced to the disk and then committed as a {@link JobCheckpoint} - the input
+ * and the output offset after the range. The checkpoint file is replaced atomically, so it's always one of the committed
+ * states. A failed upload leaves the last checkpoint behind; the client asks for it and uploads the rest of the input
+ * from its input offset, output written after the checkpoint is dropped. The output can be downloaded with a
+ * {@code Range} once the job is complete.
+ * <p>
+ * Every job is a directory of {@code jobs.directory}: the header of the input, the output and the checkpoint.
+ * Jobs stay there until they are deleted.
+ */
+@Service
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@Slf4j
+public class ResumableJobs {
+
+    public static final int DEFAULT_CHECKPOINT_BYTES = 8 << 20;
+    private static final Pattern JOB_ID = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+    private static final String CHECKPOINT_FILE = "checkpoint.properties";
+    private static final String HEADER_FILE = "header.csv";
+    private static final String OUTPUT_FILE = "output.csv";
+
+    Enricher enricher;
+    Path directory;
+    int checkpointBytes;
+    Set<String> uploading = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param directory       where jobs are stored, a directory in the temporary one by default
+     * @param checkpointBytes input enriched between two checkpoints, every row has to fit into it
+     */
+    @SneakyThrows
+    public ResumableJobs(Enricher enricher, @Value("${jobs.directory:}") String directory,
+                         @Value("${jobs.checkpoint-bytes:" + DEFAULT_CHECKPOINT_BYTES + "}") int checkpointBytes) {
+        if (checkpointBytes < 1024) {
+            throw new IllegalArgumentException("Checkpoint size must be at least 1024 bytes, got: " + checkpointBytes);
+        }
+        this.enricher = enricher;
+        this.directory = directory.isBlank() ? Path.of(System.getProperty("java.io.tmpdir"), "enricher-jobs") : Path.of(directory);
+        this.checkpointBytes = checkpointBytes;
+        Files.createDirectories(this.directory);
+    }
+
+    @SneakyThrows
+    public JobCheckpoint create() {
+        var id = UUID.randomUUID().toString();
+        Files.createDirectory(directory.resolve(id));
+        Files.createFile(file(id, OUTPUT_FILE));
+        var checkpoint = JobCheckpoint.started(id);
+        save(checkpoint);
+        log.info("Created job {}", id);
+        return checkpoint;
+    }
+
+    @SneakyThrows
+    public JobCheckpoint checkpoint(String id) {
+        var checkpointFile = file(id, CHECKPOINT_FILE);
+        if (!Files.exists(checkpointFile)) {
+            throw new UnknownJobException(id);
+        }
+        var properties = new Properties();
+        properties.load(new StringReader(Files.readString(checkpointFile, StandardCharsets.ISO_8859_1)));
+        return JobCheckpoint.of(id, properties);
+    }
+
+    /**
+     * Enriches the next part of the input, committing a checkpoint after every range
+     *
+     * @param offset offset of the part in the input, has to be the input offset of the last checkpoint
+     * @param last   true if the input ends with this part - its last row doesn't have to end with a new line and the job
+     *               is complete afterwards. An incomplete row at the end of another part is uploaded again with the next one
+     * @return the last checkpoint
+     */
+    @SneakyThrows
+    public JobCheckpoint upload(String id, long offset, InputStream trades, boolean last, EnrichmentOptions options) {
+        checkpoint(id);
+        if (!uploading.add(id)) {
+            throw new JobStateException("Job " + id + " is already receiving trades");
+        }
+        try (var input = trades;
+             var output = FileChannel.open(file(id, OUTPUT_FILE), StandardOpenOption.WRITE)) {
+            // read again, the last upload could have finished in the meantime
+            var checkpoint = checkpoint(id);
+            if (checkpoint.isComplete()) {
+                throw new JobStateException("Job " + id + " is complete");
+            }
+            if (offset != checkpoint.getInputOffset()) {
+                throw new IllegalArgumentException("Upload of job " + id + " has to continue at offset " + checkpoint.getInputOffset() + ", got: " + offset);
+            }
+            var header = offset == 0 ? null : Files.readAllBytes(file(id, HEADER_FILE));
+            var ranges = new RowRanges(input, checkpointBytes, last, header, checkpoint.isQuoted());
+            // drops output of a range which didn't make it to a checkpoint
+            output.truncate(checkpoint.getOutputOffset());
+            byte[] rows;
+            while ((rows = ranges.next()) != null) {
+                if (checkpoint.getInputOffset() == 0) {
+                    Files.write(file(id, HEADER_FILE), ranges.getHeader(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                            StandardOpenOption.WRITE, StandardOpenOption.DSYNC);
+                }
+                checkpoint = commit(checkpoint, output, ranges.getHeader(), rows, offset + ranges.getOffset(), ranges.isQuoted(), false, options);
+            }
+            if (last) {
+                // an input without rows still gets the header
+                var enrichedHeader = checkpoint.getOutputOffset() > 0 ? null : ranges.getHeader() == null ? new byte[0] : ranges.getHeader();
+                checkpoint = commit(checkpoint, output, enrichedHeader, null, offset + ranges.getOffset(), ranges.isQuoted(), true, options);
+                log.info("Job {} is complete, {} rejected rows", id, checkpoint.getRejectedRows());
+            }
+            return checkpoint;
+        } finally {
+            uploading.remove(id);
+        }
+    }
+
+    /**
+     * @return the output once the job is complete
+     */
+    public Path output(String id) {
+        if (!checkpoint(id).isComplete()) {
+            throw new JobStateException("Job " + id + " isn't complete");
+        }
+        return file(id, OUTPUT_FILE);
+    }
+
+    @SneakyThrows
+    public void delete(String id) {
+        checkpoint(id);
+        if (!uploading.add(id)) {
+            throw new JobStateException("Job " + id + " is receiving trades");
+        }
+        try {
+            FileSystemUtils.deleteRecursively(directory.resolve(id));
+        } finally {
+            uploading.remove(id);
+        }
+    }
+
+    /**
+     * Enriches the rows into the output after the last checkpoint and commits the next one. The engines write a header
+     * for every range, only the one of the first range is kept. A range with a row longer than a chunk of the concurrent
+     * engine is enriched by the serial one
+     *
+     * @param header header of the input, nothing is enriched without it
+     * @param rows   complete rows of the input, can be null
+     */
+    @SneakyThrows
+    private JobCheckpoint commit(JobCheckpoint checkpoint, FileChannel output, byte[] header, byte[] rows, long inputOffset, boolean quoted,
+                                 boolean complete, EnrichmentOptions options) {
+        var outputOffset = checkpoint.getOutputOffset();
+        var rejectedRows = 0L;
+        if (header != null) {
+            var rowsLength = rows == null ? 0 : rows.length;
+            var enriched = new ByteArrayOutputStream(header.length + rowsLength + rowsLength / 2);
+            var input = new ByteArrayInputStream(header);
+            var rangeOptions = options.toBuilder().preserveOrder(true).inputSize(header.length + rowsLength);
+            if (rows != null && options.getEngine() == Engine.AUTO && !MultiThreadEnricherService.fitsChunks(ByteBuffer.wrap(rows), options)) {
+                // the engine is picked by the beginning of the range, a longer row further on would fail the concurrent one
+                rangeOptions.engine(Engine.SERIAL);
+            }
+            var report = enricher.enrich(enriched, rows == null ? input : new SequenceInputStream(input, new ByteArrayInputStream(rows)),
+                    rangeOptions.build());
+            rejectedRows = report.rejectedRows();
+            var bytes = enriched.toByteArray();
+            var from = 0;
+            if (outputOffset > 0) {
+                while (from < bytes.length && bytes[from++] != '\n') ;
+            }
+            var buffer = ByteBuffer.wrap(bytes, from, bytes.length - from);
+            while (buffer.hasRemaining()) {
+                outputOffset += output.write(buffer, outputOffset);
+            }
+            output.force(false);
+        }
+        var next = checkpoint.next(inputOffset, outputOffset, rejectedRows, quoted, complete);
+        save(next);
+        return next;
+    }
+
+    /**
+     * Replaces the checkpoint file at once, a crash leaves either the old or the new checkpoint
+     */
+    @SneakyThrows
+    private void save(JobCheckpoint checkpoint) {
+        var properties = new StringWriter();
+        checkpoint.toProperties().store(properties, null);
+        var next = file(checkpoint.getId(), CHECKPOINT_FILE + ".next");
+        Files.writeString(next, properties.toString(), StandardCharsets.ISO_8859_1, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.DSYNC);
+        Files.move(next, file(checkpoint.getId(), CHECKPOINT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path file(String id, String name) {
+        if (id == null || !JOB_ID.matcher(id).matches()) {
+            throw new UnknownJobException(String.valueOf(id));
+        }
+        return directory.resolve(id).resolve(name);
+    }
+}
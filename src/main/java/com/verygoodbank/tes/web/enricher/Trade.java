@@ -6,7 +6,6 @@ import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 
-import java.math.BigDecimal;
 import java.time.LocalDate;
 
 @Builder
@@ -17,5 +16,8 @@ class Trade {
     LocalDate date;
     long productId;
     String currency;
-    BigDecimal price;
+    /**
+     * As it was read, so the output has the same text as the input
+     */
+    String price;
 }
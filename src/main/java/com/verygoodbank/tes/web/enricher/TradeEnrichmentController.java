@@ -1,18 +1,32 @@
 package com.verygoodbank.tes.web.enricher;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
 import lombok.experimental.FieldDefaults;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 @RestController
 @RequestMapping("api/v1")
@@ -20,14 +34,189 @@ import java.io.OutputStream;
 @RequiredArgsConstructor
 class TradeEnrichmentController {
 
+    private static final String TEXT_CSV_VALUE = "text/csv";
+    private static final String APPLICATION_ZIP_VALUE = "application/zip";
+    private static final String CONTENT_DIGEST = "Content-Digest";
+    private static final String CACHE_STATUS = "Cache-Status";
+    static final String REJECTION_TRAILERS = String.join(", ", new RejectionReport().toTrailers().keySet());
+
     Enricher enricherService;
+    CompressionStage compressionStage;
+    MultiFileEnricher multiFileEnricher;
+    ResultCache resultCache;
+
+    /**
+     * Tuning and validation parameters shared by all enrichment endpoints, bound once per request. The input size is
+     * unknown until an endpoint sets it
+     */
+    @ModelAttribute
+    EnrichmentOptions options(@RequestParam(value = "ordered", defaultValue = "${preserve-order:false}") boolean ordered,
+                              @RequestParam(value = "chunkPoolSize", defaultValue = "${chunk-pool-size:0}") int chunkPoolSize,
+                              @RequestParam(value = "chunkSize", defaultValue = "${chunk-size:0}") int chunkSize,
+                              @RequestParam(value = "directBuffers", defaultValue = "${direct-buffers:false}") boolean directBuffers,
+                              @RequestParam(value = "inlineThreshold", defaultValue = "${inline-threshold:65536}") long inlineThreshold,
+                              @RequestParam(value = "validateCurrency", defaultValue = "${validation.currency:true}") boolean validateCurrency,
+                              @RequestParam(value = "validatePrice", defaultValue = "${validation.price:true}") boolean validatePrice,
+                              @RequestParam(value = "currencies", defaultValue = "${validation.currencies:}") String currencies,
+                              @RequestParam(value = "engine", defaultValue = "${engine:auto}") String engine) {
+        return EnrichmentOptions.builder()
+                .preserveOrder(ordered)
+                .chunkPoolSize(chunkPoolSize)
+                .chunkSize(chunkSize)
+                .directBuffers(directBuffers)
+                .inputSize(EnrichmentOptions.UNKNOWN_SIZE)
+                .inlineThreshold(inlineThreshold)
+                .validation(ValidationRules.of(validateCurrency, validatePrice, currencies))
+                .engine(Engine.of(engine))
+                .build();
+    }
 
+    /**
+     * Multipart upload - the servlet container stores the whole file before the enrichment starts.
+     * Compressed files are recognised by the extension ({@code .gz}, {@code .zst})
+     */
     @PostMapping(value = "/enrich")
-    public ResponseEntity<StreamingResponseBody> processFile(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<StreamingResponseBody> processFile(@RequestParam("file") MultipartFile file,
+                                                             @ModelAttribute(binding = false) EnrichmentOptions options,
+                                                             @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                                                             HttpServletResponse response) {
+        var inputCompression = Compression.ofFileName(file.getOriginalFilename());
+        var sizedOptions = options.toBuilder().inputSize(inputSize(file.getSize(), inputCompression)).build();
+        // the stored file is read once more to find a cached output
+        var uploadDigest = resultCache.isEnabled() ? ResultCache.digest(file) : null;
+        return enrich(file, uploadDigest, inputCompression, Compression.negotiate(acceptEncoding), sizedOptions, response);
+    }
+
+    /**
+     * Trades sent directly as the request body. The body is streamed into the enricher while it's being uploaded,
+     * nothing is written to disk. A compressed body is announced with {@code Content-Encoding}. A cached output is only
+     * found when the client sends the SHA-256 of the body as {@code Content-Digest}
+     */
+    @PostMapping(value = "/enrich", consumes = {TEXT_CSV_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<StreamingResponseBody> processBody(HttpServletRequest request,
+                                                             @ModelAttribute(binding = false) EnrichmentOptions options,
+                                                             @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+                                                             @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                                                             @RequestHeader(value = CONTENT_DIGEST, required = false) String contentDigest,
+                                                             HttpServletResponse response) {
+        var inputCompression = Compression.ofContentEncoding(contentEncoding);
+        // -1 without Content-Length (chunked upload), the same as unknown size
+        var sizedOptions = options.toBuilder().inputSize(inputSize(request.getContentLengthLong(), inputCompression)).build();
+        return enrich(request::getInputStream, ResultCache.ofContentDigest(contentDigest), inputCompression, Compression.negotiate(acceptEncoding),
+                sizedOptions, response);
+    }
+
+    /**
+     * Many trade files in one request as repeated {@code files} parts, a {@code .zip} part stands for the files it contains.
+     * The files are enriched in parallel and returned as a zip archive, see {@link MultiFileEnricher}
+     */
+    @PostMapping(value = "/enrich/files")
+    public ResponseEntity<StreamingResponseBody> processFiles(@RequestParam("files") List<MultipartFile> files,
+                                                              @ModelAttribute(binding = false) EnrichmentOptions options) {
+        var tradeFiles = new LinkedHashMap<String, MultipartFile>();
+        for (int i = 0; i < files.size(); i++) {
+            var file = files.get(i);
+            var name = file.getOriginalFilename() == null || file.getOriginalFilename().isBlank() ? "trades-" + (i + 1) + ".csv" : file.getOriginalFilename();
+            if (tradeFiles.put(name, file) != null) {
+                throw new IllegalArgumentException("Duplicate trade file: " + name);
+            }
+        }
+        return archive(output -> multiFileEnricher.enrich(tradeFiles, output, options));
+    }
+
+    /**
+     * Zip archive of trade files sent directly as the request body, its entries are enriched while it's being uploaded
+     */
+    @PostMapping(value = "/enrich/files", consumes = APPLICATION_ZIP_VALUE)
+    public ResponseEntity<StreamingResponseBody> processArchive(HttpServletRequest request,
+                                                                @ModelAttribute(binding = false) EnrichmentOptions options) {
+        return archive(output -> multiFileEnricher.enrichArchive(request.getInputStream(), output, options));
+    }
+
+    /**
+     * Size of a compressed upload says little about the number of rows, so it's treated as unknown
+     */
+    private static long inputSize(long uploadSize, Compression compression) {
+        return compression == Compression.IDENTITY ? uploadSize : EnrichmentOptions.UNKNOWN_SIZE;
+    }
+
+    private static ResponseEntity<StreamingResponseBody> archive(StreamingResponseBody enrichment) {
         return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_ZIP_VALUE))
+                .body(enrichment);
+    }
+
+    /**
+     * @param uploadDigest hex SHA-256 of the upload if it's known upfront, the output is then looked up in the {@link ResultCache}
+     */
+    private ResponseEntity<StreamingResponseBody> enrich(InputStreamSource trades, String uploadDigest, Compression inputCompression,
+                                                         Compression outputCompression, EnrichmentOptions options, HttpServletResponse response) {
+        var cached = resultCache.get(uploadDigest, options);
+        if (cached.isPresent()) {
+            if (!(trades instanceof MultipartFile)) {
+                // the client sends the body anyway, an unread body would make the container drop the connection
+                verifyBody(trades, uploadDigest);
+            }
+            return cached(cached.get(), outputCompression);
+        }
+        // enrichers close the output, so they get a non-closing view - closing the response would send the trailers before the report is ready
+        var report = new AtomicReference<RejectionReport>();
+        response.setTrailerFields(() -> report.get() == null ? Map.of() : report.get().toTrailers());
+
+        var responseBuilder = ResponseEntity.ok()
                 .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body((OutputStream outputStream) -> enricherService.enrich(outputStream, file.getInputStream()));
+                .header(HttpHeaders.TRAILER, REJECTION_TRAILERS)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (outputCompression != Compression.IDENTITY) {
+            responseBuilder.header(HttpHeaders.CONTENT_ENCODING, outputCompression.getContentEncoding());
+        }
+        if (resultCache.isEnabled()) {
+            responseBuilder.header(CACHE_STATUS, "enricher; fwd=miss");
+        }
+        return responseBuilder.body((OutputStream outputStream) -> {
+            try (var recording = resultCache.record(uploadDigest, options)) {
+                // the cache gets the plain output, a hit is compressed for its own request
+                try (var output = recording.output(compressionStage.compress(StreamUtils.nonClosing(outputStream), outputCompression))) {
+                    report.set(enricherService.enrich(output, inputCompression.decompress(recording.input(trades.getInputStream())), options));
+                }
+                recording.commit(report.get());
+            }
+        });
     }
-}
 
+    private static void verifyBody(InputStreamSource body, String uploadDigest) {
+        if (!ResultCache.digest(body).equals(uploadDigest)) {
+            throw new IllegalArgumentException("Request body doesn't match its " + CONTENT_DIGEST);
+        }
+    }
 
+    /**
+     * Cached output with its rejection summary as headers - there is nothing left to send as trailers. The file is
+     * always streamed from the channel opened here, never handed over to the container's sendfile - sendfile opens it
+     * only after the headers are sent, when an evicted entry can't be sent anymore
+     */
+    @SneakyThrows
+    private ResponseEntity<StreamingResponseBody> cached(ResultCache.CachedOutput cached, Compression outputCompression) {
+        var responseBuilder = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .header(CACHE_STATUS, "enricher; hit");
+        cached.getTrailers().forEach(responseBuilder::header);
+        if (outputCompression != Compression.IDENTITY) {
+            responseBuilder.header(HttpHeaders.CONTENT_ENCODING, outputCompression.getContentEncoding());
+        } else {
+            responseBuilder.contentLength(cached.getSize());
+        }
+        // opened right away, an evicted entry stays readable while it's open
+        var file = FileChannel.open(cached.getFile());
+        return responseBuilder.body((OutputStream outputStream) -> {
+            try (file; var output = compressionStage.compress(StreamUtils.nonClosing(outputStream), outputCompression)) {
+                var target = Channels.newChannel(output);
+                var position = 0L;
+                while (position < cached.getSize()) {
+                    position += file.transferTo(position, cached.getSize() - position, target);
+                }
+            }
+        });
+    }
+}
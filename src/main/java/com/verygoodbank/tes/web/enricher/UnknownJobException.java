@@ -0,0 +1,8 @@
+package com.verygoodbank.tes.web.enricher;
+
+public class UnknownJobException extends RuntimeException {
+
+    public UnknownJobException(String id) {
+        super("Unknown job: " + id);
+    }
+}
@@ -0,0 +1,84 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.experimental.FieldDefaults;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Per-request checks of the currency and price columns, applied the same way by both engines on top of the date
+ * and product id checks, which are always done (see {@link ColumnValidator}).
+ * <p>
+ * A rule which is switched off passes the column through as it is. The allow-list is a bit set indexed by the
+ * currency code, so a lookup doesn't allocate.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@Getter
+public class ValidationRules {
+
+    public static final ValidationRules STRICT = new ValidationRules(true, true, Set.of());
+    public static final ValidationRules LENIENT = new ValidationRules(false, false, Set.of());
+    private static final int CURRENCY_CODES = 26 * 26 * 26;
+
+    /**
+     * Currency has to be three upper case letters (the ISO 4217 format)
+     */
+    boolean validateCurrency;
+
+    /**
+     * Price has to be a plain decimal number
+     */
+    boolean validatePrice;
+
+    /**
+     * Accepted currency codes, empty means any code. Implies {@link #validateCurrency}
+     */
+    Set<String> currencies;
+
+    @Getter(AccessLevel.NONE)
+    BitSet allowedCurrencies = new BitSet(CURRENCY_CODES);
+
+    public ValidationRules(boolean validateCurrency, boolean validatePrice, Collection<String> currencies) {
+        this.validateCurrency = validateCurrency || !currencies.isEmpty();
+        this.validatePrice = validatePrice;
+        this.currencies = Set.copyOf(currencies);
+        for (var currency : this.currencies) {
+            var code = ByteBuffer.wrap(currency.getBytes(StandardCharsets.ISO_8859_1));
+            if (!ColumnValidator.isCurrencyCode(code, 0, code.limit())) {
+                throw new IllegalArgumentException("Currency has to be a three letter ISO 4217 code, got: " + currency);
+            }
+            allowedCurrencies.set(ColumnValidator.currencyIndex(code, 0));
+        }
+    }
+
+    /**
+     * @param currencies comma separated allow-list, empty accepts any currency code
+     */
+    public static ValidationRules of(boolean validateCurrency, boolean validatePrice, String currencies) {
+        var allowList = Arrays.stream(currencies.split(","))
+                .map(String::trim)
+                .filter(currency -> !currency.isEmpty())
+                .toList();
+        return new ValidationRules(validateCurrency, validatePrice, allowList);
+    }
+
+    public boolean isValidCurrency(ByteBuffer buffer, int from, int to) {
+        if (!validateCurrency) {
+            return true;
+        }
+        if (!ColumnValidator.isCurrencyCode(buffer, from, to)) {
+            return false;
+        }
+        return currencies.isEmpty() || allowedCurrencies.get(ColumnValidator.currencyIndex(buffer, from));
+    }
+
+    public boolean isValidPrice(ByteBuffer buffer, int from, int to) {
+        return !validatePrice || ColumnValidator.isDecimal(buffer, from, to);
+    }
+}
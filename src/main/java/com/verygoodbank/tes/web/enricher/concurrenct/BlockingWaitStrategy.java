@@ -0,0 +1,63 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Spins shortly, then blocks until the other side signals progress. The condition is checked by the caller
+ * outside the lock, so a signal can slip in between the check and the wait - every wait is bounded by
+ * {@code maxBlockNanos} to recover from such a missed signal.
+ * <p>
+ * Signalling is cheap while nobody is blocked - just a volatile read of the number of waiters.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+final class BlockingWaitStrategy implements WaitStrategy {
+
+    int spins;
+    long maxBlockNanos;
+    ReentrantLock lock = new ReentrantLock();
+    Condition progress = lock.newCondition();
+    AtomicInteger waiters = new AtomicInteger();
+
+    BlockingWaitStrategy(int spins, long maxBlockNanos) {
+        this.spins = spins;
+        this.maxBlockNanos = maxBlockNanos;
+    }
+
+    @Override
+    public int idle(int attempt) {
+        if (attempt < spins) {
+            Thread.onSpinWait();
+            return attempt + 1;
+        }
+
+        lock.lock();
+        waiters.incrementAndGet();
+        try {
+            progress.await(maxBlockNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waiters.decrementAndGet();
+            lock.unlock();
+        }
+        return attempt + 1;
+    }
+
+    @Override
+    public void signal() {
+        if (waiters.get() > 0) {
+            lock.lock();
+            try {
+                progress.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
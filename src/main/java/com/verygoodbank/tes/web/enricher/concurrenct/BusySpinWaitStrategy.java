@@ -0,0 +1,13 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+/**
+ * Lowest latency, but the waiting thread burns the whole core
+ */
+final class BusySpinWaitStrategy implements WaitStrategy {
+
+    @Override
+    public int idle(int attempt) {
+        Thread.onSpinWait();
+        return attempt + 1;
+    }
+}
@@ -0,0 +1,38 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Row-aligned part of the input together with its position in the input stream, the buffer its enriched rows
+ * are written to and the bad rows found in it. Chunks are pooled by {@link ChunkPool}, so the same instance is reused for many positions of the input.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@RequiredArgsConstructor
+@Getter
+final class Chunk {
+    ByteBuffer buffer;
+    ByteBuffer output;
+    ChunkRejections rejections = new ChunkRejections();
+    @NonFinal
+    @Setter
+    long sequence;
+    /**
+     * The input has quoted fields, set by the dispatcher once it sees the first quote
+     */
+    @NonFinal
+    @Setter
+    boolean quoted;
+    /**
+     * Bytes after the last new line are the last row of the input
+     */
+    @NonFinal
+    @Setter
+    boolean endOfInput;
+}
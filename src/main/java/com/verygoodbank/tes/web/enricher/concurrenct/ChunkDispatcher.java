@@ -1,73 +1,185 @@
 package com.verygoodbank.tes.web.enricher.concurrenct;
 
+import com.verygoodbank.tes.web.enricher.EnrichmentMetrics;
 import lombok.AccessLevel;
 import lombok.SneakyThrows;
 import lombok.experimental.FieldDefaults;
-import lombok.extern.slf4j.Slf4j;
-import org.jctools.queues.SpmcArrayQueue;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 
-import static com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService.BUFFER_SIZE;
-
 @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
-@Slf4j
 class ChunkDispatcher {
 
     static final char NEW_LINE = '\n';
     static final String[] COLUMN_NAMES = {"date", "product_id", "currency", "price"};
-    private static final ByteBuffer HEADER = ByteBuffer.wrap((String.join(",", COLUMN_NAMES) + NEW_LINE).getBytes());
+    static final int NOT_FOUND = -1;
 
-    SpmcArrayQueue<ByteBuffer> queue;
+    ChunkPool chunkPool;
+    ChunkProcessor chunkProcessor;
     ReadableByteChannel readableByteChannel;
+    EnrichmentMetrics metrics;
 
-    public ChunkDispatcher(SpmcArrayQueue<ByteBuffer> queue, InputStream source) {
+    public ChunkDispatcher(ChunkPool chunkPool, ChunkProcessor chunkProcessor, InputStream source, EnrichmentMetrics metrics) {
         this.readableByteChannel = Channels.newChannel(source);
-        this.queue = queue;
-        discardHeader();
-    }
-
-    @SneakyThrows
-    private void discardHeader() {
-        readableByteChannel.read(HEADER.slice());
+        this.metrics = metrics;
+        this.chunkPool = chunkPool;
+        this.chunkProcessor = chunkProcessor;
     }
 
+    /**
+     * Cuts the input into chunks of complete rows. Simple inputs are cut at the last new line of the chunk,
+     * once a quote shows up the rest of the input is cut and parsed as {@link QuotedRows} - a new line inside
+     * a quoted field doesn't end the row. The header (the first row) is skipped.
+     *
+     * @throws IllegalArgumentException  if a row is longer than the chunk size
+     * @throws SystemOverloadedException if the worker pool doesn't take more chunks
+     */
     @SneakyThrows
     public void dispatch() {
+        var chunk = acquire();
         try {
-            var previousReadData = ByteBuffer.allocate(0);
+            var sequence = 0L;
+            var quoted = false;
 
             while (!Thread.interrupted()) {
-                var processingBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-                processingBuffer.put(previousReadData);
+                // e.g. the client went away, there is no point in reading the rest of the input
+                chunkProcessor.throwIfFailed();
+                var processingBuffer = chunk.getBuffer();
 
-                var read = readableByteChannel.read(processingBuffer);
-                if (read == -1) {
+                var endOfStream = !fill(processingBuffer);
+                var length = processingBuffer.position();
+                // every chunk starts with a row, so the rows before the first quote were cut right
+                quoted = quoted || QuotedRows.containsQuote(processingBuffer, 0, length);
+                var rowsStart = sequence == 0 ? headerEnd(processingBuffer, length, quoted, endOfStream) : 0;
+                var rowsEnd = endOfStream ? length : lastRowEnd(processingBuffer, rowsStart, length, quoted);
+                if (rowsEnd == NOT_FOUND && rowsStart > 0) {
+                    // the first row after the header doesn't fit into what's left of the first chunk
+                    rowsEnd = rowsStart;
+                }
+                if (rowsStart == NOT_FOUND || rowsEnd == NOT_FOUND) {
+                    throw new IllegalArgumentException("Row longer than the chunk size of " + processingBuffer.capacity() + " bytes");
+                }
+                if (endOfStream && rowsEnd == rowsStart) {
                     break;
                 }
 
-                int position = moveBackwardToTheNewLineCharacter(processingBuffer);
-                processingBuffer.position(position + 1);
-                previousReadData = processingBuffer.slice();
-                processingBuffer.limit(position + 1);
-                processingBuffer.flip();
+                var nextChunk = endOfStream ? null : acquire();
+                if (nextChunk != null) {
+                    carryOverIncompleteRow(processingBuffer, rowsEnd, nextChunk.getBuffer());
+                }
+                processingBuffer.limit(rowsEnd);
+                processingBuffer.position(rowsStart);
 
-                while (!queue.offer(processingBuffer)) {
-                    Thread.onSpinWait();
+                chunk.setSequence(sequence++);
+                chunk.setQuoted(quoted);
+                chunk.setEndOfInput(endOfStream);
+                var submitted = chunk;
+                // from now on the submitted chunk is released by the processor
+                chunk = nextChunk;
+                chunkProcessor.submit(submitted);
+                if (endOfStream) {
+                    break;
                 }
+            }
+        } finally {
+            if (chunk != null) {
+                chunkPool.release(chunk);
+            }
+        }
+    }
 
+    /**
+     * @return index right after the header, the length of the input if it's the only row
+     */
+    static int headerEnd(ByteBuffer buffer, int length, boolean quoted, boolean endOfStream) {
+        var headerEnd = quoted ? QuotedRows.rowEnd(buffer, 0, length) : nextNewLine(buffer, 0, length) + 1;
+        if (headerEnd <= 0) {
+            return endOfStream ? length : NOT_FOUND;
+        }
+        return headerEnd;
+    }
+
+    /**
+     * Checks the rows of the beginning of an input, the last one can be incomplete
+     *
+     * @return false if a row is longer than the chunk size - the dispatcher can't cut such input
+     */
+    static boolean rowsFit(ByteBuffer buffer, int length, int chunkSize) {
+        var quoted = QuotedRows.containsQuote(buffer, 0, length);
+        var rowStart = 0;
+        while (rowStart < length) {
+            var rowEnd = quoted ? QuotedRows.rowEnd(buffer, rowStart, length) : nextNewLine(buffer, rowStart, length) + 1;
+            if (rowEnd <= 0) {
+                return length - rowStart <= chunkSize;
+            }
+            if (rowEnd - rowStart > chunkSize) {
+                return false;
             }
-        } catch (Exception e) {
-            log.info("Error during chunk read", e);
+            rowStart = rowEnd;
         }
+        return true;
     }
 
-    private static int moveBackwardToTheNewLineCharacter(ByteBuffer processingBuffer) {
-        int position = processingBuffer.position();
-        while (position > 0 && processingBuffer.get(--position) != NEW_LINE) ;
-        return position;
+    static int lastRowEnd(ByteBuffer buffer, int from, int length, boolean quoted) {
+        if (quoted) {
+            return QuotedRows.lastRowEnd(buffer, from, length);
+        }
+        var lastNewLine = lastNewLine(buffer, from, length);
+        return lastNewLine == NOT_FOUND ? NOT_FOUND : lastNewLine + 1;
+    }
+
+    /**
+     * Copies bytes read after the last complete row to the beginning of the next buffer
+     */
+    private static void carryOverIncompleteRow(ByteBuffer processingBuffer, int from, ByteBuffer nextBuffer) {
+        var length = processingBuffer.position() - from;
+        nextBuffer.put(0, processingBuffer, from, length);
+        nextBuffer.position(length);
+    }
+
+    /**
+     * Waiting for a free chunk means the workers or the output don't keep up with the input
+     */
+    private Chunk acquire() {
+        var start = System.nanoTime();
+        var chunk = chunkPool.acquire();
+        metrics.dispatcherWaited(System.nanoTime() - start);
+        return chunk;
+    }
+
+    /**
+     * Reads until the buffer is full, a single read of a socket or a buffered stream can return only a part of a row
+     *
+     * @return false if the end of the stream was reached
+     */
+    private boolean fill(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (readableByteChannel.read(buffer) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return index of the last new line in {@code [from, length)}, {@link #NOT_FOUND} if there is none
+     */
+    private static int lastNewLine(ByteBuffer processingBuffer, int from, int length) {
+        int position = length;
+        while (--position >= from && processingBuffer.get(position) != NEW_LINE) ;
+        return position >= from ? position : NOT_FOUND;
+    }
+
+    private static int nextNewLine(ByteBuffer processingBuffer, int from, int length) {
+        for (int position = from; position < length; position++) {
+            if (processingBuffer.get(position) == NEW_LINE) {
+                return position;
+            }
+        }
+        return NOT_FOUND;
     }
 }
@@ -0,0 +1,65 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import org.jctools.queues.MpscArrayQueue;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pool of chunks of one enrichment. The dispatcher acquires chunks, chunk processors hand them back through
+ * the return queue as soon as the enriched rows are sent, so in the steady state no buffer is allocated.
+ * <p>
+ * Chunks are allocated lazily up to the capacity, after that the dispatcher waits for the processors.
+ * Only the dispatcher thread can acquire, any thread can release. Releasing signals the dispatcher's wait strategy.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+class ChunkPool {
+
+    static final int MIN_CAPACITY = 2;
+
+    MpscArrayQueue<Chunk> returned;
+    int capacity;
+    int bufferSize;
+    int outputSize;
+    boolean direct;
+    WaitStrategy waitStrategy;
+    @NonFinal
+    int allocated;
+
+    public ChunkPool(int capacity, int bufferSize, int outputSize, boolean direct, WaitStrategy waitStrategy) {
+        this.capacity = Math.max(MIN_CAPACITY, capacity);
+        this.returned = new MpscArrayQueue<>(this.capacity);
+        this.bufferSize = bufferSize;
+        this.outputSize = outputSize;
+        this.direct = direct;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * @return chunk with cleared buffers
+     */
+    public Chunk acquire() {
+        var chunk = returned.poll();
+        if (chunk == null && allocated < capacity) {
+            allocated++;
+            return new Chunk(direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize), ByteBuffer.allocate(outputSize));
+        }
+        var attempt = 0;
+        while (chunk == null) {
+            attempt = waitStrategy.idle(attempt);
+            chunk = returned.poll();
+        }
+        chunk.getBuffer().clear();
+        chunk.getOutput().clear();
+        return chunk;
+    }
+
+    public void release(Chunk chunk) {
+        if (!returned.offer(chunk)) {
+            throw new IllegalStateException("Chunk released to the pool more than once");
+        }
+        waitStrategy.signal();
+    }
+}
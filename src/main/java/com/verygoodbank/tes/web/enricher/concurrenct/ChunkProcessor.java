@@ -1,153 +1,144 @@
 package com.verygoodbank.tes.web.enricher.concurrenct;
 
+import com.verygoodbank.tes.web.enricher.EnrichmentMetrics;
+import com.verygoodbank.tes.web.enricher.RejectionReport;
 import lombok.AccessLevel;
+import lombok.SneakyThrows;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
-import org.jctools.queues.SpmcArrayQueue;
 
 import java.nio.ByteBuffer;
-import java.util.concurrent.atomic.AtomicBoolean;
-
-import static com.verygoodbank.tes.web.enricher.concurrenct.ChunkDispatcher.COLUMN_NAMES;
-import static com.verygoodbank.tes.web.enricher.concurrenct.ChunkDispatcher.NEW_LINE;
-import static com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService.BUFFER_SIZE;
-import static com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService.POISON_PILL;
-
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Enriches chunks of one request on the worker pool shared by all requests. Every chunk is a separate task,
+ * so workers aren't pinned to a request - whichever worker is free takes the next chunk of any in-flight enrichment.
+ * <p>
+ * Number of tasks of one request is bounded by its {@link ChunkPool} (a chunk goes back to the pool only when its
+ * task is done), so a large upload cannot queue more than a few chunks ahead of a small one.
+ * <p>
+ * The first failure of a chunk fails the whole enrichment - later chunks are sent empty, so an ordered sink doesn't
+ * wait for them, and the failure is thrown once all chunks are completed.
+ */
 @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
 @Slf4j
-class ChunkProcessor implements Runnable {
-
-    private static final ByteBuffer DEFAULT_PRODUCT_NAME = ByteBuffer.wrap("Missing Product Name".getBytes()).asReadOnlyBuffer();
-    private static final int REQUIRED_VALUES = COLUMN_NAMES.length;
-    SpmcArrayQueue<ByteBuffer> inputQueue;
-    Sender sender;
-    ByteBuffer outputBuffer = ByteBuffer.allocate(BUFFER_SIZE * 2);
-    BytesProductNameResolver productNameResolver;
-    AtomicBoolean running = new AtomicBoolean(true);
+class ChunkProcessor {
+
+    Executor workers;
+    Executor senders;
+    ChunkPool chunkPool;
+    ChunkSink sink;
+    RowEnricher rowEnricher;
+    RejectionReport report;
+    WaitStrategy completionWait;
+    EnrichmentMetrics metrics;
+    AtomicInteger pending = new AtomicInteger();
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * @param senders runs writes of enriched chunks to the sink, a chunk returns to the pool once it's sent
+     */
+    public ChunkProcessor(Executor workers, Executor senders, ChunkPool chunkPool, ChunkSink sink, RowEnricher rowEnricher,
+                          RejectionReport report, WaitStrategy completionWait, EnrichmentMetrics metrics) {
+        this.workers = workers;
+        this.senders = senders;
+        this.chunkPool = chunkPool;
+        this.sink = sink;
+        this.rowEnricher = rowEnricher;
+        this.report = report;
+        this.completionWait = completionWait;
+        this.metrics = metrics;
+    }
 
-    public ChunkProcessor(SpmcArrayQueue<ByteBuffer> inputQueue, Sender sender, BytesProductNameResolver productNameResolver) {
-        this.inputQueue = inputQueue;
-        this.sender = sender;
-        this.productNameResolver = productNameResolver;
+    /**
+     * Enriched rows are longer than the input ones - the product id is replaced with the name
+     */
+    static int outputBufferSize(int chunkSize) {
+        return chunkSize * 2;
     }
 
-    @Override
-    public void run() {
+    public void submit(Chunk chunk) {
+        pending.incrementAndGet();
         try {
-            while (true) {
-                ByteBuffer processingBuffer;
-                while ((processingBuffer = inputQueue.poll()) == null) {
-                    Thread.onSpinWait();
-                }
-
-                if (processingBuffer == POISON_PILL) {
-                    running.set(false);
-                    break;
-                }
-                processBuffer(processingBuffer);
-                outputBuffer.flip();
-                sender.sendBuffer(outputBuffer);
-                outputBuffer.clear();
-            }
-        } catch (Exception e) {
-            log.error("", e);
+            workers.execute(() -> process(chunk));
+        } catch (RejectedExecutionException e) {
+            metrics.overloaded();
+            completed(chunk);
+            throw new SystemOverloadedException("Worker pool overloaded, cannot process more chunks");
         }
     }
 
-    private void processBuffer(ByteBuffer buffer) {
-        buffer.mark();
-        int dateStartIndex = -1;
-        int dateEndIndex = -1;
-
-        int productIdStartIndex = -1;
-        int productIdEndIndex = -1;
-
-        var values = 0;
-        var currentValueIndex = 0;
-        while (buffer.hasRemaining()) {
-            byte b = buffer.get();
-            if (b == NEW_LINE) {
-                if (values == REQUIRED_VALUES - 1) {
-                    enrichTrade(dateStartIndex, dateEndIndex, productIdStartIndex, productIdEndIndex, buffer);
-                }
-                values = 0;
-                currentValueIndex = buffer.position();
-            }
-            if (b == ',') {
-                values++;
-                if (values == 1) {
-                    dateEndIndex = buffer.position() - 1;
-                    dateStartIndex = currentValueIndex;
-                } else if (values == 2) {
-                    productIdEndIndex = buffer.position() - 1;
-                    productIdStartIndex = currentValueIndex;
-                }
-                currentValueIndex = buffer.position();
-            }
+    /**
+     * Waits until all submitted chunks are enriched and sent, also after a failure - the output can't be closed
+     * while a chunk is still being written to it
+     */
+    public void awaitCompletion() {
+        var attempt = 0;
+        while (pending.get() > 0) {
+            attempt = completionWait.idle(attempt);
         }
     }
 
-    private void enrichTrade(int dateStartIndex, int dateEndIndex, int productIdStartIndex, int productIdEndIndex, ByteBuffer buffer) {
-        var currentPosition = buffer.position();
-        var currentLimit = buffer.limit();
-
-        buffer.position(dateStartIndex);
-        buffer.limit(dateEndIndex);
-        var dateValid = DateValidator.validate(buffer);
-        if (!dateValid) {
-            var arr = new byte[dateEndIndex - dateStartIndex];
-            buffer.get(arr);
-            log.error("Invalid date format: {}. Row discarded", new String(arr));
-            buffer.limit(currentLimit);
-            buffer.position(currentPosition);
-            return;
+    /**
+     * Throws the first failure of a chunk, e.g. a write to a closed connection
+     */
+    @SneakyThrows
+    public void throwIfFailed() {
+        var failed = failure.get();
+        if (failed != null) {
+            throw failed;
         }
+    }
 
-        for (int i = dateStartIndex; i < dateEndIndex; i++) {
-            outputBuffer.put(buffer.get(i));
+    private void process(Chunk chunk) {
+        var outputBuffer = chunk.getOutput();
+        try {
+            if (failure.get() == null) {
+                var start = System.nanoTime();
+                var rejections = chunk.getRejections();
+                var enrichedRows = rowEnricher.enrich(chunk.getBuffer(), outputBuffer, rejections, chunk.isQuoted(), chunk.isEndOfInput());
+                metrics.chunkEnriched(enrichedRows, System.nanoTime() - start);
+                rejections.mergeInto(report);
+                rejections.clear();
+            }
+        } catch (Exception e) {
+            failed(e);
         }
-        outputBuffer.put((byte) ',');
-        buffer.limit(buffer.capacity());
-
-        buffer.position(productIdStartIndex);
-        buffer.limit(productIdEndIndex);
-
-        var id = getProductId(productIdStartIndex, productIdEndIndex, buffer);
-        var name = productNameResolver.resolve(id)
-                .orElseGet(() -> logMissingProductAndReturnDefault(id));
-
-        while (name.hasRemaining()) {
-            outputBuffer.put(name.get());
+        if (failure.get() != null) {
+            outputBuffer.clear();
         }
-
-        buffer.position(productIdEndIndex);
-        buffer.limit(currentPosition);
-        buffer.position(currentPosition);
-        for (int i = productIdEndIndex; i < currentPosition; i++) {
-            outputBuffer.put(buffer.get(i));
+        outputBuffer.flip();
+        try {
+            senders.execute(() -> send(chunk));
+        } catch (RejectedExecutionException e) {
+            metrics.overloaded();
+            failed(new SystemOverloadedException("Sender pool overloaded, cannot send more chunks"));
+            completed(chunk);
         }
-
-        buffer.limit(currentLimit);
-        buffer.position(currentPosition);
     }
 
-    public long getProductId(int productIdStartIndex, int productIdEndIndex, ByteBuffer buffer) {
-        long value = 0;
-        for (int i = productIdStartIndex; i < productIdEndIndex; i++) {
-            char tmp = (char) buffer.get(i);
-            int numeric = tmp - '0';
-            value = value * 10 + numeric;
+    private void send(Chunk chunk) {
+        try {
+            sink.send(chunk.getSequence(), chunk.getOutput());
+        } catch (Exception e) {
+            failed(e);
+        } finally {
+            completed(chunk);
         }
-        return value;
     }
 
-
-    private static ByteBuffer logMissingProductAndReturnDefault(long productId) {
-        log.warn("Missing product name mapping for product id: {}", productId);
-        return DEFAULT_PRODUCT_NAME.slice();
+    private void failed(Throwable e) {
+        if (failure.compareAndSet(null, e)) {
+            log.debug("Enrichment failed", e);
+        }
     }
 
-    public boolean isRunning() {
-        return running.get();
+    private void completed(Chunk chunk) {
+        chunkPool.release(chunk);
+        pending.decrementAndGet();
+        completionWait.signal();
     }
 }
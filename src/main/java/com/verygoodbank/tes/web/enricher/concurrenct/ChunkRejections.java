@@ -0,0 +1,65 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import com.verygoodbank.tes.web.enricher.RejectionReport;
+import com.verygoodbank.tes.web.enricher.RejectionReport.Reason;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+
+import java.util.Arrays;
+
+/**
+ * Bad rows of one chunk, counted by the worker without any synchronization and merged into the {@link RejectionReport}
+ * of the request once the chunk is processed. Pooled together with its chunk.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+final class ChunkRejections {
+
+    long[] counts = new long[Reason.values().length];
+    @NonFinal
+    long[] missingProductIds = new long[64];
+    @NonFinal
+    int missingProducts;
+    @NonFinal
+    long rejectedRows;
+    @NonFinal
+    boolean empty = true;
+
+    void reject(Reason reason) {
+        counts[reason.ordinal()]++;
+        empty = false;
+        if (reason != Reason.MISSING_PRODUCT) {
+            rejectedRows++;
+        }
+    }
+
+    /**
+     * @return rows left out of the output, rows with a missing product are enriched with the default name
+     */
+    long rejectedRows() {
+        return rejectedRows;
+    }
+
+    void missingProduct(long productId) {
+        if (missingProducts == missingProductIds.length) {
+            missingProductIds = Arrays.copyOf(missingProductIds, missingProducts * 2);
+        }
+        missingProductIds[missingProducts++] = productId;
+        reject(Reason.MISSING_PRODUCT);
+    }
+
+    void mergeInto(RejectionReport report) {
+        if (!empty) {
+            report.merge(counts, missingProductIds, missingProducts);
+        }
+    }
+
+    void clear() {
+        if (!empty) {
+            Arrays.fill(counts, 0);
+            missingProducts = 0;
+            rejectedRows = 0;
+            empty = true;
+        }
+    }
+}
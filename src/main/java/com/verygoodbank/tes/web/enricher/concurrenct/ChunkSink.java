@@ -0,0 +1,14 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import java.nio.ByteBuffer;
+
+interface ChunkSink {
+
+    /**
+     * Consumes enriched chunk. The buffer can be reused by the caller as soon as this method returns
+     *
+     * @param sequence sequence number of the input chunk the buffer was produced from
+     * @param buffer   enriched rows, ready to be read
+     */
+    void send(long sequence, ByteBuffer buffer);
+}
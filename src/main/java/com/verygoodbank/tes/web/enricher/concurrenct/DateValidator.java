@@ -1,5 +1,6 @@
 package com.verygoodbank.tes.web.enricher.concurrenct;
 
+import com.verygoodbank.tes.web.enricher.ColumnValidator;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 
@@ -9,63 +10,28 @@ import java.nio.ByteBuffer;
 final class DateValidator {
 
     /**
-     * Checks if the provided date is in the following format: yyyyMMdd
+     * Checks if the provided date is in the following format: yyyyMMdd, see {@link ColumnValidator#isValidDate(ByteBuffer, int, int)}
      *
      * @param dateStr text date representation
      * @return true if valid or false otherwise
      */
     public static boolean validate(ByteBuffer dateStr) {
-        if (dateStr.remaining() < 8) {
-            return false;
-        }
-
-        var from = dateStr.position();
-        int year = parseInt(dateStr, from, 4);
-        int month = parseInt(dateStr, from + 4, 2);
-        int day = parseInt(dateStr, from + 4 + 2, 2);
-
-        if (month < 1 || month > 12) {
-            return false;
-        }
-        if (day < 1 || day > 31) {
-            return false;
-        }
-
-        if (month == 2) {
-            if (isLeapYear(year)) {
-                return day <= 29;
-            } else {
-                return day <= 28;
-            }
-        }
-
-        if (month == 4 || month == 6 || month == 9 || month == 11) {
-            return day <= 30;
-        }
-
-        return true;
+        return ColumnValidator.isValidDate(dateStr, dateStr.position(), dateStr.limit());
     }
 
-    private static int parseInt(ByteBuffer buffer, int from, int end) {
-        int value = 0;
-        for (int i = from; i < from + end; i++) {
-            char c = (char) buffer.get(i);
-            if (!Character.isDigit(c)) {
-                return -1;
-            }
-            value = value * 10 + (c - '0');
+    /**
+     * The same check as {@link #validate(ByteBuffer)}, but all 8 digits are tested and parsed as one word.
+     * Anything else than 8 digits goes through the byte by byte version, so both always give the same result
+     */
+    public static boolean validateSwar(ByteBuffer dateStr) {
+        if (dateStr.remaining() != Swar.WORD_BYTES) {
+            return false;
         }
-        return value;
-    }
-
-    private static boolean isLeapYear(int year) {
-        if (year % 4 == 0) {
-            if (year % 100 == 0) {
-                return year % 400 == 0;
-            } else {
-                return true;
-            }
+        var word = Swar.getLong(dateStr, dateStr.position());
+        if (!Swar.isDigits(word)) {
+            return validate(dateStr);
         }
-        return false;
+        var date = Swar.parseEightDigits(word);
+        return ColumnValidator.isValidDate(date / 10_000, date / 100 % 100, date % 100);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,231 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import com.verygoodbank.tes.web.enricher.EnrichmentMetrics;
+import com.verygoodbank.tes.web.enricher.RejectionReport;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import static com.verygoodbank.tes.web.enricher.concurrenct.ChunkDispatcher.NEW_LINE;
+
+/**
+ * Enriches a file on the local disk into another file without a single reader. The input is split into newline-aligned
+ * byte ranges, workers of the shared pool memory map their range and enrich it slice by slice into a temporary file
+ * next to the target. Temporary files are transferred into the target at their offsets in the range order
+ * (copy in the kernel, the enriched rows don't go through the heap again).
+ * <p>
+ * At most {@code parallelism} ranges are in flight, the oldest one is transferred before the next range is submitted,
+ * so a large file doesn't flood the shared pool and the temporary files don't hold more than a few ranges.
+ * <p>
+ * Ranges are split at new lines, which is only right without quoted fields. A worker which finds a quote in its range
+ * gives up with {@link QuotedFieldsException} and the caller enriches the file as a stream instead.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@RequiredArgsConstructor
+@Slf4j
+class FileRangeEnricher {
+
+    static final long MIN_RANGE_SIZE = 1 << 20;
+    static final long MAX_RANGE_SIZE = 64 << 20;
+    private static final int RANGES_PER_THREAD = 4;
+    private static final int NEW_LINE_SEARCH_SIZE = 4096;
+
+    Executor workers;
+    int parallelism;
+    int chunkSize;
+    RowEnricher rowEnricher;
+    RejectionReport report;
+    EnrichmentMetrics metrics;
+
+    @SneakyThrows
+    public void enrich(Path input, Path output) {
+        try (var source = FileChannel.open(input, StandardOpenOption.READ);
+             var target = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var size = source.size();
+            var position = writeFully(target, ByteBuffer.wrap(Sender.header()), 0);
+            var rangeSize = rangeSize(size);
+            var inFlight = new ArrayDeque<CompletableFuture<EnrichedRange>>();
+            var rows = 0L;
+            try {
+                var start = endOfLine(source, 0);
+                while (start < size) {
+                    var end = start + rangeSize >= size ? size : endOfLine(source, start + rangeSize - 1);
+                    var rangeStart = start;
+                    inFlight.add(CompletableFuture.supplyAsync(() -> enrichRange(source, rangeStart, end, end == size, output), workers));
+                    if (inFlight.size() == parallelism) {
+                        var range = await(inFlight.poll());
+                        rows += range.getRows();
+                        position = transfer(range, target, position);
+                    }
+                    start = end;
+                }
+                while (!inFlight.isEmpty()) {
+                    var range = await(inFlight.poll());
+                    rows += range.getRows();
+                    position = transfer(range, target, position);
+                }
+                metrics.rowsEnriched(rows);
+                metrics.bytesRead(size);
+                metrics.bytesWritten(position);
+            } finally {
+                inFlight.forEach(FileRangeEnricher::deleteWhenDone);
+            }
+        }
+    }
+
+    /**
+     * Enough ranges to keep every worker busy even if they enrich at different speed, but not so small
+     * that transfers and temporary files dominate
+     */
+    private long rangeSize(long size) {
+        return Math.min(MAX_RANGE_SIZE, Math.max(MIN_RANGE_SIZE, size / ((long) parallelism * RANGES_PER_THREAD)));
+    }
+
+    private EnrichedRange enrichRange(FileChannel source, long start, long end, boolean lastRange, Path output) {
+        Path part = null;
+        try {
+            part = Files.createTempFile(output.toAbsolutePath().getParent(), output.getFileName() + ".", ".part");
+            try (var partChannel = FileChannel.open(part, StandardOpenOption.WRITE)) {
+                var mapped = source.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                if (QuotedRows.containsQuote(mapped, 0, mapped.limit())) {
+                    throw new QuotedFieldsException();
+                }
+                // direct, so the channel writes it without copying it into a temporary direct buffer first
+                var outputBuffer = ByteBuffer.allocateDirect(ChunkProcessor.outputBufferSize(chunkSize));
+                var rejections = new ChunkRejections();
+                var enrichedRows = 0L;
+                var from = 0;
+                while (from < mapped.limit()) {
+                    var to = sliceEnd(mapped, from);
+                    var endOfInput = lastRange && to == mapped.limit();
+                    enrichedRows += rowEnricher.enrich(mapped.slice(from, to - from), outputBuffer, rejections, false, endOfInput);
+                    outputBuffer.flip();
+                    while (outputBuffer.hasRemaining()) {
+                        partChannel.write(outputBuffer);
+                    }
+                    outputBuffer.clear();
+                    from = to;
+                }
+                rejections.mergeInto(report);
+                return new EnrichedRange(part, partChannel.size(), enrichedRows);
+            }
+        } catch (IOException e) {
+            delete(part);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            delete(part);
+            throw e;
+        }
+    }
+
+    /**
+     * Slices are at most one chunk long and end right after a new line. The last slice of the file can end with a row without
+     * a new line, it's enriched as the last row of the input
+     */
+    private int sliceEnd(ByteBuffer mapped, int from) {
+        if (mapped.limit() - from <= chunkSize) {
+            return mapped.limit();
+        }
+        var to = from + chunkSize;
+        while (to > from && mapped.get(to - 1) != NEW_LINE) {
+            to--;
+        }
+        if (to == from) {
+            throw new IllegalArgumentException("Row longer than the chunk size of " + chunkSize + " bytes");
+        }
+        return to;
+    }
+
+    private static long transfer(EnrichedRange range, FileChannel target, long position) throws IOException {
+        try (var part = FileChannel.open(range.getPath(), StandardOpenOption.READ)) {
+            var transferred = 0L;
+            while (transferred < range.getSize()) {
+                transferred += target.transferFrom(part, position + transferred, range.getSize() - transferred);
+            }
+            return position + transferred;
+        } finally {
+            delete(range.getPath());
+        }
+    }
+
+    /**
+     * @return position right after the first new line at or after {@code from}, or the file size if there is none
+     */
+    private static long endOfLine(FileChannel source, long from) throws IOException {
+        var buffer = ByteBuffer.allocate(NEW_LINE_SEARCH_SIZE);
+        var position = from;
+        while (source.read(buffer.clear(), position) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position++;
+                if (buffer.get() == NEW_LINE) {
+                    return position;
+                }
+            }
+        }
+        return source.size();
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    private static EnrichedRange await(CompletableFuture<EnrichedRange> range) {
+        try {
+            return range.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    private static void deleteWhenDone(CompletableFuture<EnrichedRange> range) {
+        range.thenAccept(it -> delete(it.getPath()));
+    }
+
+    private static void delete(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Cannot delete temporary file {}", path, e);
+        }
+    }
+
+    @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+    @RequiredArgsConstructor
+    @Getter
+    private static final class EnrichedRange {
+        Path path;
+        long size;
+        long rows;
+    }
+
+    /**
+     * Without a stack trace, it only tells the caller to take the streaming way
+     */
+    static final class QuotedFieldsException extends RuntimeException {
+        QuotedFieldsException() {
+            super("Input has quoted fields, it cannot be split at new lines", null, false, false);
+        }
+    }
+}
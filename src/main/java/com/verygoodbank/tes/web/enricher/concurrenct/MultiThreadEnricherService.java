@@ -1,15 +1,25 @@
 package com.verygoodbank.tes.web.enricher.concurrenct;
 
 import com.verygoodbank.tes.web.enricher.Enricher;
+import com.verygoodbank.tes.web.enricher.Engine;
+import com.verygoodbank.tes.web.enricher.EnrichmentMetrics;
+import com.verygoodbank.tes.web.enricher.EnrichmentOptions;
+import com.verygoodbank.tes.web.enricher.ProductCatalog;
+import com.verygoodbank.tes.web.enricher.RejectionReport;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import lombok.AccessLevel;
 import lombok.SneakyThrows;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
-import org.jctools.queues.SpmcArrayQueue;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
-import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -17,98 +27,253 @@ import java.io.Closeable;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Service
 @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
 @Slf4j
-@Profile("concurrent")
 @Lazy
 public class MultiThreadEnricherService implements Enricher {
 
-    static final ByteBuffer POISON_PILL = ByteBuffer.allocate(0);
     static final int BUFFER_SIZE = 8192;
+    static final int MIN_CHUNK_SIZE = 1024;
+    private static final int REORDER_WINDOW_PER_THREAD = 2;
+    private static final int CHUNKS_PER_THREAD = 2;
+    private static final int DISPATCHER_CHUNKS = 2;
+    private static final Executor CALLING_THREAD = Runnable::run;
+    private static final String ENGINE = Engine.CONCURRENT.tag();
 
-    ExecutorService executorService;
-    BytesProductNameResolver productNameResolver;
+    ForkJoinPool executorService;
+    Scheduler workerScheduler;
+    Executor senders;
+    ProductCatalog productCatalog;
+    WaitStrategies waitStrategies;
+    RowScanner rowScanner;
+    EnrichmentMetrics metrics;
     int threads;
 
-    public MultiThreadEnricherService(@Value("${processing-threads:-1}") int threads, BytesProductNameResolver productNameResolver) {
+    /**
+     * @param rowScanner     {@code swar} parses 8 bytes per step, {@code scalar} one byte - kept as a fallback and a reference
+     * @param virtualThreads enriched chunks are written by senders (virtual threads on Java 21+) instead of the workers,
+     *                       so slow clients don't hold the bounded worker pool. Spring Boot runs the request handling
+     *                       on virtual threads with the same property
+     */
+    @Autowired
+    public MultiThreadEnricherService(@Value("${processing-threads:-1}") int threads, ProductCatalog productCatalog,
+                                      WaitStrategies waitStrategies, @Value("${row-scanner:swar}") String rowScanner,
+                                      MeterRegistry meterRegistry, @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this(threads, productCatalog, waitStrategies, rowScanner, new EnrichmentMetrics(meterRegistry, ENGINE), virtualThreads);
+    }
+
+    public MultiThreadEnricherService(int threads, ProductCatalog productCatalog, WaitStrategies waitStrategies, String rowScanner,
+                                      EnrichmentMetrics metrics, boolean virtualThreads) {
         this.threads = threads == -1 ? Runtime.getRuntime().availableProcessors() : threads;
         this.executorService = ThreadPools.chunkProcessorPool(this.threads);
+        this.workerScheduler = Schedulers.fromExecutor(executorService);
         Runtime.getRuntime().addShutdownHook(new Thread(() -> closeExecutor(executorService)));
-        this.productNameResolver = productNameResolver;
+        if (virtualThreads) {
+            var senderPool = ThreadPools.senderPool();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> closeExecutor(senderPool)));
+            this.senders = senderPool;
+        } else {
+            this.senders = ThreadPools.MANAGED_BLOCKING;
+        }
+        this.productCatalog = productCatalog;
+        this.waitStrategies = waitStrategies;
+        this.rowScanner = RowScanner.of(rowScanner);
+        this.metrics = metrics;
+        metrics.workerPool(executorService);
+    }
+
+    public MultiThreadEnricherService(int threads, ProductCatalog productCatalog, WaitStrategies waitStrategies, String rowScanner,
+                                      EnrichmentMetrics metrics) {
+        this(threads, productCatalog, waitStrategies, rowScanner, metrics, false);
+    }
+
+    public MultiThreadEnricherService(int threads, ProductCatalog productCatalog, WaitStrategies waitStrategies, String rowScanner) {
+        this(threads, productCatalog, waitStrategies, rowScanner, EnrichmentMetrics.disabled(ENGINE));
+    }
+
+    public MultiThreadEnricherService(int threads, ProductCatalog productCatalog, WaitStrategies waitStrategies) {
+        this(threads, productCatalog, waitStrategies, RowScanner.SWAR.name());
+    }
+
+    public MultiThreadEnricherService(int threads, ProductCatalog productCatalog) {
+        this(threads, productCatalog, WaitStrategies.of(WaitStrategies.Type.SPIN_THEN_PARK));
     }
 
     @SneakyThrows
     @Override
-    public void enrich(OutputStream outputStream, InputStream inputStream) {
+    public RejectionReport enrich(OutputStream outputStream, InputStream inputStream, EnrichmentOptions options) {
         throwIfNull(outputStream, "Output");
         throwIfNull(inputStream, "Input");
 
-        try (var source = new BufferedInputStream(inputStream, BUFFER_SIZE);
-             var output = new BufferedOutputStream(outputStream, BUFFER_SIZE)) {
-            var chunkQueue = new SpmcArrayQueue<ByteBuffer>(threads);
+        var report = new RejectionReport();
+        var start = metrics.enrichmentStarted();
+        var output = new BufferedOutputStream(metrics.countWritten(outputStream), BUFFER_SIZE);
+        try (var source = new BufferedInputStream(metrics.countRead(inputStream), BUFFER_SIZE)) {
+            var inline = isInline(options);
+            var waits = waitStrategies.newPipelineWaits();
+            var chunkSize = chunkSize(options);
+            var outputBufferSize = ChunkProcessor.outputBufferSize(chunkSize);
+            var chunkPool = new ChunkPool(inline ? ChunkPool.MIN_CAPACITY : chunkPoolSize(options), chunkSize, outputBufferSize,
+                    options.isDirectBuffers(), waits.getDispatcher());
 
-            var sender = new Sender(output);
-            var chunksProcessors = initializeChunkProcessors(chunkQueue, sender);
+            var sender = new Sender(output, waits.getSender(), metrics);
+            var sink = options.isPreserveOrder() && !inline ? reorderBuffer(sender, outputBufferSize, waits) : sender;
+            var chunkProcessor = new ChunkProcessor(inline ? CALLING_THREAD : executorService, inline ? CALLING_THREAD : senders, chunkPool, sink, rowEnricher(report, options),
+                    report, waits.getDispatcher(), metrics);
 
             sender.writeHeader();
-            var chunkDispatcher = new ChunkDispatcher(chunkQueue, source);
+            var chunkDispatcher = new ChunkDispatcher(chunkPool, chunkProcessor, source, metrics);
 
-            chunkDispatcher.dispatch();
+            try {
+                chunkDispatcher.dispatch();
+            } finally {
+                chunkProcessor.awaitCompletion();
+            }
+            chunkProcessor.throwIfFailed();
+            // closed only on success - closing flushes, the buffered output of a failed enrichment is dropped instead,
+            // so an error found early can still be sent to the client in place of the output
+            output.close();
+        } finally {
+            metrics.enrichmentFinished(start, report);
+        }
+        logIfNotEmpty(report);
+        return report;
+    }
 
-            closeChunkProcessor(chunkQueue, chunksProcessors);
+    /**
+     * Files on the local disk don't need the dispatcher - workers read newline-aligned ranges of the input in parallel,
+     * see {@link FileRangeEnricher}. Files with quoted fields are enriched as a stream
+     */
+    @Override
+    public RejectionReport enrich(Path input, Path output, EnrichmentOptions options) {
+        var report = new RejectionReport();
+        var start = metrics.enrichmentStarted();
+        var quotedFields = false;
+        try {
+            new FileRangeEnricher(executorService, threads, chunkSize(options), rowEnricher(report, options), report, metrics).enrich(input, output);
+        } catch (FileRangeEnricher.QuotedFieldsException e) {
+            quotedFields = true;
+        } finally {
+            if (quotedFields) {
+                // nothing of the ranges is counted, the streaming enrichment counts the whole file
+                metrics.enrichmentAbandoned();
+            } else {
+                metrics.enrichmentFinished(start, report);
+            }
+        }
+        if (quotedFields) {
+            log.info("{} has quoted fields, enriching it as a stream", input);
+            return Enricher.super.enrich(input, output, options);
         }
+        logIfNotEmpty(report);
+        return report;
     }
 
-    private static void throwIfNull(Closeable closeable, String stream) {
-        if (closeable == null) {
-            throw new IllegalArgumentException(stream + " stream cannot be null");
+    /**
+     * Non-blocking enrichment of a flow of buffers on the shared worker pool, see {@link ReactiveEnricher}. Input buffers
+     * are released once they're read, the subscriber releases the enriched ones. The input size and the inline threshold
+     * of the options aren't used
+     *
+     * @param report bad rows found during the enrichment, complete once the returned flux completes
+     */
+    public Flux<ByteBuf> enrich(Flux<ByteBuf> trades, RejectionReport report, EnrichmentOptions options, ByteBufAllocator allocator) {
+        if (trades == null) {
+            throw new IllegalArgumentException("Input stream cannot be null");
         }
+        var reactiveEnricher = new ReactiveEnricher(workerScheduler, allocator, rowEnricher(report, options), report, metrics,
+                chunkSize(options), chunkPoolSize(options), options.isPreserveOrder());
+        return reactiveEnricher.enrich(trades)
+                .doOnComplete(() -> logIfNotEmpty(report));
     }
 
-    private List<ChunkProcessor> initializeChunkProcessors(SpmcArrayQueue<ByteBuffer> chunkQueue, Sender sender) {
-        List<ChunkProcessor> chunksProcessors = new ArrayList<>(threads);
-        for (int i = 0; i < threads; i++) {
-            var chunkProcessor = new ChunkProcessor(chunkQueue, sender, productNameResolver);
-            var started = startProcessing(chunkProcessor);
-            if (started) {
-                chunksProcessors.add(chunkProcessor);
-            } else if (startedAtLeastOneProcessor(i)) {
-                break;
-            } else {
-                throw new SystemOverloadedException("Chunk pool overloaded, cannot create more chunk processors");
-            }
+    /**
+     * Every row has to fit into one chunk, so an input with a longer row can't be enriched by this engine
+     *
+     * @param head beginning of the input or all of it, from the position to the limit
+     * @return false if a row of the head is longer than the chunk size of the options
+     */
+    public static boolean fitsChunks(ByteBuffer head, EnrichmentOptions options) {
+        return ChunkDispatcher.rowsFit(head.slice(), head.remaining(), chunkSize(options));
+    }
+
+    /**
+     * @return true if more than {@code chunksPerThread} chunks per worker wait in the shared worker pool
+     */
+    public boolean isBusy(int chunksPerThread) {
+        return executorService.getQueuedSubmissionCount() + executorService.getQueuedTaskCount() > (long) threads * chunksPerThread;
+    }
+
+    /**
+     * Runs a task on the shared worker pool, e.g. a whole small input enriched inline. The task must not wait for other
+     * tasks of the pool
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, executorService);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Pins the current catalog revision for the whole enrichment
+     */
+    private RowEnricher rowEnricher(RejectionReport report, EnrichmentOptions options) {
+        return new RowEnricher(new BytesProductNameResolver(productCatalog.current().getIndex()), report, rowScanner, options.getValidation());
+    }
+
+    private static void logIfNotEmpty(RejectionReport report) {
+        if (!report.isEmpty()) {
+            log.warn("Enrichment finished with bad rows - {}", report);
         }
-        return chunksProcessors;
     }
 
-    private boolean startProcessing(ChunkProcessor chunkProcessor) {
-        try {
-            executorService.submit(chunkProcessor);
-            return true;
-        } catch (RejectedExecutionException e) {
-            return false;
+    private static void throwIfNull(Closeable closeable, String stream) {
+        if (closeable == null) {
+            throw new IllegalArgumentException(stream + " stream cannot be null");
         }
     }
 
-    private static boolean startedAtLeastOneProcessor(int i) {
-        return i > 0;
+    /**
+     * Small inputs cost more to hand over between threads than to enrich, so the dispatcher processes every chunk
+     * itself right after reading it. Chunks are then sent in the input order and two pooled chunks are enough
+     */
+    public static boolean isInline(EnrichmentOptions options) {
+        return options.getInlineThreshold() > 0
+                && options.getInputSize() != EnrichmentOptions.UNKNOWN_SIZE
+                && options.getInputSize() <= options.getInlineThreshold();
+    }
+
+    /**
+     * By default there is enough chunks to keep every worker busy and let the dispatcher read ahead, smaller pool makes
+     * the dispatcher wait for workers to return chunks. It's also the limit of chunks one request can have queued
+     * in the shared worker pool
+     */
+    private int chunkPoolSize(EnrichmentOptions options) {
+        return options.getChunkPoolSize() > 0 ? options.getChunkPoolSize() : threads * CHUNKS_PER_THREAD + DISPATCHER_CHUNKS;
     }
 
-    @SuppressWarnings("StatementWithEmptyBody")
-    private void closeChunkProcessor(SpmcArrayQueue<ByteBuffer> chunkQueue, List<ChunkProcessor> chunkProcessors) {
-        for (int i = 0; i < chunkProcessors.size(); i++) {
-            while (!chunkQueue.offer(POISON_PILL)) ;
+    private static int chunkSize(EnrichmentOptions options) {
+        if (options.getChunkSize() == 0) {
+            return BUFFER_SIZE;
         }
-        for (ChunkProcessor chunkProcessor : chunkProcessors) {
-            while (chunkProcessor.isRunning()) ;
+        if (options.getChunkSize() < MIN_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be at least " + MIN_CHUNK_SIZE + " bytes, got: " + options.getChunkSize());
         }
+        return options.getChunkSize();
+    }
+
+    private ChunkSink reorderBuffer(Sender sender, int slotCapacity, PipelineWaits waits) {
+        return new ReorderBuffer(sender, threads * REORDER_WINDOW_PER_THREAD, slotCapacity, waits.getSender());
     }
 
     @SneakyThrows
@@ -0,0 +1,229 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import com.verygoodbank.tes.web.enricher.Enricher;
+import com.verygoodbank.tes.web.enricher.EnrichmentOptions;
+import com.verygoodbank.tes.web.enricher.RejectionReport;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.util.retry.Retry;
+
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.verygoodbank.tes.web.enricher.concurrenct.ChunkDispatcher.NEW_LINE;
+import static com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService.BUFFER_SIZE;
+
+/**
+ * Coordinator mode - one huge input is enriched by several enricher instances. The input is cut into {@link RowRanges}
+ * (the same boundaries as chunks, a new line inside a quoted field doesn't end a range), every range
+ * is sent together with the header of the input to one of the peers and the enriched ranges are written in the input order,
+ * each without the header added by its peer.
+ * <p>
+ * Peers are plain enricher instances and get the ranges in turns. A range whose peer fails (connection error, timeout,
+ * a status other than 200 and 400) is sent to the next peer, at most {@code attempts} times in total. 400 means
+ * the range itself is wrong and fails the whole enrichment. A peer which fails after it started to respond (e.g. a row
+ * longer than its chunk size) drops the connection, the range is retried and fails the enrichment once the attempts
+ * are used up - an enriched range is written only when its response is complete. Rejected rows are counted from
+ * the trailers of the peers.
+ * <p>
+ * At most {@value #RANGES_PER_PEER} ranges per peer are in flight, enriched ranges wait in memory until the ones before
+ * them are written.
+ */
+@Service
+@ConditionalOnProperty(name = "coordinator.peers")
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@Slf4j
+@Lazy
+public class PeerCoordinator implements Enricher {
+
+    public static final int DEFAULT_RANGE_SIZE = 8 << 20;
+    public static final int DEFAULT_ATTEMPTS = 3;
+    static final String ENRICH_PATH = "/api/v1/enrich";
+    private static final int RANGES_PER_PEER = 2;
+    private static final String TEXT_CSV_VALUE = "text/csv";
+
+    List<String> peers;
+    int rangeSize;
+    int attempts;
+    HttpClient client;
+    Counter retries;
+
+    /**
+     * @param peers     base URLs of the enricher instances, e.g. {@code http://localhost:8081}
+     * @param rangeSize bytes of the input sent to a peer at once, every row has to fit into a range
+     * @param attempts  number of peers a range is sent to before the enrichment fails
+     * @param timeout   longest wait for a peer to respond or to send more of the enriched range
+     */
+    @Autowired
+    public PeerCoordinator(@Value("${coordinator.peers}") List<String> peers,
+                           @Value("${coordinator.range-size:" + DEFAULT_RANGE_SIZE + "}") int rangeSize,
+                           @Value("${coordinator.attempts:" + DEFAULT_ATTEMPTS + "}") int attempts,
+                           @Value("${coordinator.timeout:60s}") Duration timeout,
+                           MeterRegistry meterRegistry) {
+        if (peers.isEmpty()) {
+            throw new IllegalArgumentException("Coordinator needs at least one peer");
+        }
+        if (rangeSize < MultiThreadEnricherService.MIN_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Range size must be at least " + MultiThreadEnricherService.MIN_CHUNK_SIZE + " bytes, got: " + rangeSize);
+        }
+        this.peers = peers.stream()
+                .map(peer -> peer.endsWith("/") ? peer.substring(0, peer.length() - 1) : peer)
+                .toList();
+        this.rangeSize = rangeSize;
+        this.attempts = Math.max(attempts, 1);
+        // Tomcat sends trailers only to clients which ask for them
+        this.client = HttpClient.create()
+                .responseTimeout(timeout)
+                .headers(headers -> headers.set(HttpHeaderNames.CONTENT_TYPE, TEXT_CSV_VALUE)
+                        .set(HttpHeaderNames.TE, HttpHeaderValues.TRAILERS));
+        this.retries = Counter.builder("enricher.coordinator.retries")
+                .description("Ranges sent to another peer after a failure")
+                .register(meterRegistry);
+        log.info("Coordinating enrichment over {}", this.peers);
+    }
+
+    @SneakyThrows
+    @Override
+    public RejectionReport enrich(OutputStream outputStream, InputStream inputStream, EnrichmentOptions options) {
+        if (outputStream == null || inputStream == null) {
+            throw new IllegalArgumentException("Input and output streams cannot be null");
+        }
+        var report = new RejectionReport();
+        var query = query(options);
+        var inFlight = new ArrayDeque<CompletableFuture<EnrichedRange>>();
+        try (var input = inputStream;
+             var output = new BufferedOutputStream(outputStream, BUFFER_SIZE)) {
+            output.write(Sender.header());
+            var ranges = new RowRanges(input, rangeSize);
+            var range = 0;
+            byte[] rows;
+            while ((rows = ranges.next()) != null) {
+                if (inFlight.size() == peers.size() * RANGES_PER_PEER) {
+                    write(inFlight.remove(), output, report);
+                }
+                inFlight.add(send(range++, ranges.getHeader(), rows, query));
+            }
+            while (!inFlight.isEmpty()) {
+                write(inFlight.remove(), output, report);
+            }
+        } catch (Exception e) {
+            inFlight.forEach(pending -> pending.cancel(true));
+            throw e;
+        }
+        if (!report.isEmpty()) {
+            log.warn("Coordinated enrichment finished with bad rows - {}", report);
+        }
+        return report;
+    }
+
+    /**
+     * Peers are asked to keep the order of the range, so the ranges written in turn keep the order of the input
+     */
+    private static String query(EnrichmentOptions options) {
+        var validation = options.getValidation();
+        var query = UriComponentsBuilder.fromPath(ENRICH_PATH)
+                .queryParam("ordered", true)
+                .queryParam("validateCurrency", validation.isValidateCurrency())
+                .queryParam("validatePrice", validation.isValidatePrice())
+                .queryParam("currencies", String.join(",", validation.getCurrencies()));
+        if (options.getChunkSize() > 0) {
+            query.queryParam("chunkSize", options.getChunkSize());
+        }
+        if (options.getEngine() != null) {
+            query.queryParam("engine", options.getEngine().tag());
+        }
+        return query.encode().build().toUriString();
+    }
+
+    private CompletableFuture<EnrichedRange> send(int range, byte[] header, byte[] rows, String query) {
+        var attempt = new AtomicInteger();
+        return Mono.defer(() -> post(peers.get((range + attempt.getAndIncrement()) % peers.size()), header, rows, query))
+                .retryWhen(Retry.max(attempts - 1)
+                        .filter(e -> !(e instanceof IllegalArgumentException))
+                        .doBeforeRetry(signal -> {
+                            retries.increment();
+                            log.warn("Range {} failed, sending it to the next peer - {}", range, signal.failure().toString());
+                        })
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()))
+                .toFuture();
+    }
+
+    private Mono<EnrichedRange> post(String peer, byte[] header, byte[] rows, String query) {
+        return client.headers(headers -> headers.set(HttpHeaderNames.CONTENT_LENGTH, header.length + rows.length))
+                .post()
+                .uri(peer + query)
+                // a new buffer for every attempt, the sent one is released by Netty
+                .send(Mono.fromSupplier(() -> Unpooled.wrappedBuffer(header, rows)))
+                .responseSingle((response, content) -> {
+                    if (HttpResponseStatus.BAD_REQUEST.equals(response.status())) {
+                        return content.asString()
+                                .defaultIfEmpty("")
+                                .flatMap(message -> Mono.error(new IllegalArgumentException(peer + " rejected a range: " + message)));
+                    }
+                    if (!HttpResponseStatus.OK.equals(response.status())) {
+                        return Mono.error(new IllegalStateException(peer + " responded with " + response.status()));
+                    }
+                    return content.asByteArray()
+                            .defaultIfEmpty(new byte[0])
+                            .zipWith(response.trailerHeaders(), (enriched, trailers) -> new EnrichedRange(enriched, trailers(trailers)));
+                });
+    }
+
+    private static Map<String, String> trailers(HttpHeaders headers) {
+        var trailers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        headers.forEach(header -> trailers.put(header.getKey(), header.getValue()));
+        return trailers;
+    }
+
+    /**
+     * Writes the enriched rows of a range without the header written by the peer
+     */
+    @SneakyThrows
+    private static void write(CompletableFuture<EnrichedRange> pending, OutputStream output, RejectionReport report) {
+        EnrichedRange range;
+        try {
+            range = pending.join();
+        } catch (CompletionException e) {
+            throw e.getCause();
+        }
+        var enriched = range.enriched;
+        var headerEnd = 0;
+        while (headerEnd < enriched.length && enriched[headerEnd++] != NEW_LINE) ;
+        output.write(enriched, headerEnd, enriched.length - headerEnd);
+        report.merge(range.trailers);
+    }
+
+    @RequiredArgsConstructor
+    @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+    private static final class EnrichedRange {
+        byte[] enriched;
+        Map<String, String> trailers;
+    }
+}
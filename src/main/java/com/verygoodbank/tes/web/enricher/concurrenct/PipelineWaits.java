@@ -0,0 +1,17 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Wait strategies of one enrichment, see {@link WaitStrategies}
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@RequiredArgsConstructor
+@Getter
+final class PipelineWaits {
+    WaitStrategy dispatcher;
+    WaitStrategy sender;
+}
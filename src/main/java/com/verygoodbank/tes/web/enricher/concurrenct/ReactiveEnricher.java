@@ -0,0 +1,174 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import com.verygoodbank.tes.web.enricher.EnrichmentMetrics;
+import com.verygoodbank.tes.web.enricher.RejectionReport;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCountUtil;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.verygoodbank.tes.web.enricher.concurrenct.ChunkDispatcher.NOT_FOUND;
+
+/**
+ * Non-blocking variant of the streaming pipeline. The input is a flow of buffers (the body of a Reactor Netty request),
+ * it's cut into chunks of complete rows the same way {@link ChunkDispatcher} cuts a stream, chunks are enriched by the shared
+ * workers and enriched buffers are emitted when the subscriber asks for them.
+ * <p>
+ * Nothing waits on a thread. At most {@code concurrency} chunks are being enriched or wait to be taken - a slow reader
+ * stops asking for buffers, so no more chunks are cut and no more input is requested and the upload pauses in the socket.
+ * Buffers come from the allocator (pooled), cut input is released once it's enriched and emitted buffers by the subscriber.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@RequiredArgsConstructor
+class ReactiveEnricher {
+
+    private static final int INPUT_PREFETCH = 2;
+
+    Scheduler workers;
+    ByteBufAllocator allocator;
+    RowEnricher rowEnricher;
+    RejectionReport report;
+    EnrichmentMetrics metrics;
+    int chunkSize;
+    int concurrency;
+    boolean preserveOrder;
+
+    Flux<ByteBuf> enrich(Flux<ByteBuf> trades) {
+        return Flux.defer(() -> {
+                    var start = metrics.enrichmentStarted();
+                    var cutter = new RowCutter();
+                    var chunks = trades.concatMapIterable(cutter::cut, INPUT_PREFETCH)
+                            .concatWith(Mono.fromSupplier(cutter::finish))
+                            .doFinally(signal -> cutter.release());
+                    var enriched = preserveOrder
+                            ? chunks.flatMapSequential(this::enrichOnWorker, concurrency, 1)
+                            : chunks.flatMap(this::enrichOnWorker, concurrency, 1);
+                    return enriched.startWith(Unpooled.wrappedBuffer(Sender.header()))
+                            .doFinally(signal -> metrics.enrichmentFinished(start, report));
+                })
+                .doOnDiscard(CutRows.class, CutRows::release)
+                .doOnDiscard(ByteBuf.class, ReferenceCountUtil::safeRelease);
+    }
+
+    private Mono<ByteBuf> enrichOnWorker(CutRows rows) {
+        return Mono.fromCallable(() -> enrich(rows)).subscribeOn(workers);
+    }
+
+    private ByteBuf enrich(CutRows rows) {
+        var outputSize = ChunkProcessor.outputBufferSize(chunkSize);
+        var output = allocator.heapBuffer(outputSize, outputSize);
+        try {
+            var start = System.nanoTime();
+            var input = rows.buffer;
+            // views share the memory of the buffers, indexes of the input start at 0 as the row enricher needs it
+            var inputBuffer = input.nioBuffer(0, input.writerIndex()).position(input.readerIndex());
+            var outputBuffer = output.nioBuffer(0, outputSize);
+            var rejections = new ChunkRejections();
+            var enrichedRows = rowEnricher.enrich(inputBuffer, outputBuffer, rejections, rows.quoted, rows.endOfInput);
+            metrics.chunkEnriched(enrichedRows, System.nanoTime() - start);
+            metrics.bytesWritten(outputBuffer.position());
+            rejections.mergeInto(report);
+            return output.writerIndex(outputBuffer.position());
+        } catch (RuntimeException e) {
+            output.release();
+            throw e;
+        } finally {
+            rows.release();
+        }
+    }
+
+    /**
+     * Complete rows of one chunk, from the reader to the writer index of the buffer
+     */
+    @RequiredArgsConstructor
+    @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+    private static final class CutRows {
+        ByteBuf buffer;
+        boolean quoted;
+        boolean endOfInput;
+
+        void release() {
+            ReferenceCountUtil.safeRelease(buffer);
+        }
+    }
+
+    /**
+     * Collects input into a chunk and cuts it once it's full - complete rows go on, the incomplete last row is carried over
+     * to the next chunk. Called by one subscriber at a time, the lock only guards the release on cancellation
+     */
+    private final class RowCutter {
+
+        private ByteBuf pending = allocator.heapBuffer(chunkSize, chunkSize);
+        private boolean first = true;
+        private boolean quoted;
+        private long bytesRead;
+
+        /**
+         * Releases the data once it's cut. If cutting fails, the data is left to the discard hook of the flow
+         */
+        synchronized List<CutRows> cut(ByteBuf data) {
+            bytesRead += data.readableBytes();
+            var cut = new ArrayList<CutRows>(1);
+            while (data.isReadable()) {
+                pending.writeBytes(data, Math.min(data.readableBytes(), pending.writableBytes()));
+                if (!pending.isWritable()) {
+                    var rows = cut(false);
+                    if (rows != null) {
+                        cut.add(rows);
+                    }
+                }
+            }
+            data.release();
+            return cut;
+        }
+
+        /**
+         * @return rows left at the end of the input, the last one doesn't have to end with a new line, null if there are none
+         */
+        synchronized CutRows finish() {
+            return cut(true);
+        }
+
+        synchronized void release() {
+            if (pending != null) {
+                pending.release();
+                pending = null;
+            }
+            metrics.bytesRead(bytesRead);
+            bytesRead = 0;
+        }
+
+        private CutRows cut(boolean endOfInput) {
+            var full = pending;
+            var length = full.writerIndex();
+            var buffer = full.nioBuffer(0, length);
+            // every chunk starts with a row, so the rows before the first quote were cut right
+            quoted = quoted || QuotedRows.containsQuote(buffer, 0, length);
+            var rowsStart = first ? ChunkDispatcher.headerEnd(buffer, length, quoted, endOfInput) : 0;
+            var rowsEnd = endOfInput ? length : ChunkDispatcher.lastRowEnd(buffer, rowsStart, length, quoted);
+            if (rowsEnd == NOT_FOUND && rowsStart > 0) {
+                // the first row after the header doesn't fit into what's left of the first chunk
+                rowsEnd = rowsStart;
+            }
+            if (rowsStart == NOT_FOUND || rowsEnd == NOT_FOUND) {
+                throw new IllegalArgumentException("Row longer than the chunk size of " + chunkSize + " bytes");
+            }
+            first = false;
+            pending = endOfInput ? null : allocator.heapBuffer(chunkSize, chunkSize).writeBytes(full, rowsEnd, length - rowsEnd);
+            if (rowsStart == rowsEnd) {
+                full.release();
+                return null;
+            }
+            return new CutRows(full.setIndex(rowsStart, rowsEnd), quoted, endOfInput);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Reorder stage placed in front of the {@link Sender}. Chunks are released in the order of their sequence numbers.
+ * <p>
+ * Buffering is bounded by the window size - a chunk which is more than {@code window} chunks ahead of the next one
+ * to be sent waits until the slow chunk is released, so memory usage doesn't depend on how long one chunk takes.
+ * There is no dedicated thread, whoever completes the next expected chunk drains all consecutive ready slots.
+ * Waiting for the window uses the same wait strategy as the {@link Sender}.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+class ReorderBuffer implements ChunkSink {
+
+    private static final long EMPTY = -1;
+
+    Sender sender;
+    int window;
+    ByteBuffer[] slots;
+    AtomicLongArray slotSequences;
+    AtomicLong nextSequence = new AtomicLong();
+    AtomicBoolean draining = new AtomicBoolean(false);
+    WaitStrategy waitStrategy;
+
+    public ReorderBuffer(Sender sender, int window, int slotCapacity, WaitStrategy waitStrategy) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Reorder window must be positive, got: " + window);
+        }
+        this.sender = sender;
+        this.window = window;
+        this.waitStrategy = waitStrategy;
+        this.slots = new ByteBuffer[window];
+        this.slotSequences = new AtomicLongArray(window);
+        for (int i = 0; i < window; i++) {
+            slots[i] = ByteBuffer.allocate(slotCapacity);
+            slotSequences.set(i, EMPTY);
+        }
+    }
+
+    @Override
+    public void send(long sequence, ByteBuffer buffer) {
+        var attempt = 0;
+        while (sequence - nextSequence.get() >= window) {
+            attempt = waitStrategy.idle(attempt);
+        }
+
+        var slot = slotOf(sequence);
+        var slotBuffer = slots[slot];
+        slotBuffer.clear();
+        slotBuffer.put(buffer);
+        slotBuffer.flip();
+        slotSequences.set(slot, sequence);
+
+        drain();
+    }
+
+    /**
+     * Sends all consecutive ready chunks. The outer loop re-checks the head after releasing the flag, otherwise
+     * a chunk deposited while another thread was finishing the drain could be left behind.
+     */
+    private void drain() {
+        while (isReady(nextSequence.get()) && draining.compareAndSet(false, true)) {
+            try {
+                long next;
+                while (isReady(next = nextSequence.get())) {
+                    try {
+                        sender.sendBuffer(slots[slotOf(next)]);
+                    } finally {
+                        // a failed write fails the enrichment, the chunks waiting for the window mustn't wait forever
+                        nextSequence.set(next + 1);
+                    }
+                }
+            } finally {
+                draining.set(false);
+                waitStrategy.signal();
+            }
+        }
+    }
+
+    private boolean isReady(long sequence) {
+        return slotSequences.get(slotOf(sequence)) == sequence;
+    }
+
+    private int slotOf(long sequence) {
+        return (int) (sequence % window);
+    }
+}
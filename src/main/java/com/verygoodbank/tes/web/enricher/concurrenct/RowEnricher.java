@@ -0,0 +1,308 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import com.verygoodbank.tes.web.enricher.ColumnValidator;
+import com.verygoodbank.tes.web.enricher.RejectionReport;
+import com.verygoodbank.tes.web.enricher.RejectionReport.Reason;
+import com.verygoodbank.tes.web.enricher.ValidationRules;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+
+import java.nio.ByteBuffer;
+
+import static com.verygoodbank.tes.web.enricher.concurrenct.ChunkDispatcher.COLUMN_NAMES;
+import static com.verygoodbank.tes.web.enricher.concurrenct.ChunkDispatcher.NEW_LINE;
+
+/**
+ * Parses and enriches rows of one buffer. Doesn't know where the buffer comes from -
+ * a pooled chunk of a stream or a slice of a memory mapped file.
+ * <p>
+ * Rows end with {@code \n} or {@code \r\n}, enriched rows always with {@code \n} (the same as the serial engine writes them).
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@RequiredArgsConstructor
+final class RowEnricher {
+
+    private static final ByteBuffer DEFAULT_PRODUCT_NAME = ByteBuffer.wrap("Missing Product Name".getBytes()).asReadOnlyBuffer();
+    private static final int REQUIRED_VALUES = COLUMN_NAMES.length;
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final byte COMMA = ',';
+    private static final byte QUOTE = '"';
+    private static final Reason[] REASONS = Reason.values();
+    private static final int INITIAL_FIELDS_CAPACITY = 256;
+
+    BytesProductNameResolver productNameResolver;
+    RejectionReport report;
+    RowScanner rowScanner;
+    ValidationRules rules;
+
+    /**
+     * Enriches all complete rows of the buffer, from its position to the limit, into the output buffer.
+     * Indexes are absolute, so the buffer has to start at index 0 (a pooled chunk or a slice)
+     *
+     * @param quoted     the input has quoted fields, see {@link QuotedRows}
+     * @param endOfInput bytes after the last new line are the last row of the input, not a row cut by the end of the buffer
+     * @return number of enriched rows
+     */
+    int enrich(ByteBuffer buffer, ByteBuffer outputBuffer, ChunkRejections rejections, boolean quoted, boolean endOfInput) {
+        var rejectedBefore = rejections.rejectedRows();
+        var rows = quoted
+                ? enrichQuoted(buffer, outputBuffer, rejections, endOfInput)
+                : enrichSimple(buffer, outputBuffer, rejections, endOfInput);
+        return (int) (rows - (rejections.rejectedRows() - rejectedBefore));
+    }
+
+    /**
+     * The output is the input with product ids replaced and bad rows left out, so rows aren't copied one by one -
+     * the input between two product ids (rest of a row, the next date) is copied with one bulk copy
+     * and only bad rows, product ids and rows not ending with a single {@code \n} break the run. Every output byte is copied once.
+     *
+     * @return number of rows which aren't empty
+     */
+    private int enrichSimple(ByteBuffer buffer, ByteBuffer outputBuffer, ChunkRejections rejections, boolean endOfInput) {
+        // columns are contiguous, so the commas after the first three are enough to find all four
+        int dateEndIndex = -1;
+        int productIdEndIndex = -1;
+        int currencyEndIndex = -1;
+
+        var limit = buffer.limit();
+        var values = 0;
+        var index = buffer.position();
+        var rowStartIndex = index;
+        var copiedUpTo = index;
+        var rows = 0;
+        int delimiterIndex;
+        while ((delimiterIndex = rowScanner.nextDelimiter(buffer, index, limit)) < limit) {
+            index = delimiterIndex + 1;
+            if (buffer.get(delimiterIndex) == NEW_LINE) {
+                var lineEndIndex = lineEnd(buffer, rowStartIndex, index);
+                if (lineEndIndex > rowStartIndex) {
+                    rows++;
+                }
+                copiedUpTo = enrichRow(copiedUpTo, rowStartIndex, lineEndIndex, index, values, dateEndIndex, productIdEndIndex,
+                        currencyEndIndex, buffer, outputBuffer, rejections);
+                values = 0;
+                rowStartIndex = index;
+            } else {
+                values++;
+                if (values == 1) {
+                    dateEndIndex = delimiterIndex;
+                } else if (values == 2) {
+                    productIdEndIndex = delimiterIndex;
+                } else if (values == 3) {
+                    currencyEndIndex = delimiterIndex;
+                }
+            }
+        }
+        if (endOfInput && rowStartIndex < limit) {
+            var lineEndIndex = lineEnd(buffer, rowStartIndex, limit);
+            if (lineEndIndex > rowStartIndex) {
+                rows++;
+            }
+            copiedUpTo = enrichRow(copiedUpTo, rowStartIndex, lineEndIndex, limit, values, dateEndIndex, productIdEndIndex,
+                    currencyEndIndex, buffer, outputBuffer, rejections);
+            rowStartIndex = limit;
+        }
+        buffer.position(limit);
+        // an incomplete last row isn't enriched
+        copy(buffer, copiedUpTo, rowStartIndex, outputBuffer);
+        return rows;
+    }
+
+    /**
+     * Every row is parsed on its own - fields are unquoted into a small buffer, validated and copied from there.
+     * Fields are quoted again where they need it, see {@link #copyField}
+     *
+     * @return number of rows which aren't empty
+     */
+    private int enrichQuoted(ByteBuffer buffer, ByteBuffer outputBuffer, ChunkRejections rejections, boolean endOfInput) {
+        var limit = buffer.limit();
+        var rowStartIndex = buffer.position();
+        var fields = ByteBuffer.allocate(INITIAL_FIELDS_CAPACITY);
+        var delimiters = new int[REQUIRED_VALUES - 1];
+        var rows = 0;
+        while (rowStartIndex < limit) {
+            var rowEndIndex = QuotedRows.rowEnd(buffer, rowStartIndex, limit);
+            if (rowEndIndex == QuotedRows.NOT_FOUND) {
+                if (!endOfInput) {
+                    // an incomplete last row isn't enriched
+                    break;
+                }
+                rowEndIndex = limit;
+            }
+            var lineEndIndex = lineEnd(buffer, rowStartIndex, rowEndIndex);
+            if (fields.capacity() < lineEndIndex - rowStartIndex) {
+                fields = ByteBuffer.allocate(Math.max(lineEndIndex - rowStartIndex, fields.capacity() * 2));
+            }
+            var values = QuotedRows.unquote(buffer, rowStartIndex, lineEndIndex, fields, delimiters);
+            if (values == REQUIRED_VALUES) {
+                rows++;
+                var id = checkRow(fields, 0, delimiters[0], delimiters[1], delimiters[2], fields.limit());
+                if (id < 0) {
+                    reject(reasonOf(id), buffer, rowStartIndex, lineEndIndex, rejections);
+                } else {
+                    // the date and the product id are digits, the currency and the price can be anything with lenient rules
+                    copy(fields, 0, delimiters[0] + 1, outputBuffer);
+                    appendName(id, outputBuffer, rejections);
+                    outputBuffer.put(COMMA);
+                    copyField(fields, delimiters[1] + 1, delimiters[2], outputBuffer);
+                    outputBuffer.put(COMMA);
+                    copyField(fields, delimiters[2] + 1, fields.limit(), outputBuffer);
+                    outputBuffer.put((byte) NEW_LINE);
+                }
+            } else if (values > 1 || fields.hasRemaining()) {
+                rows++;
+                reject(Reason.INVALID_COLUMN_COUNT, buffer, rowStartIndex, lineEndIndex, rejections);
+            }
+            rowStartIndex = rowEndIndex;
+        }
+        buffer.position(limit);
+        return rows;
+    }
+
+    /**
+     * @return index up to which the input is copied or skipped - the rest of a row ending with a single {@code \n},
+     * from the comma after the product id, is left for the next bulk copy
+     */
+    private int enrichRow(int copiedUpTo, int rowStartIndex, int lineEndIndex, int rowEndIndex, int values, int dateEndIndex,
+                          int productIdEndIndex, int currencyEndIndex, ByteBuffer buffer, ByteBuffer outputBuffer, ChunkRejections rejections) {
+        if (values != REQUIRED_VALUES - 1) {
+            if (lineEndIndex > rowStartIndex) {
+                reject(Reason.INVALID_COLUMN_COUNT, buffer, rowStartIndex, lineEndIndex, rejections);
+            }
+            return skipRow(copiedUpTo, rowStartIndex, rowEndIndex, buffer, outputBuffer);
+        }
+        var id = checkRow(buffer, rowStartIndex, dateEndIndex, productIdEndIndex, currencyEndIndex, lineEndIndex);
+        if (id < 0) {
+            reject(reasonOf(id), buffer, rowStartIndex, lineEndIndex, rejections);
+            return skipRow(copiedUpTo, rowStartIndex, rowEndIndex, buffer, outputBuffer);
+        }
+
+        // the date together with the comma after it
+        copy(buffer, copiedUpTo, dateEndIndex + 1, outputBuffer);
+        appendName(id, outputBuffer, rejections);
+        if (rowEndIndex - lineEndIndex == 1 && buffer.get(lineEndIndex) == NEW_LINE) {
+            return productIdEndIndex;
+        }
+        // \r\n or the last row of the input without a line ending
+        copy(buffer, productIdEndIndex, lineEndIndex, outputBuffer);
+        outputBuffer.put((byte) NEW_LINE);
+        return rowEndIndex;
+    }
+
+    /**
+     * All columns are validated before anything of the row is copied, in the same order as the serial engine does it
+     *
+     * @return product id of a valid row, otherwise a negative code of the first broken rule, see {@link #reasonOf(long)}
+     */
+    private long checkRow(ByteBuffer buffer, int rowStartIndex, int dateEndIndex, int productIdEndIndex, int currencyEndIndex, int lineEndIndex) {
+        var limit = buffer.limit();
+        buffer.limit(dateEndIndex);
+        buffer.position(rowStartIndex);
+        var dateValid = rowScanner.isValidDate(buffer);
+        buffer.limit(limit);
+        if (!dateValid) {
+            return rejectionCode(Reason.INVALID_DATE);
+        }
+        var id = rowScanner.productId(buffer, dateEndIndex + 1, productIdEndIndex);
+        if (id == ColumnValidator.INVALID_PRODUCT_ID) {
+            return rejectionCode(Reason.INVALID_PRODUCT_ID);
+        }
+        if (!rules.isValidCurrency(buffer, productIdEndIndex + 1, currencyEndIndex)) {
+            return rejectionCode(Reason.INVALID_CURRENCY);
+        }
+        if (!rules.isValidPrice(buffer, currencyEndIndex + 1, lineEndIndex)) {
+            return rejectionCode(Reason.INVALID_PRICE);
+        }
+        return id;
+    }
+
+    private static long rejectionCode(Reason reason) {
+        return -1L - reason.ordinal();
+    }
+
+    private static Reason reasonOf(long rejectionCode) {
+        return REASONS[(int) (-1L - rejectionCode)];
+    }
+
+    /**
+     * @return end of the row without its line ending, {@code \n} or {@code \r\n}
+     */
+    private static int lineEnd(ByteBuffer buffer, int rowStartIndex, int rowEndIndex) {
+        var lineEndIndex = rowEndIndex;
+        if (lineEndIndex > rowStartIndex && buffer.get(lineEndIndex - 1) == NEW_LINE) {
+            lineEndIndex--;
+        }
+        if (lineEndIndex > rowStartIndex && buffer.get(lineEndIndex - 1) == CARRIAGE_RETURN) {
+            lineEndIndex--;
+        }
+        return lineEndIndex;
+    }
+
+    /**
+     * Copies the pending input in front of the row and skips the row including its new line
+     */
+    private static int skipRow(int copiedUpTo, int rowStartIndex, int rowEndIndex, ByteBuffer buffer, ByteBuffer outputBuffer) {
+        copy(buffer, copiedUpTo, rowStartIndex, outputBuffer);
+        return rowEndIndex;
+    }
+
+    private static void copy(ByteBuffer buffer, int from, int to, ByteBuffer outputBuffer) {
+        var length = to - from;
+        if (length > 0) {
+            var position = outputBuffer.position();
+            outputBuffer.put(position, buffer, from, length);
+            outputBuffer.position(position + length);
+        }
+    }
+
+    /**
+     * Copies an unquoted field, a field with a comma, a quote or a line break is quoted with its quotes doubled - the same
+     * as the serial engine writes it
+     */
+    private static void copyField(ByteBuffer fields, int from, int to, ByteBuffer outputBuffer) {
+        var needsQuotes = false;
+        for (int i = from; i < to && !needsQuotes; i++) {
+            var b = fields.get(i);
+            needsQuotes = b == COMMA || b == QUOTE || b == NEW_LINE || b == CARRIAGE_RETURN;
+        }
+        if (!needsQuotes) {
+            copy(fields, from, to, outputBuffer);
+            return;
+        }
+        outputBuffer.put(QUOTE);
+        for (int i = from; i < to; i++) {
+            var b = fields.get(i);
+            if (b == QUOTE) {
+                outputBuffer.put(QUOTE);
+            }
+            outputBuffer.put(b);
+        }
+        outputBuffer.put(QUOTE);
+    }
+
+    private void appendName(long id, ByteBuffer outputBuffer, ChunkRejections rejections) {
+        if (!productNameResolver.appendName(id, outputBuffer)) {
+            rejections.missingProduct(id);
+            appendDefaultProductName(outputBuffer);
+        }
+    }
+
+    /**
+     * Counts the row locally, only the first few rows of the request are copied as samples
+     */
+    private void reject(Reason reason, ByteBuffer buffer, int rowStartIndex, int rowEndIndex, ChunkRejections rejections) {
+        rejections.reject(reason);
+        if (report.wantsSample()) {
+            var row = new byte[rowEndIndex - rowStartIndex];
+            buffer.get(rowStartIndex, row);
+            report.sample(reason, new String(row));
+        }
+    }
+
+    private static void appendDefaultProductName(ByteBuffer outputBuffer) {
+        var position = outputBuffer.position();
+        outputBuffer.put(position, DEFAULT_PRODUCT_NAME, 0, DEFAULT_PRODUCT_NAME.limit());
+        outputBuffer.position(position + DEFAULT_PRODUCT_NAME.limit());
+    }
+}
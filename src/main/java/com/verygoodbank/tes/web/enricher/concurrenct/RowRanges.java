@@ -0,0 +1,109 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.experimental.FieldDefaults;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.verygoodbank.tes.web.enricher.concurrenct.ChunkDispatcher.NOT_FOUND;
+
+/**
+ * Reads an input as ranges of complete rows, cut the same way {@link ChunkDispatcher} cuts chunks - at the last new line
+ * of the range, once a quote shows up a new line inside a quoted field doesn't end a row. Used where an input is handed
+ * over in pieces larger than a chunk, to peer instances or as a unit of a checkpoint.
+ * <p>
+ * The header (the first row) isn't part of any range, it's kept aside. An input can be read in several parts -
+ * a reader of a later part starts with the header and the quoting found by the reader of the earlier ones. An incomplete
+ * row at the end of a part which isn't the last one isn't cut, it's read again with the next part.
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class RowRanges {
+
+    final InputStream input;
+    final int rangeSize;
+    final boolean lastPart;
+    final byte[] buffer;
+    @Getter
+    byte[] header;
+    @Getter
+    boolean quoted;
+    int length;
+    /**
+     * Number of bytes of the input cut so far - the header and the returned ranges
+     */
+    @Getter
+    long offset;
+    boolean endOfPart;
+
+    public RowRanges(InputStream input, int rangeSize) {
+        this(input, rangeSize, true, null, false);
+    }
+
+    /**
+     * @param lastPart true if the input ends with this part
+     * @param header   header of the input read by an earlier reader, null if the input starts with it
+     * @param quoted   true if an earlier part of the input has a quote
+     */
+    public RowRanges(InputStream input, int rangeSize, boolean lastPart, byte[] header, boolean quoted) {
+        this.input = input;
+        this.rangeSize = rangeSize;
+        this.lastPart = lastPart;
+        this.buffer = new byte[rangeSize];
+        this.header = header;
+        this.quoted = quoted;
+    }
+
+    /**
+     * Reads until the next range is complete. The last range of the last part doesn't have to end with a new line
+     *
+     * @return complete rows of the next range without the header, null at the end of the input
+     * @throws IllegalArgumentException if a row doesn't fit into the range size
+     */
+    public byte[] next() throws IOException {
+        while (!endOfPart) {
+            length += input.readNBytes(buffer, length, rangeSize - length);
+            endOfPart = length < rangeSize;
+            var endOfInput = endOfPart && lastPart;
+            var view = ByteBuffer.wrap(buffer);
+            // every range starts with a row, so the rows before the first quote were cut right
+            quoted = quoted || QuotedRows.containsQuote(view, 0, length);
+            var rowsStart = 0;
+            if (header == null) {
+                rowsStart = ChunkDispatcher.headerEnd(view, length, quoted, endOfInput);
+                if (rowsStart == NOT_FOUND && endOfPart) {
+                    // the rest of the header comes with the next part
+                    return null;
+                }
+                if (rowsStart == NOT_FOUND) {
+                    throw rowTooLong();
+                }
+                header = Arrays.copyOf(buffer, rowsStart);
+            }
+            var rowsEnd = endOfInput ? length : ChunkDispatcher.lastRowEnd(view, rowsStart, length, quoted);
+            if (rowsEnd == NOT_FOUND && (rowsStart > 0 || endOfPart)) {
+                // the first row after the header doesn't fit into what's left of the first range
+                // or the only row of the part continues in the next part
+                rowsEnd = rowsStart;
+            }
+            if (rowsEnd == NOT_FOUND) {
+                throw rowTooLong();
+            }
+            var rows = Arrays.copyOfRange(buffer, rowsStart, rowsEnd);
+            System.arraycopy(buffer, rowsEnd, buffer, 0, length - rowsEnd);
+            length -= rowsEnd;
+            offset += rowsEnd;
+            if (rows.length > 0) {
+                return rows;
+            }
+        }
+        return null;
+    }
+
+    private IllegalArgumentException rowTooLong() {
+        return new IllegalArgumentException("Row longer than the range size of " + rangeSize + " bytes");
+    }
+}
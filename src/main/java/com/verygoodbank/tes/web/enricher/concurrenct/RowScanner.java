@@ -0,0 +1,101 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import com.verygoodbank.tes.web.enricher.ColumnValidator;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import static com.verygoodbank.tes.web.enricher.concurrenct.ChunkDispatcher.NEW_LINE;
+
+/**
+ * Byte-level primitives of the row parser. {@link #SWAR} looks at 8 bytes per step, {@link #SCALAR} at one byte
+ * and stays as the reference implementation - both give exactly the same results for any input.
+ * Selected with the {@code row-scanner} property.
+ */
+enum RowScanner {
+    SCALAR {
+        @Override
+        int nextDelimiter(ByteBuffer buffer, int from, int limit) {
+            return scalarNextDelimiter(buffer, from, limit);
+        }
+
+        @Override
+        long productId(ByteBuffer buffer, int from, int to) {
+            return ColumnValidator.productId(buffer, from, to);
+        }
+
+        @Override
+        boolean isValidDate(ByteBuffer date) {
+            return DateValidator.validate(date);
+        }
+    },
+    SWAR {
+        @Override
+        int nextDelimiter(ByteBuffer buffer, int from, int limit) {
+            var index = from;
+            while (index + Swar.WORD_BYTES <= limit) {
+                var word = Swar.getLong(buffer, index);
+                var delimiters = Swar.matches(word, COMMAS) | Swar.matches(word, NEW_LINES);
+                if (delimiters != 0) {
+                    return index + Swar.firstMatch(delimiters);
+                }
+                index += Swar.WORD_BYTES;
+            }
+            return scalarNextDelimiter(buffer, index, limit);
+        }
+
+        /**
+         * Ids up to 8 digits with 8 readable bytes from the start of the id are parsed as one word,
+         * anything else (longer ids, end of the buffer, not a number) byte by byte by {@link ColumnValidator}
+         */
+        @Override
+        long productId(ByteBuffer buffer, int from, int to) {
+            var length = to - from;
+            if (length > 0 && length <= Swar.WORD_BYTES && from + Swar.WORD_BYTES <= buffer.limit()) {
+                var word = Swar.alignDigits(Swar.getLong(buffer, from), length);
+                if (Swar.isDigits(word)) {
+                    return Swar.parseEightDigits(word);
+                }
+            }
+            return ColumnValidator.productId(buffer, from, to);
+        }
+
+        @Override
+        boolean isValidDate(ByteBuffer date) {
+            return DateValidator.validateSwar(date);
+        }
+    };
+
+    private static final byte COMMA = ',';
+    private static final long COMMAS = Swar.broadcast(COMMA);
+    private static final long NEW_LINES = Swar.broadcast((byte) NEW_LINE);
+
+    /**
+     * @return index of the first comma or new line from {@code from}, {@code limit} if there is none
+     */
+    abstract int nextDelimiter(ByteBuffer buffer, int from, int limit);
+
+    /**
+     * @return the product id, {@link ColumnValidator#INVALID_PRODUCT_ID} if the column isn't 1 - 18 digits
+     */
+    abstract long productId(ByteBuffer buffer, int from, int to);
+
+    /**
+     * @param date buffer with the position and the limit set to the date column
+     */
+    abstract boolean isValidDate(ByteBuffer date);
+
+    static RowScanner of(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    private static int scalarNextDelimiter(ByteBuffer buffer, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            var b = buffer.get(i);
+            if (b == COMMA || b == NEW_LINE) {
+                return i;
+            }
+        }
+        return limit;
+    }
+}
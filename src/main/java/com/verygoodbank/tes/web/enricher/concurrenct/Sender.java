@@ -1,10 +1,12 @@
 package com.verygoodbank.tes.web.enricher.concurrenct;
 
+import com.verygoodbank.tes.web.enricher.EnrichmentMetrics;
 import lombok.AccessLevel;
 import lombok.SneakyThrows;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
@@ -13,36 +15,77 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
 @Slf4j
-class Sender {
+class Sender implements ChunkSink {
 
     private static final String[] HEADER = {"date", "product_name", "currency", "price"};
 
+    OutputStream outputStream;
     WritableByteChannel writableByteChannel;
     AtomicBoolean sending = new AtomicBoolean(false);
+    WaitStrategy waitStrategy;
+    EnrichmentMetrics metrics;
 
-    public Sender(OutputStream outputStream) {
+    public Sender(OutputStream outputStream, WaitStrategy waitStrategy, EnrichmentMetrics metrics) {
+        this.outputStream = outputStream;
         this.writableByteChannel = Channels.newChannel(outputStream);
+        this.waitStrategy = waitStrategy;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void send(long sequence, ByteBuffer buffer) {
+        sendBuffer(buffer);
     }
 
     @SneakyThrows
     public void sendBuffer(ByteBuffer buffer) {
         lock();
-        writableByteChannel.write(buffer);
-        unlock();
+        try {
+            write(buffer);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Heap buffers are written straight from their array. A channel over a stream would copy them
+     * into its own transfer array first
+     */
+    private void write(ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            writableByteChannel.write(buffer);
+        }
     }
 
     private void unlock() {
         sending.set(false);
+        waitStrategy.signal();
     }
 
-    @SuppressWarnings("StatementWithEmptyBody")
+    /**
+     * Time is measured only when the lock is contended, an uncontended lock is a single CAS
+     */
     private void lock() {
-        while (!sending.compareAndSet(false, true)) ;
+        if (sending.compareAndSet(false, true)) {
+            return;
+        }
+        var start = System.nanoTime();
+        var attempt = 0;
+        while (!sending.compareAndSet(false, true)) {
+            attempt = waitStrategy.idle(attempt);
+        }
+        metrics.senderWaited(System.nanoTime() - start);
     }
 
     @SneakyThrows
     public void writeHeader() {
-        var header = String.join(",", HEADER) + System.lineSeparator();
-        writableByteChannel.write(ByteBuffer.wrap(header.getBytes()));
+        writableByteChannel.write(ByteBuffer.wrap(header()));
+    }
+
+    static byte[] header() {
+        return (String.join(",", HEADER) + System.lineSeparator()).getBytes();
     }
 }
@@ -0,0 +1,32 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spins, then yields and finally parks for a fixed time on every attempt. Idle threads cost almost no CPU,
+ * at the price of up to {@code parkNanos} latency once the thread got parked
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@RequiredArgsConstructor
+final class SpinThenParkWaitStrategy implements WaitStrategy {
+
+    int spins;
+    int yields;
+    long parkNanos;
+
+    @Override
+    public int idle(int attempt) {
+        if (attempt < spins) {
+            Thread.onSpinWait();
+        } else if (attempt < spins + yields) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(parkNanos);
+        }
+        return attempt + 1;
+    }
+}
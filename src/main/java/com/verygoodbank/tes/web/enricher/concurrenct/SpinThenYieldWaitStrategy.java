@@ -0,0 +1,25 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Spins for a while, then gives the core away to other runnable threads on every attempt
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@RequiredArgsConstructor
+final class SpinThenYieldWaitStrategy implements WaitStrategy {
+
+    int spins;
+
+    @Override
+    public int idle(int attempt) {
+        if (attempt < spins) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+        return attempt + 1;
+    }
+}
@@ -0,0 +1,79 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * SIMD within a register - tests and parses 8 bytes of the input loaded as one little-endian long,
+ * so the first byte of the input is the lowest byte of the word. Works for heap, direct and mapped buffers alike.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class Swar {
+
+    static final int WORD_BYTES = Long.BYTES;
+
+    private static final VarHandle LONG_LE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long LOW_7_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long HIGH_NIBBLES = 0xF0F0F0F0F0F0F0F0L;
+    private static final long ZEROS = 0x3030303030303030L;
+    private static final long SIXES = 0x0606060606060606L;
+
+    /**
+     * @return word made of {@code value} in every byte, a pattern for {@link #matches(long, long)}
+     */
+    static long broadcast(byte value) {
+        return (value & 0xFFL) * 0x0101010101010101L;
+    }
+
+    /**
+     * The caller makes sure there are 8 bytes from the index to the limit
+     */
+    static long getLong(ByteBuffer buffer, int index) {
+        return (long) LONG_LE.get(buffer, index);
+    }
+
+    /**
+     * @return word with the highest bit set in every byte equal to the pattern byte, other bits are 0.
+     * Exact - unlike the common "has zero byte" trick there are no false positives after the first match
+     */
+    static long matches(long word, long pattern) {
+        var diff = word ^ pattern;
+        var zeroIfMatched = (diff & LOW_7_BITS) + LOW_7_BITS;
+        return ~(zeroIfMatched | diff | LOW_7_BITS);
+    }
+
+    /**
+     * @return index of the first byte marked by {@link #matches(long, long)}, the mask cannot be 0
+     */
+    static int firstMatch(long mask) {
+        return Long.numberOfTrailingZeros(mask) >>> 3;
+    }
+
+    static boolean isDigits(long word) {
+        return (word & HIGH_NIBBLES) == ZEROS && ((word + SIXES) & HIGH_NIBBLES) == ZEROS;
+    }
+
+    /**
+     * Replaces bytes after the first {@code length} ones with leading '0', so a shorter number can be parsed
+     * as 8 digits. Length has to be from 1 to 8
+     */
+    static long alignDigits(long word, int length) {
+        var missing = (WORD_BYTES - length) << 3;
+        return missing == 0 ? word : (word << missing) | (ZEROS >>> (Long.SIZE - missing));
+    }
+
+    /**
+     * Parses 8 ASCII digits checked by {@link #isDigits(long)} with three multiplications instead of eight
+     */
+    static int parseEightDigits(long word) {
+        var digits = word - ZEROS;
+        var pairs = (digits * 10 + (digits >>> 8)) & 0x00FF00FF00FF00FFL;
+        var quads = (pairs * 100 + (pairs >>> 16)) & 0x0000FFFF0000FFFFL;
+        return (int) (quads * 10_000 + (quads >>> 32));
+    }
+}
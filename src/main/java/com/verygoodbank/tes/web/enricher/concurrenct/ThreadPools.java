@@ -2,21 +2,81 @@ package com.verygoodbank.tes.web.enricher.concurrenct;
 
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
-import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
+@Slf4j
 final class ThreadPools {
 
-    public static ExecutorService chunkProcessorPool(int threads) {
-        return new ThreadPoolExecutor(threads, threads,
-                0L, TimeUnit.MILLISECONDS,
-                new ArrayBlockingQueue<>(200),
-                new BasicThreadFactory.Builder().namingPattern("chunk-pool-%d").build(),
-                new ThreadPoolExecutor.AbortPolicy());
+    private static final String SENDER_PREFIX = "chunk-sender-";
+
+    /**
+     * Runs a task which can block (a write to a slow client, a wait for the output lock or the reorder window) on the calling
+     * thread. On a worker of a {@link ForkJoinPool} it's a managed block - the pool starts a spare worker while it's blocked,
+     * so a stalled client doesn't hold the workers every other enrichment is waiting for. Other threads just run the task
+     */
+    public static final Executor MANAGED_BLOCKING = ThreadPools::managedBlock;
+
+    /**
+     * Work-stealing pool shared by all enrichments. Chunk tasks never fork, so the pool runs in the async (FIFO) mode -
+     * chunks are taken in the order they were submitted
+     */
+    public static ForkJoinPool chunkProcessorPool(int threads) {
+        return new ForkJoinPool(threads, pool -> {
+            var worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            worker.setName("chunk-pool-" + worker.getPoolIndex());
+            return worker;
+        }, null, true);
+    }
+
+    /**
+     * A thread per enriched chunk writing it to the output, so a slow client blocks its sender instead of a worker.
+     * Senders are virtual threads on Java 21+, looked up reflectively as the code is compiled for 17. Older runtimes get
+     * pooled platform threads - the number of senders is bounded by the chunks in flight anyway
+     */
+    public static ExecutorService senderPool() {
+        try {
+            var builder = Class.forName("java.lang.Thread$Builder");
+            var virtualBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+            var namedBuilder = builder.getMethod("name", String.class, long.class).invoke(virtualBuilder, SENDER_PREFIX, 0L);
+            var factory = (ThreadFactory) builder.getMethod("factory").invoke(namedBuilder);
+            log.info("Sending enriched chunks on virtual threads");
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Virtual threads need Java 21, running on {} - sending enriched chunks on platform threads", Runtime.version().feature());
+            var senders = new AtomicInteger();
+            return Executors.newCachedThreadPool(task -> {
+                var sender = new Thread(task, SENDER_PREFIX + senders.getAndIncrement());
+                sender.setDaemon(true);
+                return sender;
+            });
+        }
+    }
+
+    @SneakyThrows
+    private static void managedBlock(Runnable task) {
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            boolean done;
+
+            @Override
+            public boolean block() {
+                task.run();
+                done = true;
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return done;
+            }
+        });
     }
 }
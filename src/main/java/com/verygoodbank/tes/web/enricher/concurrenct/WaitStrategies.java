@@ -0,0 +1,87 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+/**
+ * Configured wait strategies of the concurrent pipeline. Every stage can wait in a different way:
+ * <ul>
+ *     <li>dispatcher - waits for a chunk returned to the pool and for the last chunks to be sent</li>
+ *     <li>sender - waits for the output lock and for the reorder window</li>
+ * </ul>
+ * Workers waiting for the next chunk are managed by the shared worker pool.
+ * Strategies are created per enrichment, so a blocking strategy only wakes up threads of the same request.
+ */
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+@Component
+@Lazy
+public class WaitStrategies {
+
+    static final int DEFAULT_SPINS = 100;
+    static final int DEFAULT_YIELDS = 10;
+    static final long DEFAULT_PARK_NANOS = 50_000;
+    static final long DEFAULT_BLOCK_NANOS = 1_000_000;
+
+    Type dispatcher;
+    Type sender;
+    int spins;
+    int yields;
+    long parkNanos;
+    long blockNanos;
+
+    @Autowired
+    public WaitStrategies(@Value("${wait-strategy.dispatcher:spin-then-park}") String dispatcher,
+                          @Value("${wait-strategy.sender:spin-then-park}") String sender,
+                          @Value("${wait-strategy.spins:" + DEFAULT_SPINS + "}") int spins,
+                          @Value("${wait-strategy.yields:" + DEFAULT_YIELDS + "}") int yields,
+                          @Value("${wait-strategy.park-nanos:" + DEFAULT_PARK_NANOS + "}") long parkNanos,
+                          @Value("${wait-strategy.block-nanos:" + DEFAULT_BLOCK_NANOS + "}") long blockNanos) {
+        this(Type.of(dispatcher), Type.of(sender), spins, yields, parkNanos, blockNanos);
+    }
+
+    WaitStrategies(Type dispatcher, Type sender, int spins, int yields, long parkNanos, long blockNanos) {
+        if (spins < 0 || yields < 0 || parkNanos <= 0 || blockNanos <= 0) {
+            throw new IllegalArgumentException("Spins and yields cannot be negative, park and block time must be positive");
+        }
+        this.dispatcher = dispatcher;
+        this.sender = sender;
+        this.spins = spins;
+        this.yields = yields;
+        this.parkNanos = parkNanos;
+        this.blockNanos = blockNanos;
+    }
+
+    /**
+     * The same strategy for all stages with default tuning
+     */
+    static WaitStrategies of(Type type) {
+        return new WaitStrategies(type, type, DEFAULT_SPINS, DEFAULT_YIELDS, DEFAULT_PARK_NANOS, DEFAULT_BLOCK_NANOS);
+    }
+
+    PipelineWaits newPipelineWaits() {
+        return new PipelineWaits(create(dispatcher), create(sender));
+    }
+
+    private WaitStrategy create(Type type) {
+        return switch (type) {
+            case BUSY_SPIN -> new BusySpinWaitStrategy();
+            case SPIN_THEN_YIELD -> new SpinThenYieldWaitStrategy(spins);
+            case SPIN_THEN_PARK -> new SpinThenParkWaitStrategy(spins, yields, parkNanos);
+            case BLOCKING -> new BlockingWaitStrategy(spins, blockNanos);
+        };
+    }
+
+    enum Type {
+        BUSY_SPIN, SPIN_THEN_YIELD, SPIN_THEN_PARK, BLOCKING;
+
+        static Type of(String name) {
+            return valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        }
+    }
+}
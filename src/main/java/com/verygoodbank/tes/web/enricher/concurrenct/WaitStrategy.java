@@ -0,0 +1,27 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+/**
+ * Decides how a pipeline stage waits until it can make progress (a chunk to poll, a free slot in the queue,
+ * the sender lock, ...). Meant to be used in a loop, the caller keeps the number of unsuccessful attempts:
+ * <pre>{@code
+ * int attempt = 0;
+ * while (!queue.offer(chunk)) {
+ *     attempt = waitStrategy.idle(attempt);
+ * }
+ * }</pre>
+ */
+interface WaitStrategy {
+
+    /**
+     * @param attempt number of consecutive unsuccessful attempts, starting from 0
+     * @return attempt number to pass on the next call
+     */
+    int idle(int attempt);
+
+    /**
+     * Called by the other side of the stage after making progress the waiting threads may be interested in.
+     * Only strategies which really block need it, for the others it's a no-op
+     */
+    default void signal() {
+    }
+}
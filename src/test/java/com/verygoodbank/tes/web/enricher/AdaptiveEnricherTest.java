@@ -0,0 +1,174 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.verygoodbank.tes.web.enricher.AdaptiveEnricher.Reason;
+import com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.verygoodbank.tes.web.enricher.TradeFixtures.HEADER;
+import static com.verygoodbank.tes.web.enricher.TradeFixtures.rows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AdaptiveEnricherTest {
+
+    private static final String LONG_PRICE = "1".repeat(2_000);
+    private static final EnrichmentOptions SMALL_CHUNKS = EnrichmentOptions.builder().chunkSize(1024).build();
+
+    @Test
+    void shouldEnrichRowsLongerThanAChunkWithTheSerialEngine() {
+        // GIVEN
+        var registry = new SimpleMeterRegistry();
+        var enricher = enricher(registry, AdaptiveEnricher.DEFAULT_SNIFF_BYTES);
+        var trades = HEADER + "20160101,1,EUR," + LONG_PRICE + "\n20160101,2,EUR,20.1\n";
+
+        // WHEN
+        var enriched = enrich(enricher, trades, SMALL_CHUNKS);
+
+        // THEN
+        assertEquals("20160101,Treasury Bills,EUR," + LONG_PRICE + "\n20160101,Corporate Bonds,EUR,20.1\n", enriched);
+        assertEquals(1, selections(registry, Engine.SERIAL, Reason.LONG_ROWS));
+    }
+
+    @Test
+    void shouldEnrichInputEndingWithinTheSniffedBytesInline() {
+        // GIVEN
+        var registry = new SimpleMeterRegistry();
+        var enricher = enricher(registry, AdaptiveEnricher.DEFAULT_SNIFF_BYTES);
+        var options = EnrichmentOptions.builder().inlineThreshold(65536).build();
+
+        // WHEN
+        var enriched = enrich(enricher, HEADER + "20160101,1,EUR,10.0\n", options);
+
+        // THEN
+        assertEquals("20160101,Treasury Bills,EUR,10.0\n", enriched);
+        assertEquals(1, selections(registry, Engine.CONCURRENT, Reason.SMALL_INPUT));
+    }
+
+    @Test
+    void shouldEnrichLargeInputWithTheConcurrentEngine() {
+        // GIVEN
+        var registry = new SimpleMeterRegistry();
+        var enricher = enricher(registry, 1024);
+        var trades = new StringBuilder(HEADER);
+        for (int i = 0; i < 200; i++) {
+            trades.append("20160101,1,EUR,").append(i).append('\n');
+        }
+
+        // WHEN
+        var enriched = enrich(enricher, trades.toString(), EnrichmentOptions.builder().preserveOrder(true).build());
+
+        // THEN
+        assertEquals(trades.toString().replace(",1,", ",Treasury Bills,").substring(HEADER.length()), enriched);
+        assertEquals(1, selections(registry, Engine.CONCURRENT, Reason.DEFAULT));
+    }
+
+    @Test
+    void shouldEnrichWithTheRequestedEngine() {
+        // GIVEN
+        var registry = new SimpleMeterRegistry();
+        var enricher = enricher(registry, AdaptiveEnricher.DEFAULT_SNIFF_BYTES);
+        var options = EnrichmentOptions.builder().engine(Engine.SERIAL).build();
+
+        // WHEN
+        var enriched = enrich(enricher, HEADER + "20160101,2,EUR,20.1\n", options);
+
+        // THEN
+        assertEquals("20160101,Corporate Bonds,EUR,20.1\n", enriched);
+        assertEquals(1, selections(registry, Engine.SERIAL, Reason.REQUESTED));
+        assertEquals(0, selections(registry, Engine.CONCURRENT, Reason.REQUESTED));
+    }
+
+    @Test
+    @SneakyThrows
+    void shouldEnrichFileWithRowsLongerThanAChunkWithTheSerialEngine(@TempDir Path directory) {
+        // GIVEN
+        var registry = new SimpleMeterRegistry();
+        var enricher = enricher(registry, AdaptiveEnricher.DEFAULT_SNIFF_BYTES);
+        var input = directory.resolve("trades.csv");
+        var output = directory.resolve("enriched.csv");
+        Files.writeString(input, HEADER + "20160101,2,EUR," + LONG_PRICE + "\n");
+
+        // WHEN
+        enricher.enrich(input, output, SMALL_CHUNKS);
+
+        // THEN
+        assertEquals("20160101,Corporate Bonds,EUR," + LONG_PRICE + "\n", rows(Files.readString(output)));
+        assertEquals(1, selections(registry, Engine.SERIAL, Reason.LONG_ROWS));
+    }
+
+    @Test
+    @SneakyThrows
+    void shouldPassTheFileSizeToTheSelectedEngine(@TempDir Path directory) {
+        // GIVEN
+        var catalog = new ProductCatalog(Map.of(1L, "Treasury Bills"));
+        var engineOptions = new AtomicReference<EnrichmentOptions>();
+        var concurrent = new MultiThreadEnricherService(2, catalog) {
+            @Override
+            public RejectionReport enrich(Path input, Path output, EnrichmentOptions options) {
+                engineOptions.set(options);
+                return super.enrich(input, output, options);
+            }
+        };
+        var registry = new SimpleMeterRegistry();
+        var enricher = new AdaptiveEnricher(new EnricherService(catalog), concurrent, registry, AdaptiveEnricher.DEFAULT_SNIFF_BYTES,
+                AdaptiveEnricher.DEFAULT_BUSY_CHUNKS_PER_THREAD);
+        var input = directory.resolve("trades.csv");
+        var output = directory.resolve("enriched.csv");
+        Files.writeString(input, HEADER + "20160101,1,EUR,10.0\n");
+
+        // WHEN
+        enricher.enrich(input, output, EnrichmentOptions.builder().inlineThreshold(65536).build());
+
+        // THEN
+        assertEquals("20160101,Treasury Bills,EUR,10.0\n", rows(Files.readString(output)));
+        assertEquals(Files.size(input), engineOptions.get().getInputSize());
+        assertEquals(1, selections(registry, Engine.CONCURRENT, Reason.SMALL_INPUT));
+    }
+
+    @Test
+    void shouldFailInsteadOfTruncatingWhenARowLongerThanAChunkComesAfterTheSniffedBytes() {
+        // GIVEN
+        var registry = new SimpleMeterRegistry();
+        var enricher = enricher(registry, 1024);
+        var trades = new StringBuilder(HEADER);
+        for (int i = 0; i < 200; i++) {
+            trades.append("20160101,1,EUR,").append(i).append('\n');
+        }
+        trades.append("20160101,1,EUR,").append(LONG_PRICE).append("\n20160101,2,EUR,20.1\n");
+
+        // WHEN
+        var exception = assertThrows(IllegalArgumentException.class, () -> enrich(enricher, trades.toString(), SMALL_CHUNKS));
+
+        // THEN
+        assertEquals("Row longer than the chunk size of 1024 bytes", exception.getMessage());
+        assertEquals(1, selections(registry, Engine.CONCURRENT, Reason.DEFAULT));
+    }
+
+    private static AdaptiveEnricher enricher(MeterRegistry registry, int sniffBytes) {
+        var catalog = new ProductCatalog(Map.of(1L, "Treasury Bills", 2L, "Corporate Bonds"));
+        return new AdaptiveEnricher(new EnricherService(catalog), new MultiThreadEnricherService(2, catalog), registry, sniffBytes,
+                AdaptiveEnricher.DEFAULT_BUSY_CHUNKS_PER_THREAD);
+    }
+
+    private static String enrich(Enricher enricher, String trades, EnrichmentOptions options) {
+        var output = new ByteArrayOutputStream();
+        enricher.enrich(output, new ByteArrayInputStream(trades.getBytes(StandardCharsets.US_ASCII)), options);
+        return rows(output.toString(StandardCharsets.US_ASCII));
+    }
+
+    private static double selections(MeterRegistry registry, Engine engine, Reason reason) {
+        return registry.get("enricher.engine.selections").tags("engine", engine.tag(), "reason", reason.name()).functionCounter().count();
+    }
+}
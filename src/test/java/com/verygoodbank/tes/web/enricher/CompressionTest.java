@@ -0,0 +1,140 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.verygoodbank.tes.web.enricher.concurrenct.SystemOverloadedException;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CompressionTest {
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', nullValues = "null", value = {
+            "null|IDENTITY",
+            "identity|IDENTITY",
+            "gzip, deflate, br|GZIP",
+            "gzip, zstd|ZSTD",
+            "zstd;q=0, gzip;q=0.5|GZIP",
+            "gzip;q=0|IDENTITY",
+            "br|IDENTITY"
+    })
+    void shouldNegotiateResponseCompression(String acceptEncoding, Compression expected) {
+        // WHEN
+        var compression = Compression.negotiate(acceptEncoding);
+
+        // THEN
+        assertEquals(expected, compression);
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', nullValues = "null", value = {
+            "null|IDENTITY",
+            "trades.csv|IDENTITY",
+            "trades.csv.gz|GZIP",
+            "TRADES.CSV.ZST|ZSTD"
+    })
+    void shouldRecogniseCompressedUploadByFileName(String fileName, Compression expected) {
+        // WHEN
+        var compression = Compression.ofFileName(fileName);
+
+        // THEN
+        assertEquals(expected, compression);
+    }
+
+    @Test
+    void shouldRejectUnsupportedContentEncoding() {
+        // WHEN THEN
+        assertThrows(IllegalArgumentException.class, () -> Compression.ofContentEncoding("br"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Compression.class)
+    @SneakyThrows
+    void shouldDecompressWhatTheStageCompressed(Compression compression) {
+        // GIVEN
+        var stage = new CompressionStage(1000, 2, 1);
+        var input = new byte[100_000];
+        new Random(42).nextBytes(input);
+        var compressed = new ByteArrayOutputStream();
+
+        // WHEN
+        try (var output = stage.compress(compressed, compression)) {
+            for (int offset = 0; offset < input.length; offset += 777) {
+                output.write(input, offset, Math.min(777, input.length - offset));
+            }
+            output.write('\n');
+        }
+
+        // THEN
+        var decompressed = compression.decompress(new ByteArrayInputStream(compressed.toByteArray())).readAllBytes();
+        assertEquals(input.length + 1, decompressed.length);
+        for (int i = 0; i < input.length; i++) {
+            assertEquals(input[i], decompressed[i]);
+        }
+        assertEquals('\n', decompressed[input.length]);
+    }
+
+    @Test
+    void shouldThrowWhenCompressedOutputCannotBeWritten() {
+        // GIVEN
+        var stage = new CompressionStage(1000, 2, 1);
+        var failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Connection reset");
+            }
+        };
+
+        // WHEN THEN
+        assertThrows(IOException.class, () -> {
+            var output = stage.compress(failing, Compression.ZSTD);
+            for (int i = 0; i < 1000; i++) {
+                output.write(new byte[1000]);
+            }
+            output.close();
+        });
+    }
+
+    @Test
+    @SneakyThrows
+    void shouldRefuseACompressionOverTheThreadLimit() {
+        // GIVEN
+        var stage = new CompressionStage(1000, 2, 1);
+        var first = stage.compress(new ByteArrayOutputStream(), Compression.GZIP);
+
+        // WHEN
+        var exception = assertThrows(SystemOverloadedException.class, () -> stage.compress(new ByteArrayOutputStream(), Compression.ZSTD));
+
+        // THEN
+        assertEquals("All compression threads are taken, cannot compress more responses", exception.getMessage());
+        first.close();
+        stage.destroy();
+    }
+
+    @Test
+    void shouldStopTheCompressionThreadsWhenTheContextCloses() {
+        // GIVEN
+        var context = new AnnotationConfigApplicationContext();
+        context.registerBean(CompressionStage.class, () -> new CompressionStage(1000, 2, 1));
+        context.refresh();
+        var stage = context.getBean(CompressionStage.class);
+
+        // WHEN
+        context.close();
+
+        // THEN
+        var exception = assertThrows(IllegalStateException.class, () -> stage.compress(new ByteArrayOutputStream(), Compression.GZIP));
+        assertEquals("Compression stage is closed", exception.getMessage());
+    }
+}
@@ -0,0 +1,60 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService;
+import com.verygoodbank.tes.web.enricher.concurrenct.WaitStrategies;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EnrichmentMetricsTest {
+
+    private static final String TRADES = """
+            date,product_id,currency,price
+            20160101,1,EUR,10.0
+            20160101,2,EUR,20.1
+            20161301,1,EUR,30.2
+            20160101,9,EUR,40.3
+            """;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"serial", "concurrent"})
+    void shouldCountRowsBytesAndRejectionsOfAnEnrichment(String engine) {
+        // GIVEN
+        var registry = new SimpleMeterRegistry();
+        var enricher = enricher(engine, registry);
+        var input = TRADES.getBytes(StandardCharsets.UTF_8);
+        var output = new ByteArrayOutputStream();
+
+        // WHEN
+        enricher.enrich(output, new ByteArrayInputStream(input), EnrichmentOptions.DEFAULT);
+
+        // THEN
+        assertEquals(3, counter(registry, "enricher.rows", engine));
+        assertEquals(input.length, counter(registry, "enricher.bytes.in", engine));
+        assertEquals(output.size(), counter(registry, "enricher.bytes.out", engine));
+        assertEquals(1, registry.get("enricher.rejections").tags("engine", engine, "reason", "INVALID_DATE").functionCounter().count());
+        assertEquals(1, registry.get("enricher.rejections").tags("engine", engine, "reason", "MISSING_PRODUCT").functionCounter().count());
+        assertEquals(1, registry.get("enricher.enrichments").tag("engine", engine).timer().count());
+        assertEquals(0, registry.get("enricher.enrichments.active").tag("engine", engine).gauge().value());
+    }
+
+    private static Enricher enricher(String engine, MeterRegistry registry) {
+        var catalog = new ProductCatalog(Map.of(1L, "Treasury Bills", 2L, "Corporate Bonds"));
+        var metrics = new EnrichmentMetrics(registry, engine);
+        return engine.equals("serial")
+                ? new EnricherService(catalog, metrics)
+                : new MultiThreadEnricherService(2, catalog, new WaitStrategies("spin-then-park", "spin-then-park", 10, 10, 10_000, 100_000), "swar", metrics);
+    }
+
+    private static double counter(MeterRegistry registry, String name, String engine) {
+        return registry.get(name).tag("engine", engine).functionCounter().count();
+    }
+}
@@ -0,0 +1,163 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static com.verygoodbank.tes.web.enricher.TradeFixtures.HEADER;
+import static com.verygoodbank.tes.web.enricher.TradeFixtures.rows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MultiFileEnricherTest {
+
+    private static final EnrichmentOptions OPTIONS = EnrichmentOptions.builder().inlineThreshold(1024).build();
+
+    @Test
+    void shouldEnrichEveryFileOfAnArchiveInTheArchiveOrder() {
+        // GIVEN
+        var large = new StringBuilder(HEADER);
+        for (int i = 0; i < 200; i++) {
+            large.append("20160101,2,EUR,").append(i).append('\n');
+        }
+        var archive = zip(new LinkedHashMap<>(Map.of(
+                "desk-1.csv", HEADER + "20160101,1,EUR,10.0\n",
+                "desk-2.csv.gz", HEADER + "20160101,2,EUR,20.1\n",
+                "large.csv", large.toString(),
+                "desk-3.csv", HEADER + "20160101,1,EUR,10.0\n2016-01-01,1,EUR,10.0\n20160101,99,EUR,30.3\n")),
+                "desk-1.csv", "desk-2.csv.gz", "large.csv", "desk-3.csv");
+
+        // WHEN
+        var output = new ByteArrayOutputStream();
+        multiFileEnricher().enrichArchive(new ByteArrayInputStream(archive), output, OPTIONS);
+
+        // THEN
+        var enriched = unzip(output.toByteArray());
+        assertEquals(List.of("desk-1.csv", "desk-2.csv", "large.csv", "desk-3.csv", MultiFileEnricher.SUMMARY_ENTRY), List.copyOf(enriched.keySet()));
+        assertEquals("20160101,Treasury Bills,EUR,10.0\n", rows(enriched.get("desk-1.csv")));
+        assertEquals("20160101,Corporate Bonds,EUR,20.1\n", rows(enriched.get("desk-2.csv")));
+        assertEquals(large.toString().replace(",2,", ",Corporate Bonds,").substring(HEADER.length()), sorted(rows(enriched.get("large.csv")), large.length()));
+        assertEquals("20160101,Treasury Bills,EUR,10.0\n20160101,Missing Product Name,EUR,30.3\n", rows(enriched.get("desk-3.csv")));
+        assertEquals(MultiFileEnricher.SUMMARY_HEADER
+                        + "\"desk-1.csv\",0,,\n"
+                        + "\"desk-2.csv\",0,,\n"
+                        + "\"large.csv\",0,,\n"
+                        + "\"desk-3.csv\",1,INVALID_DATE=1;MISSING_PRODUCT=1,99\n",
+                enriched.get(MultiFileEnricher.SUMMARY_ENTRY));
+    }
+
+    @Test
+    void shouldEnrichManySmallFilesAndArchivesInTheGivenOrder() {
+        // GIVEN
+        var files = new LinkedHashMap<String, ByteArrayResource>();
+        for (int i = 0; i < 50; i++) {
+            files.put("desk-" + i + ".csv", resource(HEADER + "20160101,1,EUR," + i + "\n"));
+        }
+        files.put("more.zip", new ByteArrayResource(zip(Map.of("desk-50.csv", HEADER + "20160101,2,EUR,50\n"), "desk-50.csv")));
+
+        // WHEN
+        var output = new ByteArrayOutputStream();
+        multiFileEnricher().enrich(files, output, OPTIONS);
+
+        // THEN
+        var enriched = unzip(output.toByteArray());
+        assertEquals(52, enriched.size());
+        var names = List.copyOf(enriched.keySet());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("desk-" + i + ".csv", names.get(i));
+            assertEquals("20160101,Treasury Bills,EUR," + i + "\n", rows(enriched.get(names.get(i))));
+        }
+        assertEquals("20160101,Corporate Bonds,EUR,50\n", rows(enriched.get("desk-50.csv")));
+    }
+
+    @Test
+    void shouldRejectFilesWithTheSameNameAfterDecompression() {
+        // GIVEN
+        var files = new LinkedHashMap<String, ByteArrayResource>();
+        files.put("desk.csv", resource(HEADER));
+        files.put("desk.csv.gz", new ByteArrayResource(gzip(HEADER)));
+        var enricher = multiFileEnricher();
+
+        // WHEN
+        var exception = assertThrows(IllegalArgumentException.class, () -> enricher.enrich(files, new ByteArrayOutputStream(), OPTIONS));
+
+        // THEN
+        assertEquals("Duplicate trade file: desk.csv", exception.getMessage());
+    }
+
+    private static MultiFileEnricher multiFileEnricher() {
+        var catalog = new ProductCatalog(Map.of(1L, "Treasury Bills", 2L, "Corporate Bonds"));
+        var concurrent = new MultiThreadEnricherService(2, catalog);
+        return new MultiFileEnricher(new AdaptiveEnricher(new EnricherService(catalog), concurrent), concurrent, 1);
+    }
+
+    private static ByteArrayResource resource(String content) {
+        return new ByteArrayResource(content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Files with the {@code .gz} extension are compressed, a directory entry is added before the first file
+     */
+    @SneakyThrows
+    private static byte[] zip(Map<String, String> files, String... order) {
+        var archive = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("directory/"));
+            zip.closeEntry();
+            for (var name : order) {
+                zip.putNextEntry(new ZipEntry(name));
+                zip.write(name.endsWith(".gz") ? gzip(files.get(name)) : files.get(name).getBytes(StandardCharsets.US_ASCII));
+                zip.closeEntry();
+            }
+        }
+        return archive.toByteArray();
+    }
+
+    @SneakyThrows
+    private static byte[] gzip(String content) {
+        var compressed = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(content.getBytes(StandardCharsets.US_ASCII));
+        }
+        return compressed.toByteArray();
+    }
+
+    @SneakyThrows
+    private static Map<String, String> unzip(byte[] archive) {
+        var entries = new LinkedHashMap<String, String>();
+        try (var zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                entries.put(entry.getName(), new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Rows of a large file can come in any order, sorted by the price which is the row number
+     */
+    private static String sorted(String rows, int capacity) {
+        var sorted = new StringBuilder(capacity);
+        rows.lines()
+                .sorted((first, second) -> Integer.compare(price(first), price(second)))
+                .forEach(row -> sorted.append(row).append('\n'));
+        return sorted.toString();
+    }
+
+    private static int price(String row) {
+        return Integer.parseInt(row.substring(row.lastIndexOf(',') + 1));
+    }
+}
@@ -0,0 +1,172 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService;
+import com.verygoodbank.tes.web.enricher.concurrenct.PeerCoordinator;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.verygoodbank.tes.web.enricher.TradeFixtures.HEADER;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Peers are reactive endpoints of this JVM on ephemeral ports
+ */
+class PeerCoordinatorTest {
+
+    private static final int RANGE_SIZE = 1024;
+
+    private static final List<ReactiveEnrichmentServer> servers = new ArrayList<>();
+    private static List<String> peers;
+
+    @BeforeAll
+    static void startPeers() {
+        var catalog = new ProductCatalog(Map.of(1L, "Treasury Bills", 2L, "Corporate Bonds"));
+        var service = new MultiThreadEnricherService(2, catalog);
+        peers = List.of(peer(service), peer(service));
+    }
+
+    @AfterAll
+    static void stopPeers() {
+        servers.forEach(ReactiveEnrichmentServer::destroy);
+    }
+
+    @Test
+    void shouldEnrichRangesOnPeersAndRetryTheRangesOfAFailedPeer() {
+        // GIVEN
+        var registry = new SimpleMeterRegistry();
+        var coordinator = coordinator(List.of(peers.get(0), unreachablePeer(), peers.get(1)), registry);
+        var trades = new StringBuilder(HEADER);
+        var expected = new StringBuilder();
+        for (int i = 0; i < 1_000; i++) {
+            trades.append("20160101,").append(i % 3).append(",EUR,").append(i).append('\n');
+            expected.append("20160101,").append(productName(i % 3)).append(",EUR,").append(i).append('\n');
+        }
+        trades.append("2016-01-01,1,EUR,10.0\n");
+
+        // WHEN
+        var output = new ByteArrayOutputStream();
+        var report = coordinator.enrich(output, input(trades.toString()), EnrichmentOptions.DEFAULT);
+
+        // THEN
+        assertEquals("date,product_name,currency,price\n" + expected, output.toString(StandardCharsets.US_ASCII));
+        assertEquals(1, report.count(RejectionReport.Reason.INVALID_DATE));
+        assertEquals(334, report.count(RejectionReport.Reason.MISSING_PRODUCT));
+        assertEquals(1, report.rejectedRows());
+        assertArrayEquals(new long[]{0}, report.missingProductIds());
+        assertTrue(registry.get("enricher.coordinator.retries").counter().count() > 0);
+    }
+
+    @Test
+    void shouldNotCutQuotedFieldsAndWindowsLineEndings() {
+        // GIVEN
+        var coordinator = coordinator(peers, new SimpleMeterRegistry());
+        var trades = new StringBuilder(HEADER.replace("\n", "\r\n"));
+        var expected = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            trades.append("20160101,\"1\",\"EUR\",\"").append(i).append("\"\r\n");
+            expected.append("20160101,Treasury Bills,EUR,").append(i).append('\n');
+        }
+
+        // WHEN
+        var output = new ByteArrayOutputStream();
+        var report = coordinator.enrich(output, input(trades.toString()), EnrichmentOptions.DEFAULT);
+
+        // THEN
+        assertEquals("date,product_name,currency,price\n" + expected, output.toString(StandardCharsets.US_ASCII));
+        assertTrue(report.isEmpty());
+    }
+
+    @Test
+    void shouldRejectRowsLongerThanTheRangeSize() {
+        // GIVEN
+        var coordinator = coordinator(peers, new SimpleMeterRegistry());
+        var trades = HEADER + "20160101,1,EUR," + "1".repeat(RANGE_SIZE) + "\n";
+
+        // WHEN
+        var exception = assertThrows(IllegalArgumentException.class,
+                () -> coordinator.enrich(new ByteArrayOutputStream(), input(trades), EnrichmentOptions.DEFAULT));
+
+        // THEN
+        assertEquals("Row longer than the range size of " + RANGE_SIZE + " bytes", exception.getMessage());
+    }
+
+    @Test
+    void shouldFailWhenARowOfARangeIsLongerThanTheChunkSizeOfThePeer() {
+        // GIVEN
+        var catalog = new ProductCatalog(Map.of(1L, "Treasury Bills", 2L, "Corporate Bonds"));
+        var smallChunksPeer = peer(new MultiThreadEnricherService(2, catalog), 1024);
+        var registry = new SimpleMeterRegistry();
+        var coordinator = new PeerCoordinator(List.of(smallChunksPeer), 4 * RANGE_SIZE, PeerCoordinator.DEFAULT_ATTEMPTS, Duration.ofSeconds(10),
+                registry);
+        var trades = new StringBuilder(HEADER);
+        for (int i = 0; i < 50; i++) {
+            trades.append("20160101,1,EUR,").append(i).append('\n');
+        }
+        trades.append("20160101,1,EUR,").append("1".repeat(2 * RANGE_SIZE)).append('\n');
+        for (int i = 0; i < 50; i++) {
+            trades.append("20160101,2,EUR,").append(i).append('\n');
+        }
+
+        // WHEN
+        var output = new ByteArrayOutputStream();
+        // the peer has already responded with 200 when it fails, so it drops the connection instead of responding with 400
+        assertThrows(IOException.class, () -> coordinator.enrich(output, input(trades.toString()), EnrichmentOptions.DEFAULT));
+
+        // THEN
+        assertEquals("date,product_name,currency,price\n", output.toString(StandardCharsets.US_ASCII));
+        assertEquals(PeerCoordinator.DEFAULT_ATTEMPTS - 1, registry.get("enricher.coordinator.retries").counter().count());
+    }
+
+    private static PeerCoordinator coordinator(List<String> peers, MeterRegistry registry) {
+        return new PeerCoordinator(peers, RANGE_SIZE, PeerCoordinator.DEFAULT_ATTEMPTS, Duration.ofSeconds(10), registry);
+    }
+
+    private static String peer(MultiThreadEnricherService service) {
+        return peer(service, 0);
+    }
+
+    private static String peer(MultiThreadEnricherService service, int chunkSize) {
+        var server = new ReactiveEnrichmentServer(service, 0, false, 0, chunkSize, true, true, "");
+        servers.add(server);
+        return "http://localhost:" + server.port();
+    }
+
+    /**
+     * A port nobody listens on, connections to it are refused
+     */
+    @SneakyThrows
+    private static String unreachablePeer() {
+        try (var socket = new ServerSocket(0)) {
+            return "http://localhost:" + socket.getLocalPort();
+        }
+    }
+
+    private static String productName(int productId) {
+        return switch (productId) {
+            case 1 -> "Treasury Bills";
+            case 2 -> "Corporate Bonds";
+            default -> "Missing Product Name";
+        };
+    }
+
+    private static ByteArrayInputStream input(String trades) {
+        return new ByteArrayInputStream(trades.getBytes(StandardCharsets.US_ASCII));
+    }
+}
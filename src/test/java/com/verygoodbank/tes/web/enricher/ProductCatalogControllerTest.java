@@ -0,0 +1,49 @@
+package com.verygoodbank.tes.web.enricher;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProductCatalogControllerTest {
+
+    private static final String TOKEN = "s3cr3t";
+
+    @Test
+    void shouldChangeTheMappingsOnlyWithTheAdminToken() {
+        // GIVEN
+        var catalog = new ProductCatalog(Map.of(1L, "P1"));
+        var controller = new ProductCatalogController(catalog, TOKEN);
+        var delta = new MockMultipartFile("file", "product_id,product_name\n2,P2\n".getBytes(StandardCharsets.US_ASCII));
+
+        // WHEN
+        assertThrows(AdminAccessException.class, () -> controller.applyDelta(null, delta));
+        assertThrows(AdminAccessException.class, () -> controller.applyDelta("Bearer wrong", delta));
+        assertThrows(AdminAccessException.class, () -> controller.applyDelta(TOKEN, delta));
+        assertThrows(AdminAccessException.class, () -> controller.status("Bearer " + TOKEN + " "));
+        var unchanged = catalog.current().getNumber();
+        var status = controller.applyDelta("Bearer " + TOKEN, delta).join();
+
+        // THEN
+        assertEquals(1, unchanged);
+        assertEquals(2, status.getRevision());
+        assertEquals(2, status.getMappings());
+        assertEquals(2, controller.status("Bearer " + TOKEN).getRevision());
+    }
+
+    @Test
+    void shouldRefuseABlankAdminToken() {
+        // GIVEN
+        var catalog = new ProductCatalog(Map.of(1L, "P1"));
+
+        // WHEN
+        var exception = assertThrows(IllegalArgumentException.class, () -> new ProductCatalogController(catalog, " "));
+
+        // THEN
+        assertEquals("Admin token cannot be blank", exception.getMessage());
+    }
+}
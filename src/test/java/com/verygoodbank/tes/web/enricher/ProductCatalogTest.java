@@ -0,0 +1,69 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ProductCatalogTest {
+
+    @Test
+    @SneakyThrows
+    void shouldApplyOnlyChangedMappingsFromDelta() {
+        // GIVEN
+        var catalog = new ProductCatalog(Map.of(1L, "P1", 2L, "P2", 3L, "P3"));
+        var delta = "product_id,product_name\n2,P2_RENAMED\n3,\n4,P4\n";
+
+        // WHEN
+        var revision = catalog.applyDelta(new ByteArrayInputStream(delta.getBytes())).get();
+
+        // THEN
+        var index = revision.getIndex();
+        assertEquals(2, revision.getNumber());
+        assertEquals(3, index.size());
+        assertEquals("P1", index.name(index.find(1)));
+        assertEquals("P2_RENAMED", index.name(index.find(2)));
+        assertEquals(ProductIndex.MISSING, index.find(3));
+        assertEquals("P4", index.name(index.find(4)));
+    }
+
+    @Test
+    @SneakyThrows
+    void shouldKeepPinnedRevisionUnchangedAfterSwap() {
+        // GIVEN
+        var catalog = new ProductCatalog(Map.of(1L, "P1"));
+        var pinned = catalog.current();
+
+        // WHEN
+        catalog.applyDelta(new ByteArrayInputStream("product_id,product_name\n1,CHANGED\n".getBytes())).get();
+
+        // THEN
+        assertEquals("P1", pinned.getIndex().name(pinned.getIndex().find(1)));
+        assertEquals("CHANGED", catalog.current().getIndex().name(catalog.current().getIndex().find(1)));
+    }
+
+    @Test
+    @SneakyThrows
+    void shouldReloadChangedProductFileIntoSnapshot(@TempDir Path directory) {
+        // GIVEN
+        var csv = directory.resolve("product.csv");
+        var snapshot = directory.resolve("product.snapshot");
+        Files.writeString(csv, "product_id,product_name\n1,P1\n");
+        var catalog = new ProductCatalog(csv.toString(), snapshot.toString());
+
+        // WHEN
+        Files.writeString(csv, "product_id,product_name\n1,P1_NEW\n2,P2\n");
+        var revision = catalog.reload().get();
+
+        // THEN
+        assertEquals(2, revision.getNumber());
+        assertEquals("P1_NEW", revision.getIndex().name(revision.getIndex().find(1)));
+        assertEquals(2, ProductIndex.map(snapshot).size());
+    }
+}
@@ -0,0 +1,141 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProductIndexTest {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource(value = "layouts")
+    void shouldFindEveryIndexedProductName(String layoutName, Map<Long, String> productNames, int expectedLayout) {
+        // WHEN
+        var index = ProductIndex.fromMap(productNames);
+
+        // THEN
+        assertEquals(expectedLayout, index.layout());
+        assertEquals(productNames.size(), index.size());
+        productNames.forEach((id, name) -> assertEquals(name, index.name(index.find(id))));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource(value = "layouts")
+    void shouldReturnMissingForUnknownProductIds(String layoutName, Map<Long, String> productNames, int expectedLayout) {
+        // GIVEN
+        var index = ProductIndex.fromMap(productNames);
+
+        // EXPECT
+        for (long id : new long[]{-1, 0, 7, 100_001, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            if (!productNames.containsKey(id)) {
+                assertEquals(ProductIndex.MISSING, index.find(id));
+            }
+        }
+    }
+
+    @Test
+    void shouldCopyNameAtTheCurrentPositionOfTheTargetBuffer() {
+        // GIVEN
+        var index = ProductIndex.fromMap(Map.of(1L, "P1", 2L, "Żółw"));
+        var target = ByteBuffer.allocate(32);
+        target.put((byte) ',');
+
+        // WHEN
+        index.copyName(index.find(2), target);
+
+        // THEN
+        var expected = ",Żółw".getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected.length, target.position());
+        assertEquals(ByteBuffer.wrap(expected), target.flip());
+    }
+
+    @Test
+    void shouldKeepTheLastNameWhenIdIsDuplicated() {
+        // GIVEN
+        var ids = new long[]{5, 5, 1_000_000_000};
+        var names = new String[]{"FIRST", "SECOND", "OTHER"};
+
+        // WHEN
+        var index = ProductIndex.build(ids, names);
+
+        // THEN
+        assertEquals("SECOND", index.name(index.find(5)));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource(value = "layouts")
+    @SneakyThrows
+    void shouldResolveTheSameNamesFromTheMappedSnapshot(String layoutName, Map<Long, String> productNames, int expectedLayout, @TempDir Path directory) {
+        // GIVEN
+        var snapshot = directory.resolve("product" + ProductMappingsLoader.SNAPSHOT_EXTENSION);
+        ProductIndex.fromMap(productNames).writeTo(snapshot);
+
+        // WHEN
+        var mapped = ProductIndex.map(snapshot);
+
+        // THEN
+        assertEquals(expectedLayout, mapped.layout());
+        assertEquals(productNames.size(), mapped.size());
+        productNames.forEach((id, name) -> assertEquals(name, mapped.name(mapped.find(id))));
+        assertEquals(ProductIndex.MISSING, mapped.find(Long.MIN_VALUE));
+    }
+
+    @Test
+    @SneakyThrows
+    void shouldCompileSnapshotFromCsvOnFirstLoadAndMapItLater(@TempDir Path directory) {
+        // GIVEN
+        var csv = directory.resolve("product.csv");
+        Files.writeString(csv, "product_id,product_name\n1,P1\n2,P2\n");
+        var snapshot = directory.resolve("product.csv" + ProductMappingsLoader.SNAPSHOT_EXTENSION);
+
+        // WHEN
+        var compiled = ProductMappingsLoader.loadProductIndex(csv.toString(), snapshot.toString());
+        var mapped = ProductMappingsLoader.loadProductIndex(snapshot.toString(), "");
+
+        // THEN
+        assertTrue(Files.exists(snapshot));
+        assertEquals("P2", compiled.name(compiled.find(2)));
+        assertEquals("P1", mapped.name(mapped.find(1)));
+    }
+
+    @Test
+    @SneakyThrows
+    void shouldRejectFileWhichIsNotASnapshot(@TempDir Path directory) {
+        // GIVEN
+        var file = directory.resolve("product.csv");
+        Files.writeString(file, "product_id,product_name\n1,P1\n2,P2\n3,P3\n");
+
+        // EXPECT
+        assertThrows(IOException.class, () -> ProductIndex.map(file));
+    }
+
+    private static Stream<Arguments> layouts() {
+        var dense = new HashMap<Long, String>();
+        for (long i = 1; i <= 100_000; i++) {
+            dense.put(i, "NAME" + i);
+        }
+        var sparse = new HashMap<Long, String>();
+        for (long i = 1; i <= 10_000; i++) {
+            sparse.put(i * 1_000_003L - 5_000_000_000L, "NAME" + i);
+        }
+        return Stream.of(
+                Arguments.of("DENSE", dense, ProductIndex.DIRECT_LAYOUT),
+                Arguments.of("SPARSE", sparse, ProductIndex.HASH_LAYOUT),
+                Arguments.of("EMPTY", Map.of(), ProductIndex.HASH_LAYOUT));
+    }
+}
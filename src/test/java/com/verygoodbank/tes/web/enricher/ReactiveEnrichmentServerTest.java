@@ -0,0 +1,35 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.net.ServerSocket;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReactiveEnrichmentServerTest {
+
+    @Test
+    @SneakyThrows
+    void shouldUnbindThePortWhenTheContextCloses() {
+        // GIVEN
+        var service = new MultiThreadEnricherService(1, new ProductCatalog(Map.of(1L, "Treasury Bills")));
+        var context = new AnnotationConfigApplicationContext();
+        TestPropertyValues.of("reactive.port=0").applyTo(context);
+        context.registerBean(ReactiveEnrichmentServer.class, () -> new ReactiveEnrichmentServer(service, 0, false, 0, 0, true, true, ""));
+        context.refresh();
+        var port = context.getBean(ReactiveEnrichmentServer.class).port();
+
+        // WHEN
+        context.close();
+
+        // THEN
+        try (var socket = new ServerSocket(port)) {
+            assertTrue(socket.isBound());
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultCacheTest {
+
+    private static final String TRADES = "date,product_id,currency,price\n20160101,1,EUR,10.0\n20160101,2,EUR,20.1\n2016-01-01,1,EUR,10.0\n";
+
+    @Test
+    void shouldServeARepeatedUploadFromTheCache(@TempDir Path directory) {
+        // GIVEN
+        var registry = new SimpleMeterRegistry();
+        var catalog = catalog();
+        var cache = cache(catalog, directory, 1 << 20, new MutableClock(), registry);
+        var digest = ResultCache.digest(new ByteArrayResource(bytes(TRADES)));
+
+        // WHEN
+        var miss = cache.get(digest, EnrichmentOptions.DEFAULT);
+        var enriched = enrich(cache, catalog, TRADES, null);
+        var hit = cache.get(digest, EnrichmentOptions.DEFAULT);
+
+        // THEN
+        assertTrue(miss.isEmpty());
+        assertTrue(hit.isPresent());
+        assertEquals(enriched, read(hit.get().getFile()));
+        assertEquals(enriched.length(), hit.get().getSize());
+        assertEquals("1", hit.get().getTrailers().get("Rejected-Rows"));
+        assertTrue(cache.get(digest, EnrichmentOptions.builder().validation(ValidationRules.LENIENT).build()).isEmpty());
+        assertEquals(1, registry.counter("enricher.cache.requests", "result", "hit").count());
+        assertEquals(2, registry.counter("enricher.cache.requests", "result", "miss").count());
+        assertEquals(digest, ResultCache.ofContentDigest("sha-256=:" + Base64.getEncoder().encodeToString(HexFormat.of().parseHex(digest)) + ":"));
+    }
+
+    @Test
+    @SneakyThrows
+    void shouldDropCachedOutputsWhenTheCatalogChanges(@TempDir Path directory) {
+        // GIVEN
+        var catalog = catalog();
+        var cache = cache(catalog, directory, 1 << 20, new MutableClock(), new SimpleMeterRegistry());
+        var digest = ResultCache.digest(new ByteArrayResource(bytes(TRADES)));
+        enrich(cache, catalog, TRADES, null);
+        var recording = cache.record(null, EnrichmentOptions.DEFAULT);
+
+        // WHEN
+        catalog.applyDelta(new ByteArrayInputStream("product_id,product_name\n1,CHANGED\n".getBytes())).get();
+        var afterSwap = cache.get(digest, EnrichmentOptions.DEFAULT);
+        // enriched with the old revision, finished after the swap
+        try (recording) {
+            recording.output(new ByteArrayOutputStream()).close();
+            recording.input(new ByteArrayInputStream(bytes(TRADES)));
+            recording.commit(new RejectionReport());
+        }
+        enrich(cache, catalog, TRADES, null);
+
+        // THEN
+        assertTrue(afterSwap.isEmpty());
+        assertTrue(read(cache.get(digest, EnrichmentOptions.DEFAULT).orElseThrow().getFile()).contains("CHANGED"));
+        try (var files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void shouldEvictExpiredAndLeastRecentlyUsedOutputs(@TempDir Path directory) {
+        // GIVEN
+        var catalog = catalog();
+        var clock = new MutableClock();
+        var first = TRADES;
+        var second = TRADES + "20160101,2,EUR,30.0\n";
+        var third = TRADES + "20160101,2,EUR,40.0\n";
+        var size = enrich(cache(catalog, directory.resolve("sizing"), 1 << 20, clock, new SimpleMeterRegistry()), catalog, third, null).length();
+        var cache = cache(catalog, directory.resolve("cache"), size * 2L + 10, clock, new SimpleMeterRegistry());
+
+        // WHEN
+        enrich(cache, catalog, first, null);
+        clock.advance(Duration.ofMinutes(1));
+        enrich(cache, catalog, second, null);
+        clock.advance(Duration.ofMinutes(1));
+        var firstHit = cache.get(digest(first), EnrichmentOptions.DEFAULT);
+        enrich(cache, catalog, third, null);
+        var secondAfterEviction = cache.get(digest(second), EnrichmentOptions.DEFAULT);
+        clock.advance(Duration.ofMinutes(59));
+        var firstExpired = cache.get(digest(first), EnrichmentOptions.DEFAULT);
+        var thirdStillThere = cache.get(digest(third), EnrichmentOptions.DEFAULT);
+
+        // THEN
+        assertTrue(firstHit.isPresent());
+        assertTrue(secondAfterEviction.isEmpty());
+        assertTrue(firstExpired.isEmpty());
+        assertTrue(thirdStillThere.isPresent());
+        assertFalse(Files.exists(firstHit.get().getFile()));
+    }
+
+    @Test
+    void shouldNotCacheAnUploadWhichDoesNotMatchItsContentDigest(@TempDir Path directory) {
+        // GIVEN
+        var catalog = catalog();
+        var cache = cache(catalog, directory, 1 << 20, new MutableClock(), new SimpleMeterRegistry());
+        var announced = digest(TRADES + "20160101,2,EUR,30.0\n");
+
+        // WHEN
+        enrich(cache, catalog, TRADES, announced);
+
+        // THEN
+        assertTrue(cache.get(announced, EnrichmentOptions.DEFAULT).isEmpty());
+        assertTrue(cache.get(digest(TRADES), EnrichmentOptions.DEFAULT).isEmpty());
+    }
+
+    @Test
+    void shouldNotServeAnUnorderedOutputToAnOrderedRequest(@TempDir Path directory) {
+        // GIVEN
+        var catalog = catalog();
+        var cache = cache(catalog, directory, 1 << 20, new MutableClock(), new SimpleMeterRegistry());
+        var enricher = new MultiThreadEnricherService(2, catalog);
+        var ordered = EnrichmentOptions.builder().preserveOrder(true).build();
+        enrich(cache, enricher, TRADES, null, EnrichmentOptions.DEFAULT);
+
+        // WHEN
+        var orderedBeforeAnOrderedEnrichment = cache.get(digest(TRADES), ordered);
+        enrich(cache, enricher, TRADES, null, ordered);
+        var orderedAfterwards = cache.get(digest(TRADES), ordered);
+
+        // THEN
+        assertTrue(orderedBeforeAnOrderedEnrichment.isEmpty());
+        assertTrue(orderedAfterwards.isPresent());
+        assertTrue(cache.get(digest(TRADES), EnrichmentOptions.DEFAULT).isPresent());
+    }
+
+    @Test
+    @SneakyThrows
+    void shouldNotStoreTheOutputOfAFailedEnrichment(@TempDir Path directory) {
+        // GIVEN
+        var catalog = catalog();
+        var cache = cache(catalog, directory, 1 << 20, new MutableClock(), new SimpleMeterRegistry());
+        var trades = TRADES + "20160101,1,EUR," + "1".repeat(2048) + "\n" + TRADES.substring(TRADES.indexOf('\n') + 1);
+        var options = EnrichmentOptions.builder().chunkSize(1024).build();
+
+        // WHEN
+        assertThrows(IllegalArgumentException.class, () -> enrich(cache, new MultiThreadEnricherService(1, catalog), trades, null, options));
+
+        // THEN
+        assertTrue(cache.get(digest(trades), options).isEmpty());
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private static ProductCatalog catalog() {
+        return new ProductCatalog(Map.of(1L, "Treasury Bills", 2L, "Corporate Bonds"));
+    }
+
+    private static ResultCache cache(ProductCatalog catalog, Path directory, long maxBytes, Clock clock, SimpleMeterRegistry registry) {
+        return new ResultCache(true, catalog, directory.toString(), maxBytes, Duration.ofHours(1), registry, clock);
+    }
+
+    private static String enrich(ResultCache cache, ProductCatalog catalog, String trades, String expectedDigest) {
+        return enrich(cache, new EnricherService(catalog), trades, expectedDigest, EnrichmentOptions.DEFAULT);
+    }
+
+    /**
+     * Enriches the trades through a recording, the way the controller does on a miss
+     */
+    @SneakyThrows
+    private static String enrich(ResultCache cache, Enricher enricher, String trades, String expectedDigest, EnrichmentOptions options) {
+        var enriched = new ByteArrayOutputStream();
+        try (var recording = cache.record(expectedDigest, options)) {
+            var report = enricher.enrich(recording.output(enriched), recording.input(new ByteArrayInputStream(bytes(trades))), options);
+            recording.commit(report);
+        }
+        return enriched.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static String digest(String trades) {
+        return ResultCache.digest(new ByteArrayResource(bytes(trades)));
+    }
+
+    private static byte[] bytes(String trades) {
+        return trades.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @SneakyThrows
+    private static String read(Path file) {
+        return Files.readString(file, StandardCharsets.US_ASCII);
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
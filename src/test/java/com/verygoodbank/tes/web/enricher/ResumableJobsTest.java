@@ -0,0 +1,176 @@
+package com.verygoodbank.tes.web.enricher;
+
+import com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static com.verygoodbank.tes.web.enricher.TradeFixtures.HEADER;
+import static com.verygoodbank.tes.web.enricher.TradeFixtures.rows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResumableJobsTest {
+
+    private static final int CHECKPOINT_BYTES = 1024;
+
+    @Test
+    @SneakyThrows
+    void shouldResumeAFailedUploadFromTheLastCheckpoint(@TempDir Path directory) {
+        // GIVEN
+        var jobs = jobs(directory);
+        var job = jobs.create().getId();
+        var trades = trades(500);
+        var failAt = trades.length() * 2 / 3;
+
+        // WHEN
+        assertThrows(IOException.class, () -> jobs.upload(job, 0, failingAfter(trades, failAt), true, EnrichmentOptions.DEFAULT));
+        var checkpoint = jobs.checkpoint(job);
+        var resumed = jobs.upload(job, checkpoint.getInputOffset(), input(trades.substring((int) checkpoint.getInputOffset())), true,
+                EnrichmentOptions.DEFAULT);
+
+        // THEN
+        assertFalse(checkpoint.isComplete());
+        assertTrue(checkpoint.getInputOffset() > 0 && checkpoint.getInputOffset() <= failAt);
+        assertEquals('\n', trades.charAt((int) checkpoint.getInputOffset() - 1));
+        assertTrue(resumed.isComplete());
+        assertEquals(trades.length(), resumed.getInputOffset());
+        assertEquals(1, resumed.getRejectedRows());
+        assertEquals(enriched(500), rows(readOutput(jobs, job)));
+        assertEquals(Files.size(jobs.output(job)), resumed.getOutputOffset());
+    }
+
+    @Test
+    void shouldUploadTheIncompleteLastRowOfAPartAgainWithTheNextPart(@TempDir Path directory) {
+        // GIVEN
+        var jobs = jobs(directory);
+        var job = jobs.create().getId();
+        var trades = trades(100);
+        var partEnd = trades.indexOf('\n', trades.length() / 2) + 5;
+
+        // WHEN
+        var first = jobs.upload(job, 0, input(trades.substring(0, partEnd)), false, EnrichmentOptions.DEFAULT);
+        var second = jobs.upload(job, first.getInputOffset(), input(trades.substring((int) first.getInputOffset())), true, EnrichmentOptions.DEFAULT);
+
+        // THEN
+        assertEquals(partEnd - 4, first.getInputOffset());
+        assertFalse(first.isComplete());
+        assertTrue(second.isComplete());
+        assertEquals(enriched(100), rows(readOutput(jobs, job)));
+    }
+
+    @Test
+    void shouldRejectAnUploadAtAnotherOffsetThanTheCheckpoint(@TempDir Path directory) {
+        // GIVEN
+        var jobs = jobs(directory);
+        var job = jobs.create().getId();
+
+        // WHEN
+        var exception = assertThrows(IllegalArgumentException.class, () -> jobs.upload(job, 10, input(trades(1)), true, EnrichmentOptions.DEFAULT));
+
+        // THEN
+        assertEquals("Upload of job " + job + " has to continue at offset 0, got: 10", exception.getMessage());
+        assertThrows(JobStateException.class, () -> jobs.output(job));
+        assertThrows(UnknownJobException.class, () -> jobs.checkpoint("../" + job));
+    }
+
+    @Test
+    void shouldEnrichARangeWithARowLongerThanAChunkAfterItsBeginning(@TempDir Path directory) {
+        // GIVEN
+        var catalog = new ProductCatalog(Map.of(1L, "Treasury Bills", 2L, "Corporate Bonds"));
+        // only the first rows of a range are checked before the engine is picked
+        var enricher = new AdaptiveEnricher(new EnricherService(catalog), new MultiThreadEnricherService(2, catalog), new SimpleMeterRegistry(),
+                1024, 0);
+        var jobs = new ResumableJobs(enricher, directory.toString(), 4 * 8192);
+        var job = jobs.create().getId();
+        var longRow = "20160101,1,EUR," + "1".repeat(9000) + "\n";
+        var trades = insertAfterRow(trades(100), 50, longRow);
+
+        // WHEN
+        var checkpoint = jobs.upload(job, 0, input(trades), true, EnrichmentOptions.DEFAULT);
+
+        // THEN
+        assertTrue(checkpoint.isComplete());
+        assertEquals(trades.length(), checkpoint.getInputOffset());
+        assertEquals(insertAfterRow(enriched(100), 49, longRow.replace(",1,", ",Treasury Bills,")), rows(readOutput(jobs, job)));
+    }
+
+    private static ResumableJobs jobs(Path directory) {
+        var catalog = new ProductCatalog(Map.of(1L, "Treasury Bills", 2L, "Corporate Bonds"));
+        var enricher = new AdaptiveEnricher(new EnricherService(catalog), new MultiThreadEnricherService(2, catalog));
+        return new ResumableJobs(enricher, directory.toString(), CHECKPOINT_BYTES);
+    }
+
+    /**
+     * Rows with the row number as the price, the last one has an invalid date and no new line
+     */
+    private static String trades(int rows) {
+        var trades = new StringBuilder(HEADER);
+        for (int i = 0; i < rows; i++) {
+            trades.append("20160101,").append(i % 2 + 1).append(",EUR,").append(i).append('\n');
+        }
+        return trades.append("2016-01-01,1,EUR,10.0").toString();
+    }
+
+    private static String insertAfterRow(String trades, int row, String inserted) {
+        var at = 0;
+        for (int i = 0; i <= row; i++) {
+            at = trades.indexOf('\n', at) + 1;
+        }
+        return trades.substring(0, at) + inserted + trades.substring(at);
+    }
+
+    private static String enriched(int rows) {
+        var enriched = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            enriched.append("20160101,").append(i % 2 == 0 ? "Treasury Bills" : "Corporate Bonds").append(",EUR,").append(i).append('\n');
+        }
+        return enriched.toString();
+    }
+
+    @SneakyThrows
+    private static String readOutput(ResumableJobs jobs, String job) {
+        return Files.readString(jobs.output(job));
+    }
+
+    private static InputStream input(String trades) {
+        return new ByteArrayInputStream(trades.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Like a dropped connection - the first bytes are read, then the stream fails
+     */
+    private static InputStream failingAfter(String trades, int bytes) {
+        var input = input(trades.substring(0, bytes));
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                var read = input.read();
+                if (read == -1) {
+                    throw new IOException("Connection reset");
+                }
+                return read;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                var read = input.read(buffer, offset, length);
+                if (read == -1) {
+                    throw new IOException("Connection reset");
+                }
+                return read;
+            }
+        };
+    }
+}
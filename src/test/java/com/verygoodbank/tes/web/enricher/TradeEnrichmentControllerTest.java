@@ -0,0 +1,108 @@
+package com.verygoodbank.tes.web.enricher;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TradeEnrichmentControllerTest {
+
+    private static final String TRADES = "date,product_id,currency,price\n20160101,1,EUR,10.0\n20160101,2,EUR,20.1\n";
+    private static final String ENRICHED = "\"date\",\"product_name\",\"currency\",\"price\"\n20160101,Treasury Bills,EUR,10.0\n20160101,Corporate Bonds,EUR,20.1\n";
+
+    @Test
+    void shouldCacheThePlainOutputOfACompressedResponse(@TempDir Path directory) {
+        // GIVEN
+        var catalog = new ProductCatalog(Map.of(1L, "Treasury Bills", 2L, "Corporate Bonds"));
+        var cache = new ResultCache(true, catalog, directory.toString(), 1 << 20, Duration.ofHours(1), new SimpleMeterRegistry(), Clock.systemUTC());
+        var controller = new TradeEnrichmentController(new EnricherService(catalog), new CompressionStage(), null, cache);
+
+        // WHEN
+        var gzipMiss = post(controller, "gzip");
+        var identityHit = post(controller, null);
+        var gzipHit = post(controller, "gzip");
+
+        // THEN
+        assertEquals("enricher; fwd=miss", gzipMiss.getHeader("Cache-Status"));
+        assertEquals(ENRICHED, decompress(gzipMiss, Compression.GZIP));
+        assertEquals("enricher; hit", identityHit.getHeader("Cache-Status"));
+        assertNull(identityHit.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(ENRICHED, new String(identityHit.getContentAsByteArray(), StandardCharsets.US_ASCII));
+        assertEquals(ENRICHED.length(), identityHit.getContentLength());
+        assertEquals("enricher; hit", gzipHit.getHeader("Cache-Status"));
+        assertEquals(ENRICHED, decompress(gzipHit, Compression.GZIP));
+    }
+
+    @Test
+    @SneakyThrows
+    void shouldSendAHitEvictedBeforeItsBodyIsWritten(@TempDir Path directory) {
+        // GIVEN
+        var catalog = new ProductCatalog(Map.of(1L, "Treasury Bills", 2L, "Corporate Bonds"));
+        var cache = new ResultCache(true, catalog, directory.toString(), 1 << 20, Duration.ofHours(1), new SimpleMeterRegistry(), Clock.systemUTC());
+        var controller = new TradeEnrichmentController(new EnricherService(catalog), new CompressionStage(), null, cache);
+        post(controller, null);
+        var hit = controller.processBody(request(), EnrichmentOptions.DEFAULT, null, null, contentDigest(), new MockHttpServletResponse());
+
+        // WHEN
+        try (var files = Files.list(directory)) {
+            files.map(Path::toFile).forEach(FileSystemUtils::deleteRecursively);
+        }
+        var output = new ByteArrayOutputStream();
+        hit.getBody().writeTo(output);
+
+        // THEN
+        assertEquals(ENRICHED.length(), hit.getHeaders().getContentLength());
+        assertEquals(ENRICHED, output.toString(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Posts the trades as the request body with their Content-Digest, so a repeated post is served from the cache
+     */
+    @SneakyThrows
+    private static MockHttpServletResponse post(TradeEnrichmentController controller, String acceptEncoding) {
+        var response = new MockHttpServletResponse();
+        var entity = controller.processBody(request(), EnrichmentOptions.DEFAULT, null, acceptEncoding, contentDigest(), response);
+        entity.getHeaders().forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+        entity.getBody().writeTo(response.getOutputStream());
+        return response;
+    }
+
+    private static MockHttpServletRequest request() {
+        var request = new MockHttpServletRequest("POST", "/api/v1/enrich");
+        request.setContentType("text/csv");
+        request.setContent(TRADES.getBytes(StandardCharsets.US_ASCII));
+        return request;
+    }
+
+    @SneakyThrows
+    private static String contentDigest() {
+        var digest = MessageDigest.getInstance("SHA-256").digest(TRADES.getBytes(StandardCharsets.US_ASCII));
+        return "sha-256=:" + Base64.getEncoder().encodeToString(digest) + ":";
+    }
+
+    @SneakyThrows
+    private static String decompress(MockHttpServletResponse response, Compression compression) {
+        assertEquals(compression.getContentEncoding(), response.getHeader(HttpHeaders.CONTENT_ENCODING));
+        var plain = new ByteArrayOutputStream();
+        compression.decompress(new ByteArrayInputStream(response.getContentAsByteArray())).transferTo(plain);
+        return plain.toString(StandardCharsets.US_ASCII);
+    }
+}
@@ -2,39 +2,74 @@ package com.verygoodbank.tes.web.enricher;
 
 import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
-import com.verygoodbank.tes.web.enricher.concurrenct.BytesProductNameResolver;
 import com.verygoodbank.tes.web.enricher.concurrenct.MultiThreadEnricherService;
+import com.verygoodbank.tes.web.enricher.concurrenct.WaitStrategies;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.experimental.FieldDefaults;
 import org.apache.tomcat.util.http.fileupload.ByteArrayOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SynchronousSink;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
 import static com.verygoodbank.tes.web.enricher.EnricherService.DATE_FORMAT;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class TradeEnrichmentServiceApplicationTests {
 
+    private static final EnrichmentOptions ORDERED = EnrichmentOptions.builder()
+            .preserveOrder(true)
+            .build();
+    private static final EnrichmentOptions ORDERED_DIRECT_SMALL_POOL = EnrichmentOptions.builder()
+            .preserveOrder(true)
+            .directBuffers(true)
+            .chunkPoolSize(2)
+            .build();
+    private static final EnrichmentOptions ORDERED_SMALL_CHUNKS = EnrichmentOptions.builder()
+            .preserveOrder(true)
+            .chunkSize(1024)
+            .build();
+
     @ParameterizedTest(name = "{0}")
     @MethodSource(value = "enrichers")
     void shouldEnrichTradeUsingProductName(EnricherCreator enricherCreator) {
@@ -57,13 +92,13 @@ class TradeEnrichmentServiceApplicationTests {
         var p1 = findWithName(enriched, "P1");
         assertEquals(LocalDate.of(2010, 1, 1), p1.getDate());
         assertEquals("EUR", p1.getCurrency());
-        assertThat(new BigDecimal("10")).isEqualByComparingTo(p1.getPrice());
+        assertThat(new BigDecimal("10")).isEqualByComparingTo(new BigDecimal(p1.getPrice()));
 
 
         var p2 = findWithName(enriched, "P2");
         assertEquals(LocalDate.of(2010, 2, 1), p2.getDate());
         assertEquals("USD", p2.getCurrency());
-        assertThat(new BigDecimal("5")).isEqualByComparingTo(p2.getPrice());
+        assertThat(new BigDecimal("5")).isEqualByComparingTo(new BigDecimal(p2.getPrice()));
     }
 
     @ParameterizedTest(name = "{0}")
@@ -170,6 +205,377 @@ class TradeEnrichmentServiceApplicationTests {
         inputStream.close();
     }
 
+    @ParameterizedTest(name = "{0}")
+    @MethodSource(value = "orderPreservingEnrichers")
+    void shouldPreserveInputOrder(EnricherCreator enricherCreator) {
+        // GIVEN
+        var rows = 50_000;
+        var tradeRows = trades(rows);
+        var enricher = enricherCreator.create(productNames(rows));
+
+        // WHEN
+        var enrichedOutputStream = new ByteArrayOutputStream();
+        enricher.enrich(enrichedOutputStream, createFrom(tradeRows));
+        var enriched = fromOutputStream(enrichedOutputStream);
+
+        // THEN
+        assertEquals(rows, enriched.size());
+        for (int i = 0; i < rows; i++) {
+            assertEquals("P" + i, enriched.get(i).getProductName());
+        }
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource(value = "enrichers")
+    @SneakyThrows
+    void shouldEnrichMoreUploadsInParallelThanWorkers(EnricherCreator enricherCreator) {
+        // GIVEN
+        var uploads = 8;
+        var rows = 10_000;
+        var tradeRows = new String[rows][];
+        for (int i = 0; i < rows; i++) {
+            tradeRows[i] = new String[]{"20100101", "1", "EUR", "10.0"};
+        }
+        var enricher = enricherCreator.create(Map.of(1L, "P1"));
+
+        // WHEN
+        var executor = Executors.newFixedThreadPool(uploads);
+        var results = new ArrayList<Future<List<EnrichedTrade>>>();
+        for (int i = 0; i < uploads; i++) {
+            results.add(executor.submit(() -> {
+                var enrichedOutputStream = new ByteArrayOutputStream();
+                enricher.enrich(enrichedOutputStream, createFrom(tradeRows));
+                return fromOutputStream(enrichedOutputStream);
+            }));
+        }
+        executor.shutdown();
+
+        // THEN
+        for (var result : results) {
+            assertEquals(rows, result.get(30, TimeUnit.SECONDS).size());
+        }
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource(value = "enrichers")
+    void shouldReportBadRowsInsteadOfLoggingThem(EnricherCreator enricherCreator) {
+        // GIVEN
+        var enricher = enricherCreator.create(Map.of(1L, "P1"));
+        var tradesInputStream = createFrom(
+                new String[]{"20100101", "1", "EUR", "10.0"},
+                new String[]{"2010-01-01", "1", "EUR", "10.0"},
+                new String[]{"20100101", "1", "EUR"},
+                new String[]{"20100101", "9", "EUR", "10.0"},
+                new String[]{"20100101", "9", "USD", "20.0"});
+
+        // WHEN
+        var report = enricher.enrich(new ByteArrayOutputStream(), tradesInputStream, EnrichmentOptions.DEFAULT);
+
+        // THEN
+        assertEquals(2, report.rejectedRows());
+        assertEquals(1, report.count(RejectionReport.Reason.INVALID_DATE));
+        assertEquals(1, report.count(RejectionReport.Reason.INVALID_COLUMN_COUNT));
+        assertEquals(2, report.count(RejectionReport.Reason.MISSING_PRODUCT));
+        assertArrayEquals(new long[]{9}, report.missingProductIds());
+        assertThat(report.samples()).containsExactlyInAnyOrder("INVALID_DATE: 2010-01-01,1,EUR,10.0", "INVALID_COLUMN_COUNT: 20100101,1,EUR");
+        assertEquals("2", report.toTrailers().get("Rejected-Rows"));
+        assertEquals("9", report.toTrailers().get("Missing-Product-Ids"));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource(value = "enrichers")
+    void shouldRejectRowsBreakingTheColumnRules(EnricherCreator enricherCreator) {
+        // GIVEN
+        var enricher = enricherCreator.create(Map.of(1L, "P1"));
+        var tradesInputStream = createFrom(
+                new String[]{"20100101", "1", "EUR", "10.0"},
+                new String[]{"20100101", "-1", "EUR", "10.0"},
+                new String[]{"20100101", "1a", "EUR", "10.0"},
+                new String[]{"20100101", "1234567890123456789", "EUR", "10.0"},
+                new String[]{"20100101", "1", "eur", "10.0"},
+                new String[]{"20100101", "1", "EURO", "10.0"},
+                new String[]{"20100101", "1", "", "10.0"},
+                new String[]{"20100101", "1", "EUR", "1e3"},
+                new String[]{"20100101", "1", "EUR", "+1"},
+                new String[]{"20100101", "1", "EUR", ".5"},
+                new String[]{"20100101", "1", "EUR", "5."},
+                new String[]{"20100101", "1", "EUR", ""},
+                new String[]{"20100230", "1", "EUR", "10.0"},
+                new String[]{"201001011", "1", "EUR", "10.0"},
+                new String[]{"20100101", "1", "USD", "-0.000001"});
+
+        // WHEN
+        var enrichedOutputStream = new ByteArrayOutputStream();
+        var report = enricher.enrich(enrichedOutputStream, tradesInputStream, EnrichmentOptions.DEFAULT);
+        var enriched = fromOutputStream(enrichedOutputStream);
+
+        // THEN
+        assertThat(enriched).extracting(EnrichedTrade::getPrice).containsExactlyInAnyOrder("10.0", "-0.000001");
+        assertEquals(2, report.count(RejectionReport.Reason.INVALID_DATE));
+        assertEquals(3, report.count(RejectionReport.Reason.INVALID_PRODUCT_ID));
+        assertEquals(3, report.count(RejectionReport.Reason.INVALID_CURRENCY));
+        assertEquals(5, report.count(RejectionReport.Reason.INVALID_PRICE));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource(value = "engines")
+    void shouldApplyTheValidationRulesOfTheRequest(EnricherCreator enricherCreator) {
+        // GIVEN
+        var enricher = enricherCreator.create(Map.of(1L, "P1"));
+        String[][] trades = {
+                {"20100101", "1", "EUR", "10.0"},
+                {"20100101", "1", "USD", "10.0"},
+                {"20100101", "1", "usd", "1e3"}};
+        var allowList = EnrichmentOptions.builder().validation(ValidationRules.of(false, true, "EUR, GBP")).build();
+        var lenient = EnrichmentOptions.builder().validation(ValidationRules.LENIENT).build();
+
+        // WHEN
+        var allowListOutput = new ByteArrayOutputStream();
+        var allowListReport = enricher.enrich(allowListOutput, createFrom(trades), allowList);
+        var lenientOutput = new ByteArrayOutputStream();
+        var lenientReport = enricher.enrich(lenientOutput, createFrom(trades), lenient);
+
+        // THEN
+        assertThat(fromOutputStream(allowListOutput)).extracting(EnrichedTrade::getCurrency).containsExactly("EUR");
+        assertEquals(2, allowListReport.count(RejectionReport.Reason.INVALID_CURRENCY));
+        assertThat(fromOutputStream(lenientOutput)).extracting(EnrichedTrade::getPrice).containsExactlyInAnyOrder("10.0", "10.0", "1e3");
+        assertTrue(lenientReport.isEmpty());
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource(value = "orderPreservingEnrichers")
+    void shouldNotSplitRowsWhenTheInputArrivesInSmallReads(EnricherCreator enricherCreator) {
+        // GIVEN
+        var rows = 5_000;
+        var tradeRows = trades(rows);
+        var enricher = enricherCreator.create(productNames(rows));
+
+        // WHEN
+        var enrichedOutputStream = new ByteArrayOutputStream();
+        enricher.enrich(enrichedOutputStream, trickling(createFrom(tradeRows), 7));
+        var enriched = fromOutputStream(enrichedOutputStream);
+
+        // THEN
+        assertEquals(rows, enriched.size());
+        for (int i = 0; i < rows; i++) {
+            assertEquals("P" + i, enriched.get(i).getProductName());
+        }
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource(value = "enrichers")
+    @SneakyThrows
+    void shouldEnrichFileIntoFile(EnricherCreator enricherCreator, @TempDir Path directory) {
+        // GIVEN
+        var rows = 100_000;
+        var tradeRows = trades(rows);
+        var enricher = enricherCreator.create(productNames(rows));
+        var input = directory.resolve("trades.csv");
+        var output = directory.resolve("enriched.csv");
+        try (var trades = createFrom(tradeRows)) {
+            Files.copy(trades, input);
+        }
+
+        // WHEN
+        var report = enricher.enrich(input, output, EnrichmentOptions.DEFAULT);
+
+        // THEN
+        var enrichedOutputStream = new ByteArrayOutputStream();
+        Files.copy(output, enrichedOutputStream);
+        var enriched = fromOutputStream(enrichedOutputStream);
+        assertTrue(report.isEmpty());
+        assertEquals(rows, enriched.size());
+        for (int i = 0; i < rows; i++) {
+            assertEquals("P" + i, enriched.get(i).getProductName());
+        }
+        try (var files = Files.list(directory)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource(value = "enrichers")
+    void shouldEnrichQuotedFieldsAndWindowsLineEndings(EnricherCreator enricherCreator) {
+        // GIVEN
+        var rows = 2_000;
+        var enricher = enricherCreator.create(productNames(rows + 1));
+        var trades = windowsTrades(rows, 500).getBytes(StandardCharsets.US_ASCII);
+
+        // WHEN
+        var enrichedOutputStream = new ByteArrayOutputStream();
+        var report = enricher.enrich(enrichedOutputStream, trickling(new ByteArrayInputStream(trades), 7), EnrichmentOptions.DEFAULT);
+
+        // THEN
+        assertWindowsTradesEnriched(rows, 500, enrichedOutputStream, report);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource(value = "enrichers")
+    @SneakyThrows
+    void shouldEnrichQuotedAndWindowsFilesIntoFiles(EnricherCreator enricherCreator, @TempDir Path directory) {
+        // GIVEN
+        var rows = 2_000;
+        var enricher = enricherCreator.create(productNames(rows + 1));
+        var windows = directory.resolve("windows.csv");
+        var quoted = directory.resolve("quoted.csv");
+        Files.writeString(windows, windowsTrades(rows, rows), StandardCharsets.US_ASCII);
+        Files.writeString(quoted, windowsTrades(rows, 0), StandardCharsets.US_ASCII);
+
+        // WHEN
+        var windowsReport = enricher.enrich(windows, directory.resolve("windows-enriched.csv"), EnrichmentOptions.DEFAULT);
+        var quotedReport = enricher.enrich(quoted, directory.resolve("quoted-enriched.csv"), EnrichmentOptions.DEFAULT);
+
+        // THEN
+        var windowsOutput = new ByteArrayOutputStream();
+        Files.copy(directory.resolve("windows-enriched.csv"), windowsOutput);
+        assertWindowsTradesEnriched(rows, rows, windowsOutput, windowsReport);
+        var quotedOutput = new ByteArrayOutputStream();
+        Files.copy(directory.resolve("quoted-enriched.csv"), quotedOutput);
+        assertWindowsTradesEnriched(rows, 0, quotedOutput, quotedReport);
+    }
+
+    @Test
+    @SneakyThrows
+    void shouldEnrichOtherUploadsWhileAClientIsStalled() {
+        // GIVEN
+        var enricher = new MultiThreadEnricherService(1, new ProductCatalog(Map.of(1L, "P1")));
+        var tradeRows = new String[10_000][];
+        Arrays.fill(tradeRows, new String[]{"20100101", "1", "EUR", "10.0"});
+        var stalled = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var stalledClient = new OutputStream() {
+            @Override
+            @SneakyThrows
+            public void write(int b) {
+                stalled.countDown();
+                release.await();
+            }
+        };
+        var executor = Executors.newFixedThreadPool(2);
+
+        // WHEN
+        var stalledUpload = executor.submit(() -> enricher.enrich(stalledClient, createFrom(tradeRows)));
+        assertTrue(stalled.await(10, TimeUnit.SECONDS));
+        var otherUpload = executor.submit(() -> {
+            var enrichedOutputStream = new ByteArrayOutputStream();
+            enricher.enrich(enrichedOutputStream, createFrom(tradeRows));
+            return fromOutputStream(enrichedOutputStream);
+        });
+
+        // THEN
+        try {
+            assertEquals(tradeRows.length, otherUpload.get(10, TimeUnit.SECONDS).size());
+        } finally {
+            release.countDown();
+            stalledUpload.get(10, TimeUnit.SECONDS);
+            executor.shutdown();
+        }
+    }
+
+    @ParameterizedTest(name = "ordered: {0}")
+    @ValueSource(booleans = {false, true})
+    void shouldFailInsteadOfTruncatingTheOutputWhenARowIsLongerThanTheChunkSize(boolean ordered) {
+        // GIVEN
+        var enricher = new MultiThreadEnricherService(2, new ProductCatalog(productNames(1)));
+        var options = EnrichmentOptions.builder().preserveOrder(ordered).chunkSize(1024).build();
+        var trades = new StringBuilder("date,product_id,currency,price\n");
+        for (int i = 0; i < 1_000; i++) {
+            trades.append(i == 500 ? "20100101,0,EUR," + "1".repeat(2048) + "\n" : "20100101,0,EUR,10.0\n");
+        }
+        var input = new ByteArrayInputStream(trades.toString().getBytes(StandardCharsets.US_ASCII));
+
+        // WHEN
+        var exception = assertThrows(IllegalArgumentException.class, () -> enricher.enrich(new ByteArrayOutputStream(), input, options));
+
+        // THEN
+        assertEquals("Row longer than the chunk size of 1024 bytes", exception.getMessage());
+    }
+
+    @Test
+    void shouldQuoteLenientFieldsTheSameWayInBothEngines() {
+        // GIVEN
+        var catalog = new ProductCatalog(Map.of(1L, "P1"));
+        var lenient = EnrichmentOptions.builder().validation(ValidationRules.LENIENT).build();
+        var trades = ("date,product_id,currency,price\n"
+                + "\"20100101\",1,\"E,UR\",\"1,5\"\n"
+                + "20100101,\"1\",\"E\"\"U\nR\",10.0\r\n"
+                + "20100101,1,EUR,\"10.0\"\n").getBytes(StandardCharsets.US_ASCII);
+
+        // WHEN
+        var serialOutput = new ByteArrayOutputStream();
+        new EnricherService(catalog).enrich(serialOutput, new ByteArrayInputStream(trades), lenient);
+        var concurrentOutput = new ByteArrayOutputStream();
+        new MultiThreadEnricherService(2, catalog).enrich(concurrentOutput, new ByteArrayInputStream(trades), lenient);
+
+        // THEN
+        var rows = "20100101,P1,\"E,UR\",\"1,5\"\n20100101,P1,\"E\"\"U\nR\",10.0\n20100101,P1,EUR,10.0\n";
+        assertEquals(rows, withoutHeader(serialOutput));
+        assertEquals(rows, withoutHeader(concurrentOutput));
+    }
+
+    /**
+     * The engines quote the header differently
+     */
+    private static String withoutHeader(ByteArrayOutputStream enriched) {
+        var output = new String(enriched.toByteArray(), StandardCharsets.US_ASCII);
+        return output.substring(output.indexOf('\n') + 1);
+    }
+
+    /**
+     * Rows end with {@code \r\n} (some with {@code \n}) and the last one has no line ending. From {@code quotedFrom} fields are quoted,
+     * every fourth of those rows has a currency with a comma and a new line inside
+     */
+    private static String windowsTrades(int rows, int quotedFrom) {
+        var trades = new StringBuilder(quotedFrom == 0 ? "\"date\",\"product_id\",\"currency\",\"price\"\r\n" : "date,product_id,currency,price\r\n");
+        for (int i = 0; i < rows; i++) {
+            if (i < quotedFrom) {
+                trades.append("20100101,%d,EUR,%d.5\r\n".formatted(i, i));
+                continue;
+            }
+            switch (i % 4) {
+                case 0 -> trades.append("\"20100101\",\"%d\",\"EUR\",\"%d.5\"\r\n".formatted(i, i));
+                case 1 -> trades.append("20100101,%d,\"EUR\",%d.5\n".formatted(i, i));
+                case 2 -> trades.append("20100101,%d,\"E,U\r\nR\",%d.5\r\n".formatted(i, i));
+                default -> trades.append("20100101,\"%d\",EUR,\"%d.5\"\r\n".formatted(i, i));
+            }
+        }
+        return trades.append("20100101,%d,EUR,%d.5".formatted(rows, rows)).toString();
+    }
+
+    private void assertWindowsTradesEnriched(int rows, int quotedFrom, ByteArrayOutputStream enrichedOutputStream, RejectionReport report) {
+        var expectedNames = new ArrayList<String>();
+        for (int i = 0; i <= rows; i++) {
+            if (i < quotedFrom || i % 4 != 2 || i == rows) {
+                expectedNames.add("P" + i);
+            }
+        }
+        var enriched = fromOutputStream(enrichedOutputStream);
+        assertFalse(enrichedOutputStream.toString().contains("\r"));
+        assertThat(enriched).extracting(EnrichedTrade::getProductName).containsExactlyInAnyOrderElementsOf(expectedNames);
+        assertThat(enriched).allSatisfy(trade -> assertEquals(trade.getProductName().substring(1) + ".5", trade.getPrice()));
+        assertEquals(rows + 1 - expectedNames.size(), report.count(RejectionReport.Reason.INVALID_CURRENCY));
+        assertEquals(rows + 1 - expectedNames.size(), report.rejectedRows());
+    }
+
+    /**
+     * Valid rows, the i-th one has the product id i - {@link #productNames(int)} names it "P" + i
+     */
+    private static String[][] trades(int rows) {
+        var tradeRows = new String[rows][];
+        for (int i = 0; i < rows; i++) {
+            tradeRows[i] = new String[]{"20100101", String.valueOf(i), "EUR", "10.0"};
+        }
+        return tradeRows;
+    }
+
+    private static Map<Long, String> productNames(int products) {
+        var productNames = new HashMap<Long, String>();
+        for (int i = 0; i < products; i++) {
+            productNames.put((long) i, "P" + i);
+        }
+        return productNames;
+    }
+
     private EnrichedTrade findWithName(List<EnrichedTrade> trades, String name) {
         return trades.stream()
                 .filter(it -> it.getProductName().equals(name))
@@ -188,6 +594,23 @@ class TradeEnrichmentServiceApplicationTests {
         return new ByteArrayInputStream(out.toByteArray());
     }
 
+    /**
+     * Returns at most {@code maxRead} bytes per read and nothing is ever available upfront, the way a request body arrives from a socket
+     */
+    private static InputStream trickling(InputStream inputStream, int maxRead) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, maxRead));
+            }
+
+            @Override
+            public int available() {
+                return 0;
+            }
+        };
+    }
+
     @SneakyThrows
     private List<EnrichedTrade> fromOutputStream(ByteArrayOutputStream outputStream) {
         CSVReader csvReader = new CSVReader(new InputStreamReader(new ByteArrayInputStream(outputStream.toByteArray())));
@@ -204,14 +627,122 @@ class TradeEnrichmentServiceApplicationTests {
                 .date(LocalDate.parse(csvRecord[0], DATE_FORMAT))
                 .productName(csvRecord[1])
                 .currency(csvRecord[2])
-                .price(new BigDecimal(csvRecord[3]))
+                .price(csvRecord[3])
                 .build();
     }
 
     private static Stream<Arguments> enrichers() {
         return Stream.of(
-                Arguments.of(new NamedEnricher(mappings -> new EnricherService(new ProductNameResolver(mappings)), "SIMPLE_ENRICHER")),
-                Arguments.of(new NamedEnricher(mappings -> new MultiThreadEnricherService(1, new BytesProductNameResolver(mappings)), "CONCURRENT_ENRICHER")));
+                Arguments.of(new NamedEnricher(mappings -> new EnricherService(new ProductCatalog(mappings)), "SIMPLE_ENRICHER")),
+                Arguments.of(new NamedEnricher(mappings -> new MultiThreadEnricherService(1, new ProductCatalog(mappings)), "CONCURRENT_ENRICHER")),
+                Arguments.of(new NamedEnricher(mappings -> withOptions(new MultiThreadEnricherService(4, new ProductCatalog(mappings)), ORDERED), "CONCURRENT_ORDERED_ENRICHER")),
+                Arguments.of(new NamedEnricher(mappings -> withOptions(new MultiThreadEnricherService(4, new ProductCatalog(mappings)), ORDERED_DIRECT_SMALL_POOL), "CONCURRENT_ORDERED_DIRECT_SMALL_POOL_ENRICHER")),
+                Arguments.of(new NamedEnricher(mappings -> withOptions(new MultiThreadEnricherService(4, new ProductCatalog(mappings),
+                        waitStrategies("blocking", "blocking")), ORDERED_DIRECT_SMALL_POOL), "CONCURRENT_ORDERED_BLOCKING_ENRICHER")),
+                Arguments.of(new NamedEnricher(mappings -> withOptions(new MultiThreadEnricherService(4, new ProductCatalog(mappings),
+                        waitStrategies("busy-spin", "blocking")), ORDERED_SMALL_CHUNKS), "CONCURRENT_ORDERED_MIXED_WAITS_SMALL_CHUNKS_ENRICHER")),
+                Arguments.of(new NamedEnricher(mappings -> withOptions(new MultiThreadEnricherService(4, new ProductCatalog(mappings),
+                        waitStrategies("spin-then-park", "spin-then-park"), "scalar"), ORDERED), "CONCURRENT_ORDERED_SCALAR_SCANNER_ENRICHER")),
+                Arguments.of(new NamedEnricher(mappings -> inline(new MultiThreadEnricherService(4, new ProductCatalog(mappings))), "CONCURRENT_INLINE_ENRICHER")),
+                Arguments.of(new NamedEnricher(mappings -> withOptions(new MultiThreadEnricherService(4, new ProductCatalog(mappings),
+                        waitStrategies("spin-then-park", "spin-then-park"), "swar", EnrichmentMetrics.disabled("concurrent"), true), ORDERED_SMALL_CHUNKS),
+                        "CONCURRENT_ORDERED_SENDER_THREADS_SMALL_CHUNKS_ENRICHER")),
+                Arguments.of(new NamedEnricher(mappings -> reactive(new MultiThreadEnricherService(4, new ProductCatalog(mappings)), EnrichmentOptions.DEFAULT),
+                        "REACTIVE_ENRICHER")),
+                Arguments.of(new NamedEnricher(mappings -> reactive(new MultiThreadEnricherService(4, new ProductCatalog(mappings)), ORDERED_SMALL_CHUNKS),
+                        "REACTIVE_ORDERED_SMALL_CHUNKS_ENRICHER")),
+                Arguments.of(new NamedEnricher(mappings -> adaptive(new ProductCatalog(mappings)), "ADAPTIVE_ENRICHER")));
+    }
+
+    private static WaitStrategies waitStrategies(String dispatcher, String sender) {
+        return new WaitStrategies(dispatcher, sender, 10, 10, 10_000, 100_000);
+    }
+
+    /**
+     * Both engines without wrappers, so the options of the request are used as they are
+     */
+    private static Stream<Arguments> engines() {
+        return enrichers().filter(it -> Set.of("SIMPLE_ENRICHER", "CONCURRENT_ENRICHER").contains(it.get()[0].toString()));
+    }
+
+    private static Stream<Arguments> orderPreservingEnrichers() {
+        return enrichers().filter(it -> !Set.of("CONCURRENT_ENRICHER", "REACTIVE_ENRICHER", "ADAPTIVE_ENRICHER").contains(it.get()[0].toString()));
+    }
+
+    private static Enricher withOptions(Enricher enricher, EnrichmentOptions options) {
+        return (outputStream, inputStream, ignored) -> enricher.enrich(outputStream, inputStream, options);
+    }
+
+    /**
+     * The non-blocking pipeline behind the blocking interface, the input is read as a flow of small buffers.
+     * Files are enriched by the engine itself, the same as without the wrapper
+     */
+    private static Enricher reactive(MultiThreadEnricherService enricher, EnrichmentOptions options) {
+        return new Enricher() {
+            @Override
+            public RejectionReport enrich(OutputStream outputStream, InputStream inputStream, EnrichmentOptions ignored) {
+                return enrichReactive(enricher, outputStream, inputStream, options);
+            }
+
+            @Override
+            public RejectionReport enrich(Path input, Path output, EnrichmentOptions ignored) {
+                return enricher.enrich(input, output, options);
+            }
+        };
+    }
+
+    @SneakyThrows
+    private static RejectionReport enrichReactive(MultiThreadEnricherService enricher, OutputStream outputStream, InputStream inputStream,
+                                                  EnrichmentOptions options) {
+        if (outputStream == null) {
+            throw new IllegalArgumentException("Output stream cannot be null");
+        }
+        var report = new RejectionReport();
+        var trades = inputStream == null ? null : Flux.<ByteBuf>generate(sink -> readInto(sink, inputStream));
+        try (outputStream) {
+            enricher.enrich(trades, report, options, ByteBufAllocator.DEFAULT)
+                    .doOnNext(buffer -> writeAndRelease(buffer, outputStream))
+                    .blockLast();
+        }
+        return report;
+    }
+
+    @SneakyThrows
+    private static void readInto(SynchronousSink<ByteBuf> sink, InputStream inputStream) {
+        var bytes = inputStream.readNBytes(3000);
+        if (bytes.length == 0) {
+            sink.complete();
+        } else {
+            sink.next(Unpooled.wrappedBuffer(bytes));
+        }
+    }
+
+    @SneakyThrows
+    private static void writeAndRelease(ByteBuf buffer, OutputStream outputStream) {
+        try {
+            buffer.readBytes(outputStream, buffer.readableBytes());
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static Enricher adaptive(ProductCatalog catalog) {
+        return new AdaptiveEnricher(new EnricherService(catalog), new MultiThreadEnricherService(4, catalog));
+    }
+
+    /**
+     * Passes the real input size, so every input is below the inline threshold
+     */
+    private static Enricher inline(Enricher enricher) {
+        return (outputStream, inputStream, ignored) -> enricher.enrich(outputStream, inputStream, EnrichmentOptions.builder()
+                .inputSize(available(inputStream))
+                .inlineThreshold(Long.MAX_VALUE)
+                .build());
+    }
+
+    @SneakyThrows
+    private static long available(InputStream inputStream) {
+        return inputStream == null ? EnrichmentOptions.UNKNOWN_SIZE : inputStream.available();
     }
 
     @FunctionalInterface
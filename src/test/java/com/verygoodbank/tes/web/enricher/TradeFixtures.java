@@ -0,0 +1,20 @@
+package com.verygoodbank.tes.web.enricher;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Trade input and output shared by the enricher tests
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class TradeFixtures {
+
+    static final String HEADER = "date,product_id,currency,price\n";
+
+    /**
+     * Engines quote the header differently, so outputs are compared without it
+     */
+    static String rows(String enriched) {
+        return enriched.substring(enriched.indexOf('\n') + 1);
+    }
+}
@@ -0,0 +1,51 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import com.verygoodbank.tes.web.enricher.EnrichmentMetrics;
+import com.verygoodbank.tes.web.enricher.ProductIndex;
+import com.verygoodbank.tes.web.enricher.RejectionReport;
+import com.verygoodbank.tes.web.enricher.ValidationRules;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChunkDispatcherTest {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    @Test
+    void shouldFailWithAnOverloadWhenTheWorkerPoolIsSaturated() {
+        // GIVEN
+        var registry = new SimpleMeterRegistry();
+        var metrics = new EnrichmentMetrics(registry, "concurrent");
+        var waits = WaitStrategies.of(WaitStrategies.Type.SPIN_THEN_PARK).newPipelineWaits();
+        var chunkPool = new ChunkPool(ChunkPool.MIN_CAPACITY, CHUNK_SIZE, ChunkProcessor.outputBufferSize(CHUNK_SIZE), false, waits.getDispatcher());
+        var report = new RejectionReport();
+        var output = new ByteArrayOutputStream();
+        Executor saturated = task -> {
+            throw new RejectedExecutionException("Queue capacity exceeded");
+        };
+        var rowEnricher = new RowEnricher(new BytesProductNameResolver(ProductIndex.fromMap(Map.of(1L, "P1"))), report, RowScanner.SWAR,
+                ValidationRules.STRICT);
+        var chunkProcessor = new ChunkProcessor(saturated, Runnable::run, chunkPool, new Sender(output, waits.getSender(), metrics), rowEnricher,
+                report, waits.getDispatcher(), metrics);
+        var trades = "date,product_id,currency,price\n" + "20100101,1,EUR,10.0\n".repeat(500);
+        var dispatcher = new ChunkDispatcher(chunkPool, chunkProcessor, new ByteArrayInputStream(trades.getBytes(StandardCharsets.US_ASCII)), metrics);
+
+        // WHEN
+        assertThrows(SystemOverloadedException.class, dispatcher::dispatch);
+        chunkProcessor.awaitCompletion();
+
+        // THEN
+        assertEquals(0, output.size());
+        assertEquals(1, registry.get("enricher.overloads").functionCounter().count());
+    }
+}
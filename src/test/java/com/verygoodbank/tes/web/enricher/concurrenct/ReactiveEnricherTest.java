@@ -0,0 +1,80 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import com.verygoodbank.tes.web.enricher.EnrichmentOptions;
+import com.verygoodbank.tes.web.enricher.ProductCatalog;
+import com.verygoodbank.tes.web.enricher.RejectionReport;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.IllegalReferenceCountException;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Hooks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReactiveEnricherTest {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    @Test
+    void shouldReleaseAReceivedBufferOnceWhenARowIsLongerThanAChunk() {
+        // GIVEN
+        var enricher = new MultiThreadEnricherService(2, new ProductCatalog(Map.of(1L, "Treasury Bills")));
+        var options = EnrichmentOptions.builder().chunkSize(CHUNK_SIZE).build();
+        var trades = "date,product_id,currency,price\n20160101,1,EUR," + "1".repeat(2 * CHUNK_SIZE) + "\n";
+        var received = Unpooled.copiedBuffer(trades, StandardCharsets.US_ASCII);
+        var failures = new CopyOnWriteArrayList<Throwable>();
+        Hooks.onErrorDropped(failures::add);
+
+        // WHEN
+        IllegalArgumentException exception;
+        try {
+            exception = assertThrows(IllegalArgumentException.class,
+                    () -> enricher.enrich(receivedByNetty(received, failures), new RejectionReport(), options, ByteBufAllocator.DEFAULT).blockLast());
+        } finally {
+            Hooks.resetOnErrorDropped();
+        }
+
+        // THEN
+        assertEquals("Row longer than the chunk size of " + CHUNK_SIZE + " bytes", exception.getMessage());
+        assertEquals(0, received.refCnt());
+        assertEquals(List.of(), failures);
+    }
+
+    /**
+     * Emits the buffer the way Reactor Netty emits a retained request body - retained for the subscriber and released
+     * once more right after {@code onNext}
+     */
+    private static Flux<ByteBuf> receivedByNetty(ByteBuf buffer, List<Throwable> failures) {
+        return Flux.from(subscriber -> subscriber.onSubscribe(new Subscription() {
+            private boolean emitted;
+
+            @Override
+            public void request(long n) {
+                if (emitted) {
+                    return;
+                }
+                emitted = true;
+                subscriber.onNext(buffer.retain());
+                try {
+                    buffer.release();
+                } catch (IllegalReferenceCountException e) {
+                    failures.add(e);
+                }
+                subscriber.onComplete();
+            }
+
+            @Override
+            public void cancel() {
+            }
+        }));
+    }
+}
@@ -0,0 +1,159 @@
+package com.verygoodbank.tes.web.enricher.concurrenct;
+
+import com.verygoodbank.tes.web.enricher.ProductIndex;
+import com.verygoodbank.tes.web.enricher.RejectionReport;
+import com.verygoodbank.tes.web.enricher.ValidationRules;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The SWAR scanner has to give exactly the same results as the scalar one, including inputs the parser doesn't validate
+ */
+class RowScannerTest {
+
+    private static final byte[] ALPHABET = "0123456789012345678901234567890123456789,,\n\n/:-ab ÿ".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int SAMPLES = 200_000;
+
+    @Test
+    void shouldParseEightDigitsLikeIntegerParseInt() {
+        // GIVEN
+        var random = new Random(1);
+
+        for (int i = 0; i < SAMPLES; i++) {
+            var digits = String.format("%08d", random.nextInt(100_000_000));
+
+            // WHEN
+            var word = Swar.getLong(ByteBuffer.wrap(digits.getBytes(StandardCharsets.US_ASCII)), 0);
+
+            // THEN
+            assertTrue(Swar.isDigits(word), digits);
+            assertEquals(Integer.parseInt(digits), Swar.parseEightDigits(word), digits);
+        }
+    }
+
+    @Test
+    void shouldValidateEveryDateLikeTheScalarValidator() {
+        // GIVEN
+        var random = new Random(2);
+
+        for (int i = 0; i < SAMPLES; i++) {
+            var date = random.nextBoolean()
+                    ? String.format("%04d%02d%02d", random.nextInt(10_000), random.nextInt(14), random.nextInt(33)).getBytes(StandardCharsets.US_ASCII)
+                    : randomBytes(random, random.nextInt(11));
+
+            // WHEN
+            var scalar = DateValidator.validate(ByteBuffer.wrap(date));
+            var swar = DateValidator.validateSwar(ByteBuffer.wrap(date));
+
+            // THEN
+            assertEquals(scalar, swar, new String(date, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    @Test
+    void shouldFindTheSameDelimiters() {
+        // GIVEN
+        var random = new Random(3);
+
+        for (int i = 0; i < SAMPLES / 10; i++) {
+            var buffer = ByteBuffer.wrap(randomBytes(random, random.nextInt(40)));
+            var from = buffer.limit() == 0 ? 0 : random.nextInt(buffer.limit());
+
+            // WHEN
+            var scalar = RowScanner.SCALAR.nextDelimiter(buffer, from, buffer.limit());
+            var swar = RowScanner.SWAR.nextDelimiter(buffer, from, buffer.limit());
+
+            // THEN
+            assertEquals(scalar, swar);
+        }
+    }
+
+    @Test
+    void shouldParseTheSameProductIds() {
+        // GIVEN
+        var random = new Random(4);
+
+        for (int i = 0; i < SAMPLES; i++) {
+            var id = random.nextInt(4) == 0 ? randomBytes(random, random.nextInt(12))
+                    : String.valueOf(random.nextInt(Integer.MAX_VALUE) >>> random.nextInt(31)).getBytes(StandardCharsets.US_ASCII);
+            var trailing = random.nextInt(10);
+            var buffer = ByteBuffer.wrap(Arrays.copyOf(id, id.length + trailing));
+
+            // WHEN
+            var scalar = RowScanner.SCALAR.productId(buffer, 0, id.length);
+            var swar = RowScanner.SWAR.productId(buffer, 0, id.length);
+
+            // THEN
+            assertEquals(scalar, swar, new String(id, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    @Test
+    void shouldEnrichRowsExactlyLikeTheScalarScanner() {
+        // GIVEN
+        var random = new Random(5);
+        var productNames = new HashMap<Long, String>();
+        for (long id = 0; id < 100; id++) {
+            productNames.put(id, "P" + id);
+        }
+        var resolver = new BytesProductNameResolver(ProductIndex.fromMap(productNames));
+
+        for (int i = 0; i < 2_000; i++) {
+            var input = randomRows(random);
+            var scalarReport = new RejectionReport();
+            var swarReport = new RejectionReport();
+
+            // WHEN
+            var scalar = enrich(new RowEnricher(resolver, scalarReport, RowScanner.SCALAR, ValidationRules.STRICT), input, scalarReport);
+            var swar = enrich(new RowEnricher(resolver, swarReport, RowScanner.SWAR, ValidationRules.STRICT), input, swarReport);
+
+            // THEN
+            assertArrayEquals(scalar, swar, new String(input, StandardCharsets.ISO_8859_1));
+            assertEquals(scalarReport.toString(), swarReport.toString());
+        }
+    }
+
+    private static byte[] enrich(RowEnricher rowEnricher, byte[] input, RejectionReport report) {
+        var output = ByteBuffer.allocate(ChunkProcessor.outputBufferSize(input.length) + 64);
+        var rejections = new ChunkRejections();
+        rowEnricher.enrich(ByteBuffer.wrap(input), output, rejections, false, false);
+        rejections.mergeInto(report);
+        return Arrays.copyOf(output.array(), output.position());
+    }
+
+    /**
+     * Mostly valid rows mixed with bad dates, missing columns, empty lines, garbage and an incomplete last row
+     */
+    private static byte[] randomRows(Random random) {
+        var rows = new StringBuilder();
+        var count = random.nextInt(20);
+        for (int i = 0; i < count; i++) {
+            switch (random.nextInt(6)) {
+                case 0 -> rows.append(new String(randomBytes(random, random.nextInt(30)), StandardCharsets.ISO_8859_1));
+                case 1 -> rows.append('\n');
+                case 2 -> rows.append(String.format("%04d%02d%02d,%d,EUR\n", random.nextInt(3000), random.nextInt(13), random.nextInt(32),
+                        random.nextInt(150)));
+                default -> rows.append(String.format("%04d%02d%02d,%d,EUR,%d.%d\n", 1900 + random.nextInt(200), random.nextInt(14),
+                        random.nextInt(33), random.nextInt(150), random.nextInt(1000), random.nextInt(100)));
+            }
+        }
+        return rows.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        var bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return bytes;
+    }
+}